@@ -0,0 +1,42 @@
+package com.bladecoder.ink.benchmarks;
+
+import com.bladecoder.ink.runtime.Story;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full turn: chooseChoiceIndex() followed by continuing until the
+ * next set of choices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChooseChoiceBenchmark {
+
+    private Story story;
+    private int turn;
+
+    @Setup
+    public void setup() throws Exception {
+        story = new Story(StoryGenerator.compile(StoryGenerator.choices(3000)));
+        story.continueMaximally();
+    }
+
+    @Benchmark
+    public String chooseAndContinue() throws Exception {
+        story.chooseChoiceIndex(turn++ % 2);
+        return story.continueMaximally();
+    }
+}
@@ -0,0 +1,53 @@
+package com.bladecoder.ink.benchmarks;
+
+import com.bladecoder.ink.runtime.Story;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures Story.Continue() over generated stories. Every generated story loops
+ * forever so each invocation produces exactly one new line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContinueBenchmark {
+
+    /**
+     * prose: thousands of linear knots; tunnels: deep tunnel stack per line;
+     * lists: heavy list math per line.
+     */
+    @Param({"prose", "tunnels", "lists"})
+    public String kind;
+
+    private Story story;
+
+    @Setup
+    public void setup() throws Exception {
+        String source;
+
+        if ("tunnels".equals(kind)) source = StoryGenerator.tunnels(200);
+        else if ("lists".equals(kind)) source = StoryGenerator.listMath(50);
+        else source = StoryGenerator.prose(2000);
+
+        story = new Story(StoryGenerator.compile(source));
+    }
+
+    @Benchmark
+    public String continueLine() throws Exception {
+        return story.Continue();
+    }
+}
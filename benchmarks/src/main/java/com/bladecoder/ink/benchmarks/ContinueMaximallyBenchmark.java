@@ -0,0 +1,62 @@
+package com.bladecoder.ink.benchmarks;
+
+import com.bladecoder.ink.runtime.Story;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures Story.continueMaximally() from the start of a story with thousands
+ * of knots until it reaches a choice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContinueMaximallyBenchmark {
+
+    @Param({"1000", "5000"})
+    public int knots;
+
+    private Story story;
+
+    private final StringBuilder out = new StringBuilder();
+
+    @Setup
+    public void setup() throws Exception {
+        story = new Story(StoryGenerator.compile(StoryGenerator.prose(knots, true)));
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() throws Exception {
+        story.resetState();
+    }
+
+    @Benchmark
+    public String continueMaximally() throws Exception {
+        return story.continueMaximally();
+    }
+
+    /**
+     * Streaming the text into a reused buffer, as a server writing to its
+     * network buffers would.
+     */
+    @Benchmark
+    public int continueMaximallyTo() throws Exception {
+        out.setLength(0);
+        story.continueMaximallyTo(out);
+        return out.length();
+    }
+}
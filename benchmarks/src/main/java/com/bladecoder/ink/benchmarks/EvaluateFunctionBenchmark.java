@@ -0,0 +1,63 @@
+package com.bladecoder.ink.benchmarks;
+
+import com.bladecoder.ink.runtime.PreparedFunction;
+import com.bladecoder.ink.runtime.Story;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures calling ink functions from the game with Story.evaluateFunction()
+ * and with PreparedFunction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateFunctionBenchmark {
+
+    private Story story;
+
+    private PreparedFunction add;
+
+    private PreparedFunction listCountFrom;
+
+    @Setup
+    public void setup() throws Exception {
+        story = new Story(StoryGenerator.compile(StoryGenerator.prose(100)));
+        story.Continue();
+
+        add = story.prepareFunction("add");
+        listCountFrom = story.prepareFunction("list_count_from");
+    }
+
+    @Benchmark
+    public Object add() throws Exception {
+        return story.evaluateFunction("add", new Object[] {3, 4});
+    }
+
+    @Benchmark
+    public Object listMath() throws Exception {
+        return story.evaluateFunction("list_count_from", new Object[] {50});
+    }
+
+    @Benchmark
+    public Object preparedAdd() throws Exception {
+        return add.call(new Object[] {3, 4});
+    }
+
+    @Benchmark
+    public Object preparedListMath() throws Exception {
+        return listCountFrom.call(new Object[] {50});
+    }
+}
@@ -0,0 +1,92 @@
+package com.bladecoder.ink.benchmarks;
+
+import com.bladecoder.ink.runtime.InkList;
+import com.bladecoder.ink.runtime.InkListItem;
+import com.bladecoder.ink.runtime.Story;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the InkList set operations behind the ink list operators, over a
+ * state-flags list like the ones of inventory heavy stories.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListBenchmark {
+
+    private static final int FLAGS = 64;
+
+    private InkList flags;
+    private InkList query;
+    private InkList other;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder sb = new StringBuilder("LIST Flags = ");
+
+        for (int i = 0; i < FLAGS; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append("flag").append(i);
+        }
+
+        sb.append("\nHello.\n");
+
+        Story story = new Story(StoryGenerator.compile(sb.toString()));
+
+        flags = new InkList("Flags", story);
+        for (int i = 2; i < FLAGS; i += 3) flags.addItem("flag" + i);
+
+        query = new InkList("Flags", story);
+        query.addItem("flag5");
+        query.addItem("flag20");
+        query.addItem("flag62");
+
+        // Same size as flags, but not equal
+        other = new InkList(flags);
+        other.remove(new InkListItem("Flags", "flag2"));
+        other.addItem("flag1");
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return flags.contains(query);
+    }
+
+    @Benchmark
+    public boolean hasIntersection() {
+        return flags.hasIntersection(query);
+    }
+
+    @Benchmark
+    public boolean equalsList() {
+        return flags.equals(other);
+    }
+
+    @Benchmark
+    public InkList union() {
+        return flags.union(query);
+    }
+
+    @Benchmark
+    public InkList without() {
+        return flags.without(query);
+    }
+
+    @Benchmark
+    public InkList intersect() {
+        return flags.intersect(query);
+    }
+}
@@ -0,0 +1,77 @@
+package com.bladecoder.ink.benchmarks;
+
+import com.bladecoder.ink.runtime.Story;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures saving and loading the story state after a number of turns have been
+ * played, so that visit counts and turn indices are populated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateBenchmark {
+
+    @Param({"100", "2000"})
+    public int turns;
+
+    private Story story;
+    private String savedState;
+    private byte[] savedBinaryState;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Setup
+    public void setup() throws Exception {
+        story = new Story(StoryGenerator.compile(StoryGenerator.choices(3000)));
+
+        for (int i = 0; i < turns; i++) {
+            story.continueMaximally();
+            story.chooseChoiceIndex(i % 2);
+        }
+
+        story.continueMaximally();
+        savedState = story.getState().toJson();
+
+        story.getState().toBinary(out);
+        savedBinaryState = out.toByteArray();
+    }
+
+    @Benchmark
+    public String toJson() throws Exception {
+        return story.getState().toJson();
+    }
+
+    @Benchmark
+    public void loadJson() throws Exception {
+        story.getState().loadJson(savedState);
+    }
+
+    @Benchmark
+    public int toBinary() throws Exception {
+        out.reset();
+        story.getState().toBinary(out);
+        return out.size();
+    }
+
+    @Benchmark
+    public void loadBinary() throws Exception {
+        story.getState().loadBinary(new ByteArrayInputStream(savedBinaryState));
+    }
+}
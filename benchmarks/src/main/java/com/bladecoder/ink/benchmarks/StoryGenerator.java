@@ -0,0 +1,181 @@
+package com.bladecoder.ink.benchmarks;
+
+import com.bladecoder.ink.compiler.Compiler;
+
+/**
+ * Generates synthetic ink sources big enough to exercise the runtime hot paths:
+ * thousands of knots, deep tunnel stacks and heavy list math.
+ *
+ * Unless stated otherwise, the generated stories loop back to the first knot,
+ * so they can be continued forever without reaching an END.
+ */
+public class StoryGenerator {
+
+    private static final String LIST_ITEMS = "sword, shield, potion, key, map, torch, rope, lamp";
+
+    /**
+     * Linear prose story that loops forever.
+     *
+     * @param knots
+     *            number of knots.
+     */
+    public static String prose(int knots) {
+        return prose(knots, false);
+    }
+
+    /**
+     * Linear prose story. Every knot writes a few lines, updates some globals and
+     * diverts to the next one.
+     *
+     * @param knots
+     *            number of knots.
+     * @param stopAtEnd
+     *            when true, the last knot offers a choice to go back to the first
+     *            one instead of diverting directly.
+     */
+    public static String prose(int knots, boolean stopAtEnd) {
+        StringBuilder sb = new StringBuilder();
+
+        appendHeader(sb);
+        sb.append("-> knot_0\n\n");
+
+        for (int i = 0; i < knots; i++) {
+            sb.append("=== knot_").append(i).append(" ===\n");
+            sb.append("This is the first line of knot ").append(i).append(".\n");
+            sb.append("~ gold = gold + ").append(i % 7).append('\n');
+            sb.append("{gold > 100: You feel rich.|You count {gold} coins.}\n");
+            sb.append("{knot_").append(i).append(" > 1: You have been here before.} The road goes on.\n");
+            if (stopAtEnd && i == knots - 1) sb.append("+ [Again] ");
+            sb.append("-> knot_").append((i + 1) % knots).append("\n\n");
+        }
+
+        appendFunctions(sb);
+
+        return sb.toString();
+    }
+
+    /**
+     * Choice hub story. Every knot writes some text and offers two sticky choices
+     * leading to the next knots.
+     *
+     * @param knots
+     *            number of knots.
+     */
+    public static String choices(int knots) {
+        StringBuilder sb = new StringBuilder();
+
+        appendHeader(sb);
+        sb.append("-> knot_0\n\n");
+
+        for (int i = 0; i < knots; i++) {
+            sb.append("=== knot_").append(i).append(" ===\n");
+            sb.append("You are in room ").append(i).append(". #room\n");
+            sb.append("+ [Go north] North.\n");
+            sb.append("    ~ inventory += ").append(listItemName(i)).append('\n');
+            sb.append("    -> knot_").append((i + 1) % knots).append('\n');
+            sb.append("+ {gold >= 0} [Go south] South.\n");
+            sb.append("    ~ gold++\n");
+            sb.append("    -> knot_").append((i + 2) % knots).append('\n');
+            sb.append("* [Look around] Nothing here.\n");
+            sb.append("    -> knot_").append(i).append("\n\n");
+        }
+
+        appendFunctions(sb);
+
+        return sb.toString();
+    }
+
+    /**
+     * Story that, for every line, goes down a stack of nested tunnels and comes
+     * back up again.
+     *
+     * @param depth
+     *            number of nested tunnels.
+     */
+    public static String tunnels(int depth) {
+        StringBuilder sb = new StringBuilder();
+
+        appendHeader(sb);
+        sb.append("-> start\n\n");
+
+        sb.append("=== start ===\n");
+        sb.append("Going down.\n");
+        sb.append("-> tunnel_0 ->\n");
+        sb.append("Back on the surface.\n");
+        sb.append("-> start\n\n");
+
+        for (int i = 0; i < depth; i++) {
+            sb.append("=== tunnel_").append(i).append(" ===\n");
+            sb.append("~ gold = gold + 1\n");
+            if (i % 10 == 0) sb.append("Depth ").append(i).append(".\n");
+            if (i + 1 < depth) sb.append("-> tunnel_").append(i + 1).append(" ->\n");
+            sb.append("->->\n\n");
+        }
+
+        appendFunctions(sb);
+
+        return sb.toString();
+    }
+
+    /**
+     * Story where every line performs a batch of list operations.
+     *
+     * @param iterations
+     *            number of list operations performed per line.
+     */
+    public static String listMath(int iterations) {
+        StringBuilder sb = new StringBuilder();
+
+        appendHeader(sb);
+        sb.append("-> start\n\n");
+
+        sb.append("=== start ===\n");
+        sb.append("~ inventory = list_math(").append(iterations).append(", inventory)\n");
+        sb.append("You carry {LIST_COUNT(inventory)} items, best is {LIST_MAX(inventory)}.\n");
+        sb.append("-> start\n\n");
+
+        appendFunctions(sb);
+
+        return sb.toString();
+    }
+
+    /**
+     * Compiles an ink source to its JSON form.
+     */
+    public static String compile(String inkSource) {
+        Compiler compiler = new Compiler();
+        return compiler.compile(inkSource);
+    }
+
+    private static void appendHeader(StringBuilder sb) {
+        sb.append("LIST Items = ").append(LIST_ITEMS).append('\n');
+        sb.append("VAR inventory = ()\n");
+        sb.append("VAR gold = 0\n\n");
+    }
+
+    private static void appendFunctions(StringBuilder sb) {
+        sb.append("=== function add(a, b) ===\n");
+        sb.append("~ return a + b\n\n");
+
+        sb.append("=== function list_math(n, acc) ===\n");
+        sb.append("{ n <= 0:\n");
+        sb.append("    ~ return acc\n");
+        sb.append("}\n");
+        sb.append("~ temp next = acc + Items(1 + n mod 8)\n");
+        sb.append("{ next ? (sword, shield):\n");
+        sb.append("    ~ next -= LIST_MIN(next)\n");
+        sb.append("}\n");
+        sb.append("{ LIST_COUNT(next ^ LIST_INVERT(acc)) > 4:\n");
+        sb.append("    ~ next = LIST_RANGE(LIST_ALL(next), potion, rope)\n");
+        sb.append("}\n");
+        sb.append("~ return list_math(n - 1, next)\n\n");
+
+        sb.append("=== function list_count_from(n) ===\n");
+        sb.append("~ return LIST_COUNT(list_math(n, ()))\n");
+    }
+
+    private static String listItemName(int i) {
+        String[] items = LIST_ITEMS.split(", ");
+        return items[i % items.length];
+    }
+}
@@ -0,0 +1,84 @@
+package com.bladecoder.ink.benchmarks;
+
+import com.bladecoder.ink.runtime.CompiledStory;
+import com.bladecoder.ink.runtime.Story;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading a compiled story from its JSON form, and creating new
+ * sessions of an already loaded one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoryLoadBenchmark {
+
+    @Param({"1000", "5000"})
+    public int knots;
+
+    private String json;
+
+    private byte[] jsonBytes;
+
+    private CompiledStory compiledStory;
+
+    @Setup
+    public void setup() throws Exception {
+        json = StoryGenerator.compile(StoryGenerator.choices(knots));
+        jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        compiledStory = new CompiledStory(json);
+    }
+
+    @Benchmark
+    public Story load() throws Exception {
+        return new Story(json);
+    }
+
+    @Benchmark
+    public Story loadFromStream() throws Exception {
+        return new Story(new ByteArrayInputStream(jsonBytes));
+    }
+
+    /**
+     * Loading with the knots kept as JSON, and continuing the first line.
+     */
+    @Benchmark
+    public String loadLazily() throws Exception {
+        CompiledStory.Options options = new CompiledStory.Options();
+        options.lazyKnots = true;
+
+        return new CompiledStory(json, options).createStory().Continue();
+    }
+
+    /**
+     * The same for a story fully built on load.
+     */
+    @Benchmark
+    public String loadAndContinue() throws Exception {
+        return new CompiledStory(json).createStory().Continue();
+    }
+
+    /**
+     * A new session over an already loaded story.
+     */
+    @Benchmark
+    public Story createSession() throws Exception {
+        return compiledStory.createStory();
+    }
+}
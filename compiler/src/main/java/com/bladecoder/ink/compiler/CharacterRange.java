@@ -13,13 +13,6 @@ public final class CharacterRange {
     }
 
     public CharacterSet toCharacterSet() {
-        if (_correspondingCharSet.isEmpty()) {
-            for (char c = _start; c <= _end; c++) {
-                if (!_excludes.contains(c)) {
-                    _correspondingCharSet.add(c);
-                }
-            }
-        }
         return _correspondingCharSet;
     }
 
@@ -35,6 +28,24 @@ public final class CharacterRange {
         _start = start;
         _end = end;
         _excludes = excludes == null ? new HashSet<>() : new HashSet<>(excludes);
+
+        // Built here, not lazily, since the ranges are shared by parsers
+        // running in different threads.
+        int runStart = -1;
+        for (int c = start; c <= end; c++) {
+            if (_excludes.contains((char) c)) {
+                if (runStart >= 0) {
+                    _correspondingCharSet.addRange((char) runStart, (char) (c - 1));
+                    runStart = -1;
+                }
+            } else if (runStart < 0) {
+                runStart = c;
+            }
+        }
+
+        if (runStart >= 0) {
+            _correspondingCharSet.addRange((char) runStart, end);
+        }
     }
 
     private final char _start;
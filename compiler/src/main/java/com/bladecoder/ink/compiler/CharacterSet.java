@@ -1,9 +1,28 @@
 package com.bladecoder.ink.compiler;
 
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of characters for the parser. contains(char) is in the innermost loop
+ * of the compiler, so the characters are kept without boxing: a bitmap for
+ * ASCII and Latin-1, and a sorted list of ranges for the rest, which is
+ * small even for the identifier characters (whole alphabets).
+ */
+public class CharacterSet extends AbstractSet<Character> {
+    private static final int BITMAP_SIZE = 256;
+
+    private final long[] bitmap = new long[BITMAP_SIZE / 64];
+
+    // Sorted, non overlapping and non adjacent ranges of the characters out of
+    // the bitmap.
+    private int[] rangeStarts = new int[4];
+    private int[] rangeEnds = new int[4];
+    private int rangeCount;
 
-public class CharacterSet extends HashSet<Character> {
     public static CharacterSet fromRange(char start, char end) {
         return new CharacterSet().addRange(start, end);
     }
@@ -18,14 +37,104 @@ public class CharacterSet extends HashSet<Character> {
         addCharacters(charSetToCopy);
     }
 
+    public boolean contains(char c) {
+        if (c < BITMAP_SIZE) {
+            return (bitmap[c >>> 6] & (1L << c)) != 0;
+        }
+
+        return rangeIndex(c) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Character && contains(((Character) o).charValue());
+    }
+
+    public boolean add(char c) {
+        if (contains(c)) {
+            return false;
+        }
+
+        addRange(c, c);
+        return true;
+    }
+
+    @Override
+    public boolean add(Character c) {
+        return add(c.charValue());
+    }
+
+    public boolean remove(char c) {
+        if (c < BITMAP_SIZE) {
+            boolean contained = (bitmap[c >>> 6] & (1L << c)) != 0;
+            bitmap[c >>> 6] &= ~(1L << c);
+            return contained;
+        }
+
+        int i = rangeIndex(c);
+
+        if (i < 0) {
+            return false;
+        }
+
+        if (rangeStarts[i] == rangeEnds[i]) {
+            System.arraycopy(rangeStarts, i + 1, rangeStarts, i, rangeCount - i - 1);
+            System.arraycopy(rangeEnds, i + 1, rangeEnds, i, rangeCount - i - 1);
+            rangeCount--;
+        } else if (c == rangeStarts[i]) {
+            rangeStarts[i]++;
+        } else if (c == rangeEnds[i]) {
+            rangeEnds[i]--;
+        } else {
+            // Split the range in two
+            int end = rangeEnds[i];
+            rangeEnds[i] = c - 1;
+            replaceRanges(i + 1, i + 1, c + 1, end);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Character && remove(((Character) o).charValue());
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(bitmap, 0);
+        rangeCount = 0;
+    }
+
     public CharacterSet addRange(char start, char end) {
-        for (char c = start; c <= end; ++c) {
-            add(c);
+        int c = start;
+
+        for (; c <= end && c < BITMAP_SIZE; c++) {
+            bitmap[c >>> 6] |= 1L << c;
         }
+
+        if (c <= end) {
+            addOutOfBitmapRange(c, end);
+        }
+
         return this;
     }
 
     public CharacterSet addCharacters(Collection<Character> chars) {
+        if (chars instanceof CharacterSet) {
+            CharacterSet other = (CharacterSet) chars;
+
+            for (int i = 0; i < bitmap.length; i++) {
+                bitmap[i] |= other.bitmap[i];
+            }
+
+            for (int i = 0; i < other.rangeCount; i++) {
+                addOutOfBitmapRange(other.rangeStarts[i], other.rangeEnds[i]);
+            }
+
+            return this;
+        }
+
         for (char c : chars) {
             add(c);
         }
@@ -33,9 +142,129 @@ public class CharacterSet extends HashSet<Character> {
     }
 
     public CharacterSet addCharacters(String chars) {
-        for (char c : chars.toCharArray()) {
-            add(c);
+        for (int i = 0; i < chars.length(); i++) {
+            add(chars.charAt(i));
         }
         return this;
     }
+
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (long bits : bitmap) {
+            size += Long.bitCount(bits);
+        }
+
+        for (int i = 0; i < rangeCount; i++) {
+            size += rangeEnds[i] - rangeStarts[i] + 1;
+        }
+
+        return size;
+    }
+
+    @Override
+    public Iterator<Character> iterator() {
+        return new Iterator<Character>() {
+            private int next = find(0);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Character next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+
+                last = next;
+                next = find(next + 1);
+                return (char) last;
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+
+                CharacterSet.this.remove((char) last);
+                last = -1;
+            }
+        };
+    }
+
+    // The range out of the bitmap that holds c, or -1.
+    private int rangeIndex(int c) {
+        int low = 0;
+        int high = rangeCount - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (c < rangeStarts[mid]) high = mid - 1;
+            else if (c > rangeEnds[mid]) low = mid + 1;
+            else return mid;
+        }
+
+        return -1;
+    }
+
+    // The first character in the set from c onwards, or -1.
+    private int find(int c) {
+        for (; c < BITMAP_SIZE; c++) {
+            if ((bitmap[c >>> 6] & (1L << c)) != 0) {
+                return c;
+            }
+        }
+
+        for (int i = 0; i < rangeCount; i++) {
+            if (c <= rangeEnds[i]) {
+                return Math.max(c, rangeStarts[i]);
+            }
+        }
+
+        return -1;
+    }
+
+    private void addOutOfBitmapRange(int start, int end) {
+        // Ranges from i to j - 1 overlap or touch the new one, and are merged
+        // with it.
+        int i = 0;
+        while (i < rangeCount && rangeEnds[i] + 1 < start) {
+            i++;
+        }
+
+        int j = i;
+        while (j < rangeCount && rangeStarts[j] <= end + 1) {
+            j++;
+        }
+
+        if (i < j) {
+            start = Math.min(start, rangeStarts[i]);
+            end = Math.max(end, rangeEnds[j - 1]);
+        }
+
+        replaceRanges(i, j, start, end);
+    }
+
+    // Replaces the ranges from i to j - 1 with the given one.
+    private void replaceRanges(int i, int j, int start, int end) {
+        int newCount = rangeCount - (j - i) + 1;
+
+        if (newCount > rangeStarts.length) {
+            rangeStarts = Arrays.copyOf(rangeStarts, newCount * 2);
+            rangeEnds = Arrays.copyOf(rangeEnds, newCount * 2);
+        }
+
+        System.arraycopy(rangeStarts, j, rangeStarts, i + 1, rangeCount - j);
+        System.arraycopy(rangeEnds, j, rangeEnds, i + 1, rangeCount - j);
+
+        rangeStarts[i] = start;
+        rangeEnds[i] = end;
+        rangeCount = newCount;
+    }
 }
@@ -74,7 +74,7 @@ public class CommentEliminator extends StringParser {
         return sb.toString();
     }
 
-    private final CharacterSet commentOrNewlineStartCharacter = new CharacterSet("/\r\n");
-    private final CharacterSet commentBlockEndCharacter = new CharacterSet("*");
-    private final CharacterSet newlineCharacters = new CharacterSet("\n\r");
+    private static final CharacterSet commentOrNewlineStartCharacter = new CharacterSet("/\r\n");
+    private static final CharacterSet commentBlockEndCharacter = new CharacterSet("*");
+    private static final CharacterSet newlineCharacters = new CharacterSet("\n\r");
 }
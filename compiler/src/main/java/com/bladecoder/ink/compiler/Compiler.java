@@ -29,6 +29,21 @@ public class Compiler {
         public boolean countAllVisits;
         public ErrorHandler errorHandler;
         public IFileHandler fileHandler;
+        /**
+         * Keeps the parsed INCLUDEd files between compilations.
+         */
+        public ParseCache parseCache;
+        /**
+         * Parses the INCLUDEd files in parallel. The fileHandler must be
+         * thread-safe.
+         */
+        public boolean parallelIncludes;
+        /**
+         * Memoizes the parser rules that are parsed many times at the same
+         * position, which makes files with deeply nested inline logic parse in
+         * linear time at the cost of some memory.
+         */
+        public boolean memoization;
     }
 
     public Story getParsedStory() {
@@ -57,6 +72,9 @@ public class Compiler {
 
     public Story parse() {
         parser = new InkParser(inputString, options.sourceFilename, this::onParseError, options.fileHandler);
+        parser.setParseCache(options.parseCache);
+        parser.setParallelIncludes(options.parallelIncludes);
+        parser.setMemoization(options.memoization);
         parsedStory = parser.parse();
         return parsedStory;
     }
@@ -2,6 +2,11 @@ package com.bladecoder.ink.compiler;
 
 import java.io.IOException;
 
+/**
+ * Resolves and loads INCLUDEd files. With Compiler.Options.parallelIncludes
+ * its methods are called from several threads at once, so implementations
+ * must be thread-safe.
+ */
 public interface IFileHandler {
     String resolveInkFilename(String includeName);
 
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
 
 public class InkParser extends StringParser {
     public InkParser(
@@ -44,23 +45,67 @@ public class InkParser extends StringParser {
 
         this.fileHandler = fileHandler != null ? fileHandler : new DefaultFileHandler();
 
+        openFilenames = new HashSet<>();
+
         if (rootParser == null) {
             rootParserRef = this;
-            openFilenames = new HashSet<>();
             if (inkFilename != null) {
                 String fullRootInkPath = this.fileHandler.resolveInkFilename(inkFilename);
                 openFilenames.add(fullRootInkPath);
             }
         } else {
             rootParserRef = rootParser;
+            state.setMemoizationEnabled(rootParser.state.isMemoizationEnabled());
         }
     }
 
+    /**
+     * Reuses the parsed INCLUDEd files that haven't changed since they were put
+     * in the cache.
+     */
+    public void setParseCache(ParseCache parseCache) {
+        this.parseCache = parseCache;
+    }
+
+    /**
+     * Parses the INCLUDEd files in parallel on the common fork/join pool. The
+     * IFileHandler must be thread-safe.
+     */
+    public void setParallelIncludes(boolean parallelIncludes) {
+        this.parallelIncludes = parallelIncludes;
+    }
+
+    /**
+     * Remembers the result of the expression rules at every position, so
+     * backtracking doesn't parse them again. Uses more memory.
+     */
+    public void setMemoization(boolean memoization) {
+        state.setMemoizationEnabled(memoization);
+    }
+
     public Story parse() {
         List<ParsedObject> topLevelContent = statementsAtLevel(StatementLevel.Top);
+        finishPendingIncludes(topLevelContent);
+
+        if (state.isMemoizationEnabled()) {
+            for (ParsedObject obj : topLevelContent) restoreParents(obj);
+        }
+
         return new Story(topLevelContent, rootParserRef != this);
     }
 
+    // The copies of a memoized result share its children, which are left
+    // pointing to the copy of whichever parse attempt was the last. The
+    // content lists are right, so the parents are set again from them.
+    private static void restoreParents(ParsedObject obj) {
+        if (obj.getContent() == null) return;
+
+        for (ParsedObject child : obj.getContent()) {
+            child.parent = obj;
+            restoreParents(child);
+        }
+    }
+
     protected <T> List<T> separatedList(SpecificParseRule<T> mainRule, ParseRule separatorRule) {
         T firstElement = parse(mainRule);
         if (firstElement == null) {
@@ -509,18 +554,6 @@ public class InkParser extends StringParser {
     }
 
     protected String contentTextNoEscape() {
-        if (nonTextPauseCharacters == null) {
-            nonTextPauseCharacters = new CharacterSet("-<");
-        }
-
-        if (nonTextEndCharacters == null) {
-            nonTextEndCharacters = new CharacterSet("{}|\n\r\\#");
-            notTextEndCharactersChoice = new CharacterSet(nonTextEndCharacters);
-            notTextEndCharactersChoice.addCharacters("[]");
-            notTextEndCharactersString = new CharacterSet(nonTextEndCharacters);
-            notTextEndCharactersString.addCharacters("\"");
-        }
-
         ParseRule nonTextRule =
                 () -> oneOf(this::parseDivertArrow, this::parseThreadArrow, this::endOfLine, this::glue);
 
@@ -692,7 +725,24 @@ public class InkParser extends StringParser {
         return expression(0);
     }
 
+    // Inline logic parses the same expression as a condition, then as the
+    // condition of a conditional and finally as an expression to output, so
+    // nested string expressions are parsed an exponential number of times
+    // unless memoized.
     protected com.bladecoder.ink.compiler.ParsedHierarchy.Expression expression(int minimumPrecedence) {
+        return (com.bladecoder.ink.compiler.ParsedHierarchy.Expression)
+                memoized(MEMO_EXPRESSION + minimumPrecedence, () -> parseExpression(minimumPrecedence));
+    }
+
+    // Callers set flags on the expressions (outputWhenComplete,
+    // shouldPopReturnedValue) and add them to their parents, so parses that
+    // reuse a memoized expression get their own copy.
+    @Override
+    protected Object copyMemoized(Object result) {
+        return result instanceof ParsedObject ? ((ParsedObject) result).shallowCopy() : result;
+    }
+
+    private com.bladecoder.ink.compiler.ParsedHierarchy.Expression parseExpression(int minimumPrecedence) {
         whitespace();
 
         com.bladecoder.ink.compiler.ParsedHierarchy.Expression expr = expressionUnary();
@@ -1409,11 +1459,8 @@ public class InkParser extends StringParser {
             error("Recursive INCLUDE detected: '" + fullFilename + "' is already open.", false);
             parseUntilCharactersFromString("\r\n");
             return new com.bladecoder.ink.compiler.ParsedHierarchy.IncludedFile(null);
-        } else {
-            addOpenFilename(fullFilename);
         }
 
-        com.bladecoder.ink.compiler.ParsedHierarchy.Story includedStory = null;
         String includedString = null;
         try {
             includedString = rootParserRef.fileHandler.loadInkFileContents(fullFilename);
@@ -1421,27 +1468,127 @@ public class InkParser extends StringParser {
             error("Failed to load: '" + filename + "'", false);
         }
 
-        if (includedString != null) {
+        if (includedString == null) {
+            return new com.bladecoder.ink.compiler.ParsedHierarchy.IncludedFile(null);
+        }
+
+        // Every parser knows the chain of files that includes it, so they can
+        // detect recursion while parsing in parallel.
+        Set<String> chain = new HashSet<>(openFilenames);
+        chain.add(fullFilename);
+
+        PendingInclude include = new PendingInclude(filename, fullFilename);
+        include.key = rootParserRef.parseCache != null ? ParseCache.key(filename, includedString) : null;
+
+        if (!rootParserRef.parallelIncludes) {
+            ParseCache.Entry entry = parseIncludedFile(include, includedString, chain);
+            return new com.bladecoder.ink.compiler.ParsedHierarchy.IncludedFile(finishInclude(include, entry));
+        }
+
+        final String contents = includedString;
+        include.task = ForkJoinTask.adapt(() -> parseIncludedFile(include, contents, chain))
+                .fork();
+
+        if (pendingIncludes == null) pendingIncludes = new ArrayList<>();
+        pendingIncludes.add(include);
+
+        // Replaced by the parsed file once the whole file has been parsed
+        return include.placeholder;
+    }
+
+    // An INCLUDE being parsed, maybe in another thread.
+    private static class PendingInclude {
+        final String filename;
+        final String fullFilename;
+        final com.bladecoder.ink.compiler.ParsedHierarchy.IncludedFile placeholder =
+                new com.bladecoder.ink.compiler.ParsedHierarchy.IncludedFile(null);
+
+        String key;
+        ForkJoinTask<ParseCache.Entry> task;
+
+        PendingInclude(String filename, String fullFilename) {
+            this.filename = filename;
+            this.fullFilename = fullFilename;
+        }
+    }
+
+    private ParseCache.Entry parseIncludedFile(PendingInclude include, String includedString, Set<String> chain) {
+        ParseCache cache = rootParserRef.parseCache;
+
+        if (cache != null) {
+            ParseCache.Entry entry = cache.get(include.key, rootParserRef.fileHandler);
+            if (entry != null) return entry;
+        } else if (!rootParserRef.parallelIncludes) {
             InkParser parser =
-                    new InkParser(includedString, filename, externalErrorHandler, rootParserRef, fileHandler);
-            includedStory = parser.parse();
+                    new InkParser(includedString, include.filename, externalErrorHandler, rootParserRef, fileHandler);
+            parser.openFilenames = chain;
+            return new ParseCache.Entry(parser.parse());
         }
 
-        removeOpenFilename(fullFilename);
+        // The messages are recorded to report them in order from the thread
+        // that included the file, and again when the cache entry is used.
+        final List<String> messages = new ArrayList<>();
+        final List<ErrorType> messageTypes = new ArrayList<>();
+        final boolean[] hadError = new boolean[1];
 
-        return new com.bladecoder.ink.compiler.ParsedHierarchy.IncludedFile(includedStory);
+        com.bladecoder.ink.runtime.Error.ErrorHandler recordingHandler = (message, type) -> {
+            if (type == ErrorType.Error) hadError[0] = true;
+
+            messages.add(message);
+            messageTypes.add(type);
+        };
+
+        InkParser parser =
+                new InkParser(includedString, include.filename, recordingHandler, rootParserRef, fileHandler);
+        parser.openFilenames = chain;
+        if (cache != null) parser.includedFiles = new ArrayList<>();
+
+        ParseCache.Entry entry = new ParseCache.Entry(parser.parse());
+        entry.messages.addAll(messages);
+        entry.messageTypes.addAll(messageTypes);
+        if (cache != null) entry.dependencies.addAll(parser.includedFiles);
+
+        if (cache != null && !hadError[0]) cache.put(include.key, entry);
+
+        return entry;
     }
 
-    private boolean filenameIsAlreadyOpen(String fullFilename) {
-        return rootParserRef.openFilenames.contains(fullFilename);
+    private com.bladecoder.ink.compiler.ParsedHierarchy.Story finishInclude(
+            PendingInclude include, ParseCache.Entry entry) {
+        entry.replayMessages(externalErrorHandler);
+
+        // The parents of this file depend on it and on everything it includes
+        if (includedFiles != null) {
+            includedFiles.add(new ParseCache.Dependency(include.filename, include.fullFilename, include.key));
+            includedFiles.addAll(entry.dependencies);
+        }
+
+        return entry.story;
     }
 
-    private void addOpenFilename(String fullFilename) {
-        rootParserRef.openFilenames.add(fullFilename);
+    // Waits for the includes parsed in parallel, in the order they appear in
+    // the file, so messages and content are merged deterministically.
+    private void finishPendingIncludes(List<ParsedObject> topLevelContent) {
+        if (pendingIncludes == null) return;
+
+        for (PendingInclude include : pendingIncludes) {
+            com.bladecoder.ink.compiler.ParsedHierarchy.IncludedFile file =
+                    new com.bladecoder.ink.compiler.ParsedHierarchy.IncludedFile(
+                            finishInclude(include, include.task.join()));
+
+            if (include.placeholder.hasOwnDebugMetadata())
+                file.setDebugMetadata(include.placeholder.getDebugMetadata());
+
+            for (int i = 0; i < topLevelContent.size(); i++) {
+                if (topLevelContent.get(i) == include.placeholder) topLevelContent.set(i, file);
+            }
+        }
+
+        pendingIncludes = null;
     }
 
-    private void removeOpenFilename(String fullFilename) {
-        rootParserRef.openFilenames.remove(fullFilename);
+    private boolean filenameIsAlreadyOpen(String fullFilename) {
+        return openFilenames.contains(fullFilename);
     }
 
     protected com.bladecoder.ink.compiler.ParsedHierarchy.Choice choice() {
@@ -1474,6 +1621,10 @@ public class InkParser extends StringParser {
         }
         parsingChoice = true;
 
+        // Text is parsed differently in choices, the memoized expressions
+        // (which may contain strings) can't be reused.
+        state.clearMemo();
+
         com.bladecoder.ink.compiler.ParsedHierarchy.ContentList startContent = null;
         List<ParsedObject> startTextAndLogic = parse(this::mixedTextAndLogic);
         if (startTextAndLogic != null) {
@@ -1509,6 +1660,7 @@ public class InkParser extends StringParser {
         List<ParsedObject> diverts = parse(this::multiDivert);
 
         parsingChoice = false;
+        state.clearMemo();
 
         whitespace();
 
@@ -1750,7 +1902,7 @@ public class InkParser extends StringParser {
     }
 
     protected Object knotStitchNoContentRecoveryRule() {
-        parseUntil(this::knotDeclaration, new CharacterSet("="), null);
+        parseUntil(this::knotDeclaration, equalsCharacterSet, null);
 
         List<ParsedObject> recoveredFlowContent = new ArrayList<>();
         recoveredFlowContent.add(new com.bladecoder.ink.compiler.ParsedHierarchy.Text("<ERROR IN FLOW>"));
@@ -1997,10 +2149,6 @@ public class InkParser extends StringParser {
     }
 
     protected Object sequenceTypeSymbolAnnotation() {
-        if (sequenceTypeSymbols == null) {
-            sequenceTypeSymbols = new CharacterSet("!&~$ ");
-        }
-
         int sequenceType = 0;
         String sequenceAnnotations = parseCharactersFromCharSet(sequenceTypeSymbols);
         if (sequenceAnnotations == null) {
@@ -2461,7 +2609,7 @@ public class InkParser extends StringParser {
     }
 
     private String identifier() {
-        String name = parseCharactersFromCharSet(getIdentifierCharSet());
+        String name = parseCharactersFromCharSet(identifierCharSet);
         if (name == null) {
             return null;
         }
@@ -2653,21 +2801,19 @@ public class InkParser extends StringParser {
         };
     }
 
-    private void extendIdentifierCharacterRanges(CharacterSet identifierCharSet) {
+    private static void extendIdentifierCharacterRanges(CharacterSet identifierCharSet) {
         for (CharacterRange range : listAllCharacterRanges()) {
             identifierCharSet.addCharacters(range.toCharacterSet());
         }
     }
 
-    private CharacterSet getIdentifierCharSet() {
-        if (identifierCharSet == null) {
-            identifierCharSet = new CharacterSet()
-                    .addRange('A', 'Z')
-                    .addRange('a', 'z')
-                    .addRange('0', '9')
-                    .addCharacters("_");
-            extendIdentifierCharacterRanges(identifierCharSet);
-        }
+    private static CharacterSet createIdentifierCharSet() {
+        CharacterSet identifierCharSet = new CharacterSet()
+                .addRange('A', 'Z')
+                .addRange('a', 'z')
+                .addRange('0', '9')
+                .addCharacters("_");
+        extendIdentifierCharacterRanges(identifierCharSet);
         return identifierCharSet;
     }
 
@@ -2740,12 +2886,6 @@ public class InkParser extends StringParser {
     }
 
     private String runtimePath() {
-        if (runtimePathCharacterSet == null) {
-            runtimePathCharacterSet = new CharacterSet(getIdentifierCharSet());
-            runtimePathCharacterSet.addCharacters("-");
-            runtimePathCharacterSet.addCharacters(".");
-        }
-
         return parseCharactersFromCharSet(runtimePathCharacterSet);
     }
 
@@ -2776,19 +2916,24 @@ public class InkParser extends StringParser {
         return inputStruct;
     }
 
-    private final CharacterSet inlineWhitespaceChars = new CharacterSet(" \t");
+    // The character sets are shared by all the parsers, and never modified
+    private static final CharacterSet inlineWhitespaceChars = new CharacterSet(" \t");
+    private static final CharacterSet nonTextPauseCharacters = new CharacterSet("-<");
+    private static final CharacterSet nonTextEndCharacters = new CharacterSet("{}|\n\r\\#");
+    private static final CharacterSet notTextEndCharactersChoice =
+            new CharacterSet(nonTextEndCharacters).addCharacters("[]");
+    private static final CharacterSet notTextEndCharactersString =
+            new CharacterSet(nonTextEndCharacters).addCharacters("\"");
+    private static final CharacterSet sequenceTypeSymbols = new CharacterSet("!&~$ ");
+    private static final CharacterSet equalsCharacterSet = new CharacterSet("=");
+    private static final CharacterSet identifierCharSet = createIdentifierCharSet();
+    private static final CharacterSet runtimePathCharacterSet = new CharacterSet(identifierCharSet).addCharacters("-.");
     private final java.util.Map<StatementLevel, List<ParseRule>> statementRulesAtLevel =
             new java.util.EnumMap<>(StatementLevel.class);
     private final java.util.Map<StatementLevel, List<ParseRule>> statementBreakRulesAtLevel =
             new java.util.EnumMap<>(StatementLevel.class);
-    private CharacterSet nonTextPauseCharacters;
-    private CharacterSet nonTextEndCharacters;
-    private CharacterSet notTextEndCharactersChoice;
-    private CharacterSet notTextEndCharactersString;
-    private CharacterSet sequenceTypeSymbols;
-    private CharacterSet identifierCharSet;
-    private CharacterSet runtimePathCharacterSet;
     private boolean parsingChoice;
+    private static final int MEMO_EXPRESSION = 1 << 16;
     private List<InfixOperator> binaryOperators = new ArrayList<>();
     private int maxBinaryOpLength;
 
@@ -2798,5 +2943,11 @@ public class InkParser extends StringParser {
 
     private InkParser rootParserRef;
     private Set<String> openFilenames;
+    private ParseCache parseCache;
+    private boolean parallelIncludes;
+    private List<PendingInclude> pendingIncludes;
+
+    // Files included while parsing an include, when there is a parse cache.
+    private List<ParseCache.Dependency> includedFiles;
     private List<ParsedObject> basicParsedContent;
 }
@@ -0,0 +1,296 @@
+package com.bladecoder.ink.compiler;
+
+import com.bladecoder.ink.compiler.ParsedHierarchy.Story;
+import com.bladecoder.ink.runtime.Error.ErrorHandler;
+import com.bladecoder.ink.runtime.Error.ErrorType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the parsed hierarchy of INCLUDEd files between compilations, so only
+ * the files that changed are parsed again. To use, share the same cache in the
+ * options of every compilation of the project:
+ *
+ * ParseCache cache = new ParseCache(cacheDirectory);
+ *
+ * options.parseCache = cache;
+ *
+ * Entries are keyed by a hash of the include name and the file contents, and
+ * also remember the hashes of the files they include, so editing a nested
+ * include parses its parents again. Files with parse errors aren't cached.
+ *
+ * The parsed objects are modified when the story is exported, so the cache
+ * stores them serialized and every compilation gets a fresh copy. With a
+ * directory, the entries are also written there and survive the process. Only
+ * the classes of the parsed hierarchy and the few JDK types they use are read
+ * back from an entry, anything else makes it a miss.
+ */
+public class ParseCache {
+    // Bump when the parser output or the fields of the parsed hierarchy
+    // classes change, so old entries on disk are ignored. The classes declare
+    // their serialVersionUID, so field changes aren't detected by themselves.
+    private static final int FORMAT_VERSION = 2;
+
+    // Classes that can appear in a serialized entry, besides the ones of the
+    // compiler.
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+            "com.bladecoder.ink.runtime.Error$ErrorType",
+            "java.lang.Boolean",
+            "java.lang.Enum",
+            "java.lang.Float",
+            "java.lang.Integer",
+            "java.lang.Number",
+            "java.lang.String",
+            "java.util.ArrayList",
+            "java.util.HashMap",
+            "java.util.HashSet",
+            "java.util.LinkedHashMap",
+            "java.util.LinkedHashSet"));
+
+    private static final String FILE_EXTENSION = ".inkparse";
+
+    private final ConcurrentHashMap<String, byte[]> entries = new ConcurrentHashMap<>();
+    private final Path directory;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * A cache only kept in memory.
+     */
+    public ParseCache() {
+        this(null);
+    }
+
+    /**
+     * A cache also stored in the given directory, which is created if needed.
+     */
+    public ParseCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes every entry from memory. The files in the directory are kept.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    // A file read while parsing an include, with the key of its contents.
+    static class Dependency implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String includeName;
+        final String fullFilename;
+        final String key;
+
+        Dependency(String includeName, String fullFilename, String key) {
+            this.includeName = includeName;
+            this.fullFilename = fullFilename;
+            this.key = key;
+        }
+    }
+
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Story story;
+        final ArrayList<String> messages = new ArrayList<>();
+        final ArrayList<ErrorType> messageTypes = new ArrayList<>();
+        final ArrayList<Dependency> dependencies = new ArrayList<>();
+
+        Entry(Story story) {
+            this.story = story;
+        }
+
+        // Reports the messages of the parse. Without a handler, errors throw
+        // like they do in the parser.
+        void replayMessages(ErrorHandler handler) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (handler != null) handler.error(messages.get(i), messageTypes.get(i));
+                else if (messageTypes.get(i) == ErrorType.Error) throw new RuntimeException(messages.get(i));
+            }
+        }
+    }
+
+    static String key(String includeName, String contents) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Integer.toString(FORMAT_VERSION).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(includeName.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(contents.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns a fresh copy of the cached entry, or null if the file (or any of
+     * the files it includes) has changed.
+     */
+    Entry get(String key, IFileHandler fileHandler) {
+        byte[] bytes = entries.get(key);
+
+        if (bytes == null && directory != null) {
+            try {
+                Path file = directory.resolve(key + FILE_EXTENSION);
+
+                if (Files.exists(file)) {
+                    bytes = Files.readAllBytes(file);
+                    entries.put(key, bytes);
+                }
+            } catch (IOException e) {
+                bytes = null;
+            }
+        }
+
+        Entry entry = bytes != null ? deserialize(key, bytes) : null;
+
+        if (entry != null && !dependenciesUnchanged(entry, fileHandler)) entry = null;
+
+        if (entry != null) hits.incrementAndGet();
+        else misses.incrementAndGet();
+
+        return entry;
+    }
+
+    /**
+     * Stores the entry. It must be called before the parsed story is added to
+     * the story including it, since that modifies it.
+     */
+    void put(String key, Entry entry) {
+        byte[] bytes;
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ObjectOutputStream objOut = new ObjectOutputStream(out);
+            objOut.writeObject(entry);
+            objOut.close();
+            bytes = out.toByteArray();
+        } catch (IOException e) {
+            // Something in the hierarchy can't be serialized, just don't cache
+            return;
+        }
+
+        entries.put(key, bytes);
+
+        if (directory != null) writeFile(key, bytes);
+    }
+
+    private void writeFile(String key, byte[] bytes) {
+        Path tmp = null;
+
+        try {
+            Files.createDirectories(directory);
+
+            // Written to a temporary file first, so a concurrent compilation
+            // never reads half an entry.
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(
+                    tmp,
+                    directory.resolve(key + FILE_EXTENSION),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The memory cache still works
+            try {
+                if (tmp != null) Files.deleteIfExists(tmp);
+            } catch (IOException e2) {
+            }
+        }
+    }
+
+    private Entry deserialize(String key, byte[] bytes) {
+        try {
+            ObjectInputStream in = new EntryInputStream(new ByteArrayInputStream(bytes));
+            return (Entry) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // Written by a different version of the compiler
+            entries.remove(key);
+            return null;
+        }
+    }
+
+    // Reads only the allowed classes, so a file put in the cache directory can't
+    // make the compiler instantiate anything else.
+    private static class EntryInputStream extends ObjectInputStream {
+        EntryInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName()))
+                throw new InvalidClassException(desc.getName(), "Class not allowed in a parse cache entry");
+
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed in a parse cache entry");
+        }
+
+        private static boolean isAllowed(String name) {
+            // Arrays, of primitives ("[I") or of objects ("[Ljava.lang.String;")
+            while (name.startsWith("[")) name = name.substring(1);
+
+            if (name.length() == 1) return true;
+            if (name.startsWith("L") && name.endsWith(";")) name = name.substring(1, name.length() - 1);
+
+            return name.startsWith("com.bladecoder.ink.compiler.") || ALLOWED_CLASSES.contains(name);
+        }
+    }
+
+    private static boolean dependenciesUnchanged(Entry entry, IFileHandler fileHandler) {
+        List<Dependency> dependencies = entry.dependencies;
+
+        for (Dependency d : dependencies) {
+            try {
+                String contents = fileHandler.loadInkFileContents(d.fullFilename);
+
+                if (contents == null || !d.key.equals(key(d.includeName, contents))) return false;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
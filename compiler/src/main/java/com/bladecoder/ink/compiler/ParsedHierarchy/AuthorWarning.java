@@ -1,6 +1,8 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 public class AuthorWarning extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public String warningMessage;
 
     public AuthorWarning(String message) {
@@ -5,6 +5,8 @@ import com.bladecoder.ink.runtime.Container;
 import com.bladecoder.ink.runtime.NativeFunctionCall;
 
 public class BinaryExpression extends Expression {
+    private static final long serialVersionUID = 1L;
+
     public Expression leftExpression;
     public Expression rightExpression;
     public String opName;
@@ -9,6 +9,8 @@ import com.bladecoder.ink.runtime.RTObject;
 import com.bladecoder.ink.runtime.VariableAssignment;
 
 public class Choice extends ParsedObject implements IWeavePoint, INamedContent {
+    private static final long serialVersionUID = 1L;
+
     public ContentList startContent;
     public ContentList choiceOnlyContent;
     public ContentList innerContent;
@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Conditional extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     private Expression initialCondition;
     private List<ConditionalSingleBranch> branches;
     private ControlCommand reJoinTarget;
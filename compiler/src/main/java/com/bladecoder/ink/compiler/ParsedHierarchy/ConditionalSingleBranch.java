@@ -9,6 +9,8 @@ import com.bladecoder.ink.runtime.StringValue;
 import java.util.List;
 
 public class ConditionalSingleBranch extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public boolean isTrueBranch;
     private Expression ownExpression;
     public boolean matchingEquality;
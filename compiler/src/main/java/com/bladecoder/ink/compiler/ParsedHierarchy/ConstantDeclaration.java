@@ -1,6 +1,8 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 public class ConstantDeclaration extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public Identifier constantIdentifier;
     public Expression expression;
 
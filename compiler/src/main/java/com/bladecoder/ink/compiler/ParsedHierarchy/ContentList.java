@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class ContentList extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     private boolean dontFlatten;
 
     public Container getRuntimeContainer() {
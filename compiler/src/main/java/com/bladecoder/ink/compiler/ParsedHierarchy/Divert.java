@@ -9,6 +9,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Divert extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public Path target;
     public ParsedObject targetContent;
     public List<Expression> arguments;
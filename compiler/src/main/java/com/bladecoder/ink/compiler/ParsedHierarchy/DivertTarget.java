@@ -5,6 +5,8 @@ import com.bladecoder.ink.runtime.Container;
 import com.bladecoder.ink.runtime.DivertTargetValue;
 
 public class DivertTarget extends Expression {
+    private static final long serialVersionUID = 1L;
+
     public Divert divert;
 
     private DivertTargetValue runtimeDivertTargetValue;
@@ -5,6 +5,8 @@ import com.bladecoder.ink.runtime.Container;
 import com.bladecoder.ink.runtime.ControlCommand;
 
 public abstract class Expression extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     private boolean outputWhenComplete;
     private Container prototypeRuntimeConstantExpression;
 
@@ -3,6 +3,8 @@ package com.bladecoder.ink.compiler.ParsedHierarchy;
 import java.util.List;
 
 public class ExternalDeclaration extends ParsedObject implements INamedContent {
+    private static final long serialVersionUID = 1L;
+
     public Identifier identifier;
     public List<String> argumentNames;
 
@@ -5,6 +5,7 @@ import com.bladecoder.ink.runtime.Container;
 import com.bladecoder.ink.runtime.DebugMetadata;
 import com.bladecoder.ink.runtime.Divert;
 import com.bladecoder.ink.runtime.INamedContent;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -12,7 +13,11 @@ import java.util.Map;
 
 // Base class for Knots and Stitches
 public abstract class FlowBase extends ParsedObject implements INamedContent {
-    public static class Argument {
+    private static final long serialVersionUID = 1L;
+
+    public static class Argument implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         public Identifier identifier;
         public boolean isByReference;
         public boolean isDivertTarget;
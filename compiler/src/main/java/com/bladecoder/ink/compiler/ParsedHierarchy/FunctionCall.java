@@ -11,6 +11,8 @@ import com.bladecoder.ink.runtime.StringValue;
 import java.util.List;
 
 public class FunctionCall extends Expression {
+    private static final long serialVersionUID = 1L;
+
     private final Divert proxyDivert;
     private DivertTarget divertTargetToCount;
     private VariableReference variableReferenceToCount;
@@ -4,6 +4,8 @@ import com.bladecoder.ink.compiler.RuntimeUtils;
 import com.bladecoder.ink.runtime.Container;
 
 public class Gather extends ParsedObject implements IWeavePoint, INamedContent {
+    private static final long serialVersionUID = 1L;
+
     public Identifier identifier;
     private final int indentationDepth;
 
@@ -1,7 +1,18 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 public class Glue extends Wrap<com.bladecoder.ink.runtime.Glue> {
+    private static final long serialVersionUID = 1L;
+
     public Glue(com.bladecoder.ink.runtime.Glue glue) {
         super(glue);
     }
+
+    @Override
+    public com.bladecoder.ink.runtime.RTObject generateRuntimeObject() {
+        // Glue has no state, so a copy restored from the parse cache just
+        // makes a new one
+        com.bladecoder.ink.runtime.RTObject glue = super.generateRuntimeObject();
+
+        return glue != null ? glue : new com.bladecoder.ink.runtime.Glue();
+    }
 }
@@ -1,16 +1,32 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 import com.bladecoder.ink.runtime.DebugMetadata;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+public class Identifier implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-public class Identifier {
     public String name;
-    public DebugMetadata debugMetadata;
+    public transient DebugMetadata debugMetadata;
 
     @Override
     public String toString() {
         return name;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        ParsedObject.writeDebugMetadata(out, debugMetadata);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        debugMetadata = ParsedObject.readDebugMetadata(in);
+    }
+
     public static final Identifier Done = new Identifier();
 
     static {
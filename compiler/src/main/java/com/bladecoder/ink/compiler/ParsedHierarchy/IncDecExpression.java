@@ -7,6 +7,8 @@ import com.bladecoder.ink.runtime.VariableAssignment;
 import com.bladecoder.ink.runtime.VariableReference;
 
 public class IncDecExpression extends Expression {
+    private static final long serialVersionUID = 1L;
+
     public Identifier varIdentifier;
     public boolean isInc;
     public Expression expression;
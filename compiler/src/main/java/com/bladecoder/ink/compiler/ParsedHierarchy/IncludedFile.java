@@ -1,6 +1,8 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 public class IncludedFile extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public final Story includedStory;
 
     public IncludedFile(Story includedStory) {
@@ -3,6 +3,8 @@ package com.bladecoder.ink.compiler.ParsedHierarchy;
 import java.util.List;
 
 public class Knot extends FlowBase {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public FlowLevel getFlowLevel() {
         return FlowLevel.Knot;
@@ -7,6 +7,8 @@ import com.bladecoder.ink.runtime.InkListItem;
 import com.bladecoder.ink.runtime.ListValue;
 
 public class List extends Expression {
+    private static final long serialVersionUID = 1L;
+
     public java.util.List<Identifier> itemIdentifierList;
 
     public List(java.util.List<Identifier> itemIdentifierList) {
@@ -7,6 +7,8 @@ import java.util.HashMap;
 import java.util.List;
 
 public class ListDefinition extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public Identifier identifier;
     public List<ListElementDefinition> itemDefinitions;
 
@@ -1,6 +1,8 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 public class ListElementDefinition extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public Identifier identifier;
     public Integer explicitValue;
     public int seriesValue;
@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class MultipleConditionExpression extends Expression {
+    private static final long serialVersionUID = 1L;
+
     public List<Expression> getSubExpressions() {
         List<Expression> result = new ArrayList<>();
         if (content != null) {
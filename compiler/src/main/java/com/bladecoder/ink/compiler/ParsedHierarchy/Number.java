@@ -7,6 +7,8 @@ import com.bladecoder.ink.runtime.FloatValue;
 import com.bladecoder.ink.runtime.IntValue;
 
 public class Number extends Expression {
+    private static final long serialVersionUID = 1L;
+
     public java.lang.Object value;
 
     public Number(java.lang.Object value) {
@@ -2,15 +2,23 @@ package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 import com.bladecoder.ink.runtime.Container;
 import com.bladecoder.ink.runtime.DebugMetadata;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-public abstract class ParsedObject {
-    private DebugMetadata debugMetadata;
+public abstract class ParsedObject implements Serializable, Cloneable {
+    private static final long serialVersionUID = 1L;
+
+    // The runtime classes aren't Serializable. The debug metadata is written
+    // by hand for the parse cache, and the runtime object is generated again.
+    private transient DebugMetadata debugMetadata;
     private boolean alreadyHadError;
     private boolean alreadyHadWarning;
-    private com.bladecoder.ink.runtime.RTObject runtimeObject;
+    private transient com.bladecoder.ink.runtime.RTObject runtimeObject;
 
     public DebugMetadata getDebugMetadata() {
         if (debugMetadata == null && parent != null) {
@@ -179,6 +187,25 @@ public abstract class ParsedObject {
         }
     }
 
+    /**
+     * A copy of this object that shares its children, with its own content
+     * list and no parent. The parser gives one to every parse that reuses a
+     * memoized result, since they set flags on it and add it to their parents.
+     * The parents of the children are set again when the parse ends.
+     */
+    public ParsedObject shallowCopy() {
+        try {
+            ParsedObject copy = (ParsedObject) super.clone();
+            copy.parent = null;
+
+            if (content != null) copy.content = new ArrayList<>(content);
+
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public <T extends ParsedObject> T insertContent(int index, T subContent) {
         if (content == null) {
             content = new ArrayList<>();
@@ -309,4 +336,41 @@ public abstract class ParsedObject {
     public List<ParsedObject> getContent() {
         return content;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        writeDebugMetadata(out, debugMetadata);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        debugMetadata = readDebugMetadata(in);
+    }
+
+    static void writeDebugMetadata(ObjectOutputStream out, DebugMetadata dm) throws IOException {
+        out.writeBoolean(dm != null);
+
+        if (dm == null) return;
+
+        out.writeInt(dm.startLineNumber);
+        out.writeInt(dm.endLineNumber);
+        out.writeInt(dm.startCharacterNumber);
+        out.writeInt(dm.endCharacterNumber);
+        out.writeObject(dm.fileName);
+        out.writeObject(dm.sourceName);
+    }
+
+    static DebugMetadata readDebugMetadata(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        if (!in.readBoolean()) return null;
+
+        DebugMetadata dm = new DebugMetadata();
+        dm.startLineNumber = in.readInt();
+        dm.endLineNumber = in.readInt();
+        dm.startCharacterNumber = in.readInt();
+        dm.endCharacterNumber = in.readInt();
+        dm.fileName = (String) in.readObject();
+        dm.sourceName = (String) in.readObject();
+
+        return dm;
+    }
 }
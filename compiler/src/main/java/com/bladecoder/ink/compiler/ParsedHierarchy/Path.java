@@ -1,10 +1,13 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
-public class Path {
+public class Path implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private FlowLevel baseTargetLevel;
     private String dotSeparatedComponents;
     public final List<Identifier> components;
@@ -6,6 +6,8 @@ import com.bladecoder.ink.runtime.ControlCommand;
 import com.bladecoder.ink.runtime.Void;
 
 public class Return extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public Expression returnedExpression;
 
     public Return(Expression returnedExpression) {
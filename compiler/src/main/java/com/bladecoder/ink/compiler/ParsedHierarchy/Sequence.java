@@ -11,6 +11,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Sequence extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public List<ParsedObject> sequenceElements;
     public int sequenceType;
 
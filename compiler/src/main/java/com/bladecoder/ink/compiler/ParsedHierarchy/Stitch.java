@@ -3,6 +3,8 @@ package com.bladecoder.ink.compiler.ParsedHierarchy;
 import java.util.List;
 
 public class Stitch extends FlowBase {
+    private static final long serialVersionUID = 1L;
+
     @Override
     public FlowLevel getFlowLevel() {
         return FlowLevel.Stitch;
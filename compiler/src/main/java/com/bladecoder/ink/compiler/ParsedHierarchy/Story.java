@@ -13,6 +13,8 @@ import java.util.List;
 import java.util.Map;
 
 public class Story extends FlowBase {
+    private static final long serialVersionUID = 1L;
+
     public Map<String, Expression> constants;
     public Map<String, ExternalDeclaration> externals;
 
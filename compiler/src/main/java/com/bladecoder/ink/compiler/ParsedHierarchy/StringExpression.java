@@ -6,6 +6,8 @@ import com.bladecoder.ink.runtime.ControlCommand;
 import java.util.List;
 
 public class StringExpression extends Expression {
+    private static final long serialVersionUID = 1L;
+
     public boolean isSingleString() {
         if (content == null || content.size() != 1) {
             return false;
@@ -3,6 +3,8 @@ package com.bladecoder.ink.compiler.ParsedHierarchy;
 import com.bladecoder.ink.runtime.ControlCommand;
 
 public class Tag extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public boolean isStart;
     public boolean inChoice;
 
@@ -3,6 +3,8 @@ package com.bladecoder.ink.compiler.ParsedHierarchy;
 import com.bladecoder.ink.runtime.StringValue;
 
 public class Text extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     private String text;
 
     public Text(String str) {
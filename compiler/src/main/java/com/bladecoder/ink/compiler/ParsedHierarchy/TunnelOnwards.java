@@ -1,6 +1,8 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 public class TunnelOnwards extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public Divert divertAfter;
     private com.bladecoder.ink.runtime.Divert runtimeDivert;
     private com.bladecoder.ink.runtime.DivertTargetValue runtimeDivertTargetValue;
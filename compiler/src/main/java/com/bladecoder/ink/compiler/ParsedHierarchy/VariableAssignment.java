@@ -4,6 +4,8 @@ import com.bladecoder.ink.compiler.RuntimeUtils;
 import com.bladecoder.ink.runtime.Container;
 
 public class VariableAssignment extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public Identifier variableIdentifier;
     public Expression expression;
     public ListDefinition listDefinition;
@@ -5,6 +5,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class VariableReference extends Expression {
+    private static final long serialVersionUID = 1L;
+
     private final String name;
     private Identifier singleIdentifier;
 
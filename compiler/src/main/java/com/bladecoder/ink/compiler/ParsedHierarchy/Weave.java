@@ -11,6 +11,8 @@ import java.util.Map;
 
 // Used by the FlowBase when constructing the weave flow from a flat list of content objects.
 public class Weave extends ParsedObject {
+    private static final long serialVersionUID = 1L;
+
     public Container rootContainer;
     private Container currentContainer;
 
@@ -1,7 +1,11 @@
 package com.bladecoder.ink.compiler.ParsedHierarchy;
 
 public class Wrap<T extends com.bladecoder.ink.runtime.RTObject> extends ParsedObject {
-    private final T objToWrap;
+    private static final long serialVersionUID = 1L;
+
+    // Runtime objects aren't Serializable, so a Wrap restored from the parse
+    // cache has to generate its object again.
+    private final transient T objToWrap;
 
     public Wrap(T objToWrap) {
         this.objToWrap = objToWrap;
@@ -13,12 +17,16 @@ public class Wrap<T extends com.bladecoder.ink.runtime.RTObject> extends ParsedO
     }
 
     public static class Glue extends Wrap<com.bladecoder.ink.runtime.Glue> {
+        private static final long serialVersionUID = 1L;
+
         public Glue(com.bladecoder.ink.runtime.Glue glue) {
             super(glue);
         }
     }
 
     public static class LegacyTag extends Wrap<com.bladecoder.ink.runtime.Tag> {
+        private static final long serialVersionUID = 1L;
+
         public LegacyTag(com.bladecoder.ink.runtime.Tag tag) {
             super(tag);
         }
@@ -3,6 +3,8 @@ package com.bladecoder.ink.compiler.StringParser;
 import com.bladecoder.ink.compiler.CharacterSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 public class StringParser {
@@ -54,6 +56,10 @@ public class StringParser {
 
     public boolean hadError;
 
+    // Errors and warnings raised, reported or not. Rules that raise any
+    // aren't memoized, so they're raised again when parsed again.
+    private int errorCount;
+
     protected String preProcessInputString(String str) {
         return str;
     }
@@ -131,6 +137,8 @@ public class StringParser {
     }
 
     protected void errorOnLine(String message, int lineNumber, boolean isWarning) {
+        errorCount++;
+
         if (!state.isErrorReportedAlreadyInScope()) {
             String errorType = isWarning ? "Warning" : "Error";
 
@@ -248,6 +256,48 @@ public class StringParser {
         return null;
     }
 
+    /**
+     * Parses the rule, or reuses what it returned the last time it was parsed
+     * at the current position, if memoization is enabled in the state. The key
+     * must identify the rule and its arguments, and the rule must only depend
+     * on the position and the custom flags (or clear the memo when anything
+     * else it depends on changes).
+     *
+     * Callers may modify the result, so the memo keeps a copy of it, made by
+     * copyMemoized() before it's returned, and every reuse gets a new copy.
+     */
+    protected Object memoized(int ruleKey, ParseRule rule) {
+        if (!state.isMemoizationEnabled()) {
+            return rule.parse();
+        }
+
+        StringParserState.MemoEntry entry = state.getMemo(ruleKey);
+        if (entry != null) {
+            state.restoreMemo(entry);
+            return copyMemoized(entry.getResult());
+        }
+
+        int startIndex = getIndex();
+        long startFlags = state.getCustomFlags();
+        int errorsBefore = errorCount;
+
+        Object result = rule.parse();
+
+        if (errorCount == errorsBefore) {
+            state.putMemo(ruleKey, startIndex, startFlags, copyMemoized(result));
+        }
+
+        return result;
+    }
+
+    /**
+     * Copies the result of a memoized rule. Returns the same object by default,
+     * which is only right for results nobody modifies.
+     */
+    protected Object copyMemoized(Object result) {
+        return result;
+    }
+
     public List<Object> oneOrMore(ParseRule rule) {
         List<Object> results = new ArrayList<>();
 
@@ -436,7 +486,13 @@ public class StringParser {
     }
 
     public String parseCharactersFromString(String str, boolean shouldIncludeStrChars, int maxCount) {
-        return parseCharactersFromCharSet(new CharacterSet(str), shouldIncludeStrChars, maxCount);
+        CharacterSet charSet = stringCharacterSets.get(str);
+        if (charSet == null) {
+            charSet = new CharacterSet(str);
+            stringCharacterSets.put(str, charSet);
+        }
+
+        return parseCharactersFromCharSet(charSet, shouldIncludeStrChars, maxCount);
     }
 
     public String parseCharactersFromCharSet(CharacterSet charSet, boolean shouldIncludeChars, int maxCount) {
@@ -487,13 +543,7 @@ public class StringParser {
     public String parseUntil(ParseRule stopRule, CharacterSet pauseCharacters, CharacterSet endCharacters) {
         int ruleId = beginRule();
 
-        CharacterSet pauseAndEnd = new CharacterSet();
-        if (pauseCharacters != null) {
-            pauseAndEnd.addCharacters(pauseCharacters);
-        }
-        if (endCharacters != null) {
-            pauseAndEnd.addCharacters(endCharacters);
-        }
+        CharacterSet pauseAndEnd = pauseAndEndCharacters(pauseCharacters, endCharacters);
 
         StringBuilder parsedString = new StringBuilder();
         Object ruleResultAtPause;
@@ -536,6 +586,28 @@ public class StringParser {
         return (String) failRule(ruleId);
     }
 
+    private CharacterSet pauseAndEndCharacters(CharacterSet pauseCharacters, CharacterSet endCharacters) {
+        IdentityHashMap<CharacterSet, CharacterSet> byEnd = pauseAndEndCharacterSets.get(pauseCharacters);
+        if (byEnd == null) {
+            byEnd = new IdentityHashMap<>();
+            pauseAndEndCharacterSets.put(pauseCharacters, byEnd);
+        }
+
+        CharacterSet pauseAndEnd = byEnd.get(endCharacters);
+        if (pauseAndEnd == null) {
+            pauseAndEnd = new CharacterSet();
+            if (pauseCharacters != null) {
+                pauseAndEnd.addCharacters(pauseCharacters);
+            }
+            if (endCharacters != null) {
+                pauseAndEnd.addCharacters(endCharacters);
+            }
+            byEnd.put(endCharacters, pauseAndEnd);
+        }
+
+        return pauseAndEnd;
+    }
+
     public Integer parseInt() {
         int oldIndex = getIndex();
         int oldCharacterInLineIndex = getCharacterInLineIndex();
@@ -594,4 +666,10 @@ public class StringParser {
     }
 
     private char[] _chars;
+
+    // The character sets built by the parse methods, so they aren't built
+    // again every time. The callers must not modify the sets they pass.
+    private final HashMap<String, CharacterSet> stringCharacterSets = new HashMap<>();
+    private final IdentityHashMap<CharacterSet, IdentityHashMap<CharacterSet, CharacterSet>> pauseAndEndCharacterSets =
+            new IdentityHashMap<>();
 }
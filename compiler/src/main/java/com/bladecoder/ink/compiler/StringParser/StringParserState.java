@@ -1,5 +1,7 @@
 package com.bladecoder.ink.compiler.StringParser;
 
+import java.util.HashMap;
+
 public class StringParserState {
     public int getLineIndex() {
         return currentElement().lineIndex;
@@ -41,6 +43,32 @@ public class StringParserState {
         return _numElements;
     }
 
+    /**
+     * Where a memoized rule ended, and what it returned (null if it failed),
+     * when parsed at a position with the given custom flags.
+     */
+    public static class MemoEntry {
+        final long startFlags;
+        final Object result;
+        final int characterIndex;
+        final int characterInLineIndex;
+        final int lineIndex;
+        final long customFlags;
+
+        MemoEntry(long startFlags, Object result, Element end) {
+            this.startFlags = startFlags;
+            this.result = result;
+            this.characterIndex = end.characterIndex;
+            this.characterInLineIndex = end.characterInLineIndex;
+            this.lineIndex = end.lineIndex;
+            this.customFlags = end.customFlags;
+        }
+
+        public Object getResult() {
+            return result;
+        }
+    }
+
     public static class Element {
         public int characterIndex;
         public int characterInLineIndex;
@@ -52,8 +80,6 @@ public class StringParserState {
         public Element() {}
 
         public void copyFrom(Element fromElement) {
-            _uniqueIdCounter++;
-            this.uniqueId = _uniqueIdCounter;
             this.characterIndex = fromElement.characterIndex;
             this.characterInLineIndex = fromElement.characterInLineIndex;
             this.lineIndex = fromElement.lineIndex;
@@ -68,8 +94,6 @@ public class StringParserState {
             this.reportedErrorInScope = fromElement.reportedErrorInScope;
             this.customFlags = fromElement.customFlags;
         }
-
-        private static int _uniqueIdCounter;
     }
 
     public StringParserState() {
@@ -94,6 +118,10 @@ public class StringParserState {
 
         newElement.copyFrom(prevElement);
 
+        // Ids only need to be unique within this stack, so parsers running in
+        // different threads don't share the counter.
+        newElement.uniqueId = ++uniqueIdCounter;
+
         return newElement.uniqueId;
     }
 
@@ -145,10 +173,64 @@ public class StringParserState {
         }
     }
 
+    public boolean isMemoizationEnabled() {
+        return memo != null;
+    }
+
+    public void setMemoizationEnabled(boolean enabled) {
+        memo = enabled ? new HashMap<>() : null;
+    }
+
+    /**
+     * The memoized result of the rule at the current position, or null if
+     * it hasn't been parsed there yet with the current custom flags.
+     */
+    public MemoEntry getMemo(int ruleKey) {
+        MemoEntry entry = memo.get(memoKey(ruleKey, getCharacterIndex()));
+
+        if (entry == null || entry.startFlags != getCustomFlags()) return null;
+
+        return entry;
+    }
+
+    /**
+     * Remembers that the rule, started at startIndex with startFlags, ended
+     * at the current position returning result.
+     */
+    public void putMemo(int ruleKey, int startIndex, long startFlags, Object result) {
+        memo.put(memoKey(ruleKey, startIndex), new MemoEntry(startFlags, result, currentElement()));
+    }
+
+    /**
+     * Moves to where the memoized rule ended.
+     */
+    public void restoreMemo(MemoEntry entry) {
+        Element el = currentElement();
+
+        el.characterIndex = entry.characterIndex;
+        el.characterInLineIndex = entry.characterInLineIndex;
+        el.lineIndex = entry.lineIndex;
+        el.customFlags = entry.customFlags;
+    }
+
+    /**
+     * Forgets every memoized result. Needed when something the rules depend
+     * on, other than the position and the custom flags, changes.
+     */
+    public void clearMemo() {
+        if (memo != null) memo.clear();
+    }
+
+    private static long memoKey(int ruleKey, int characterIndex) {
+        return ((long) ruleKey << 32) | (characterIndex & 0xFFFFFFFFL);
+    }
+
     protected Element currentElement() {
         return _stack[_numElements - 1];
     }
 
     private final Element[] _stack;
     private int _numElements;
+    private int uniqueIdCounter;
+    private HashMap<Long, MemoEntry> memo;
 }
@@ -0,0 +1,128 @@
+package com.bladecoder.ink.runtime.test;
+
+import com.bladecoder.ink.compiler.CharacterSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CharacterSetTest {
+
+    @Test
+    public void latin1AndOutOfBitmap() throws Exception {
+        CharacterSet set = new CharacterSet("aZÿĀ一");
+
+        Assert.assertTrue(set.contains('a'));
+        Assert.assertTrue(set.contains('ÿ'));
+        Assert.assertTrue(set.contains('Ā'));
+        Assert.assertTrue(set.contains((Object) '一'));
+        Assert.assertFalse(set.contains('b'));
+        Assert.assertFalse(set.contains('ā'));
+        Assert.assertFalse(set.contains("a"));
+        Assert.assertEquals(5, set.size());
+
+        Assert.assertFalse(set.add('a'));
+        Assert.assertFalse(set.add('一'));
+        Assert.assertTrue(set.add('丁'));
+        Assert.assertEquals(6, set.size());
+    }
+
+    @Test
+    public void mergeRanges() throws Exception {
+        CharacterSet set = CharacterSet.fromRange('Ѐ', 'ӿ');
+
+        // Adjacent and overlapping ranges are merged
+        set.addRange('Ԁ', 'ԯ');
+        set.addRange('̀', 'ѐ');
+        set.addRange('؀', 'ۿ');
+        set.addRange('԰', '׿');
+
+        Assert.assertEquals(0x700 - 0x300, set.size());
+        Assert.assertTrue(set.contains('̀'));
+        Assert.assertTrue(set.contains('ԯ'));
+        Assert.assertTrue(set.contains('԰'));
+        Assert.assertTrue(set.contains('ۿ'));
+        Assert.assertFalse(set.contains('܀'));
+
+        // A range across the end of the bitmap
+        CharacterSet latin = CharacterSet.fromRange('ð', 'ď');
+        Assert.assertEquals(32, latin.size());
+        Assert.assertTrue(latin.contains('ÿ'));
+        Assert.assertTrue(latin.contains('Ā'));
+
+        set.addCharacters(latin);
+        Assert.assertEquals(0x700 - 0x300 + 32, set.size());
+    }
+
+    @Test
+    public void iterationOrder() throws Exception {
+        CharacterSet set = new CharacterSet("一zāaé");
+        set.addRange('Ȁ', 'Ȃ');
+
+        List<Character> chars = new ArrayList<>(set);
+
+        Assert.assertEquals(Arrays.asList('a', 'z', 'é', 'ā', 'Ȁ', 'ȁ', 'Ȃ', '一'), chars);
+    }
+
+    @Test
+    public void remove() throws Exception {
+        CharacterSet set = new CharacterSet("abc");
+        set.addRange('Ѐ', 'Љ');
+
+        Assert.assertTrue(set.remove('b'));
+        Assert.assertFalse(set.remove('b'));
+        Assert.assertFalse(set.contains('b'));
+
+        // Removing from the middle of a range splits it
+        Assert.assertTrue(set.remove((Object) 'Ѕ'));
+        Assert.assertTrue(set.remove('Ѐ'));
+        Assert.assertTrue(set.remove('Љ'));
+        Assert.assertFalse(set.remove('Љ'));
+        Assert.assertEquals(Arrays.asList('a', 'c', 'Ё', 'Ђ', 'Ѓ', 'Є', 'І', 'Ї', 'Ј'), new ArrayList<>(set));
+
+        set.removeAll(Arrays.asList('a', 'Ђ'));
+        set.retainAll(Arrays.asList('c', 'Ё', 'І', 'Ї'));
+        Assert.assertEquals(Arrays.asList('c', 'Ё', 'І', 'Ї'), new ArrayList<>(set));
+
+        Iterator<Character> it = set.iterator();
+        it.next();
+        it.remove();
+        Assert.assertEquals(Arrays.asList('Ё', 'І', 'Ї'), new ArrayList<>(set));
+
+        set.clear();
+        Assert.assertTrue(set.isEmpty());
+        Assert.assertFalse(set.contains('І'));
+    }
+
+    @Test
+    public void sameAsTreeSet() throws Exception {
+        Random random = new Random(1);
+        CharacterSet set = new CharacterSet();
+        TreeSet<Character> expected = new TreeSet<>();
+
+        for (int i = 0; i < 5000; i++) {
+            char c = (char) random.nextInt(0x400);
+
+            switch (random.nextInt(3)) {
+                case 0:
+                    Assert.assertEquals(expected.add(c), set.add(c));
+                    break;
+                case 1:
+                    Assert.assertEquals(expected.remove(c), set.remove(c));
+                    break;
+                default:
+                    char end = (char) Math.min(0x3ff, c + random.nextInt(20));
+                    set.addRange(c, end);
+                    for (char r = c; r <= end; r++) expected.add(r);
+                    break;
+            }
+        }
+
+        Assert.assertEquals(expected.size(), set.size());
+        Assert.assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+    }
+}
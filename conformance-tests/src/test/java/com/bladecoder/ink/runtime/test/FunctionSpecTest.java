@@ -1,6 +1,7 @@
 package com.bladecoder.ink.runtime.test;
 
 import com.bladecoder.ink.compiler.Compiler;
+import com.bladecoder.ink.runtime.PreparedFunction;
 import com.bladecoder.ink.runtime.Story;
 import java.util.ArrayList;
 import java.util.List;
@@ -177,4 +178,51 @@ public class FunctionSpecTest {
 
         Assert.assertEquals("End\n", story.Continue());
     }
+
+    /**
+     * Functions prepared once and called many times from game code.
+     */
+    @Test
+    public void preparedFunction() throws Exception {
+
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("VAR calls = 0\n"
+                + "Start\n"
+                + "-> END\n"
+                + "=== function add(a, b) ===\n"
+                + "~ calls++\n"
+                + "Adding {a} and {b}.\n"
+                + "Done\n"
+                + "<> adding.\n"
+                + "~ return a + b\n");
+        Story story = new Story(json);
+
+        Assert.assertEquals("Start\n", story.Continue());
+
+        PreparedFunction add = story.prepareFunction("add");
+        Assert.assertEquals("add", add.getName());
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i + 2, add.call(new Object[] {i, 2}));
+        }
+
+        StringBuilder text = new StringBuilder();
+        Assert.assertEquals(5, add.call(text, new Object[] {2, 3}));
+        Assert.assertEquals("Adding 2 and 3.\nDone adding.\n", text.toString());
+
+        StringBuilder evaluatedText = new StringBuilder();
+        Assert.assertEquals(5, story.evaluateFunction("add", evaluatedText, new Object[] {2, 3}));
+        Assert.assertEquals(text.toString(), evaluatedText.toString());
+
+        // The story output is left as it was
+        Assert.assertEquals("Start\n", story.getCurrentText());
+        Assert.assertEquals(12, story.getVariablesState().get("calls"));
+
+        try {
+            story.prepareFunction("missing");
+            Assert.fail();
+        } catch (Exception e) {
+        }
+    }
 }
@@ -2,12 +2,22 @@ package com.bladecoder.ink.runtime.test;
 
 import com.bladecoder.ink.compiler.Compiler;
 import com.bladecoder.ink.compiler.IFileHandler;
+import com.bladecoder.ink.compiler.ParseCache;
+import com.bladecoder.ink.runtime.Error.ErrorType;
 import com.bladecoder.ink.runtime.Story;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class IncludeSpecTest {
 
@@ -29,6 +39,193 @@ public class IncludeSpecTest {
         Assert.assertEquals("This is main.", text.get(1));
     }
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void includeParseCache() throws Exception {
+        final HashMap<String, String> files = new HashMap<>();
+        files.put("a.ink", "INCLUDE b.ink\n== a ==\nThis is A.\n-> b\n");
+        files.put("b.ink", "== b ==\nThis is B.\n-> END\n");
+
+        IFileHandler fileHandler = new IFileHandler() {
+            @Override
+            public String resolveInkFilename(String includeName) {
+                return includeName;
+            }
+
+            @Override
+            public String loadInkFileContents(String fullFilename) {
+                return files.get(fullFilename);
+            }
+        };
+
+        ParseCache cache = new ParseCache(tmp.getRoot().toPath());
+
+        Assert.assertEquals("This is A.", compileAndRun(fileHandler, cache).get(0));
+        Assert.assertEquals(0, cache.getHits());
+
+        // Unchanged files come from the cache, and give the same story
+        List<String> text = compileAndRun(fileHandler, cache);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, text.size());
+        Assert.assertEquals("This is B.", text.get(1));
+
+        // A.ink must be parsed again when the file it includes changes
+        files.put("b.ink", "== b ==\nThis is the new B.\n-> END\n");
+        Assert.assertEquals(
+                "This is the new B.", compileAndRun(fileHandler, cache).get(1));
+        Assert.assertEquals(1, cache.getHits());
+
+        // The entries on disk survive a new cache
+        cache = new ParseCache(tmp.getRoot().toPath());
+        Assert.assertEquals(
+                "This is the new B.", compileAndRun(fileHandler, cache).get(1));
+        Assert.assertEquals(1, cache.getHits());
+
+        // Entries holding classes other than the parsed hierarchy are ignored
+        for (File f : tmp.getRoot().listFiles()) {
+            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(f))) {
+                out.writeObject(new Canary());
+            }
+        }
+
+        cache = new ParseCache(tmp.getRoot().toPath());
+        Assert.assertEquals(
+                "This is the new B.", compileAndRun(fileHandler, cache).get(1));
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertFalse(Canary.read);
+    }
+
+    private static class Canary implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static boolean read;
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            read = true;
+        }
+    }
+
+    @Test
+    public void includeParallel() throws Exception {
+        final HashMap<String, String> files = new HashMap<>();
+        files.put("main.ink", "INCLUDE a.ink\nINCLUDE b.ink\n-> a\n");
+        files.put("a.ink", "INCLUDE c.ink\n== a ==\nThis is A.\n-> b\n");
+        files.put("b.ink", "== b ==\nThis is B.\n-> c\n");
+        files.put("c.ink", "== c ==\nThis is C.\n-> END\n");
+
+        IFileHandler fileHandler = new IFileHandler() {
+            @Override
+            public String resolveInkFilename(String includeName) {
+                return includeName;
+            }
+
+            @Override
+            public String loadInkFileContents(String fullFilename) {
+                return files.get(fullFilename);
+            }
+        };
+
+        Compiler.Options options = new Compiler.Options();
+        options.sourceFilename = "main.ink";
+        options.fileHandler = fileHandler;
+        String sequential =
+                new Compiler(files.get("main.ink"), options).compile().toJson();
+
+        options.parallelIncludes = true;
+        Story story = new Compiler(files.get("main.ink"), options).compile();
+
+        Assert.assertEquals(sequential, story.toJson());
+
+        List<String> text = new ArrayList<>();
+        TestUtils.nextAll(story, text);
+        Assert.assertEquals(3, text.size());
+        Assert.assertEquals("This is C.", text.get(2));
+
+        // Recursion is still detected
+        files.put("c.ink", "INCLUDE a.ink\n== c ==\nThis is C.\n-> END\n");
+        final List<String> errors = new ArrayList<>();
+        options.errorHandler = (message, type) -> {
+            if (type == ErrorType.Error) errors.add(message);
+        };
+
+        new Compiler(files.get("main.ink"), options).compile();
+        Assert.assertEquals(1, errors.size());
+        Assert.assertTrue(errors.get(0).contains("Recursive INCLUDE"));
+    }
+
+    @Test
+    public void includeParallelMessageOrder() throws Exception {
+        final HashMap<String, String> files = new HashMap<>();
+        files.put("main.ink", "VAR = main\nINCLUDE a.ink\nINCLUDE b.ink\n-> a\n");
+        files.put("a.ink", "VAR = a\nINCLUDE c.ink\n== a ==\nThis is A.\n-> b\n");
+        files.put("b.ink", "VAR = b\nINCLUDE e.ink\n== b ==\nThis is B.\n-> c\n");
+        files.put("c.ink", "VAR = c\nINCLUDE d.ink\n== c ==\nThis is C.\n-> d\n");
+        files.put("d.ink", "VAR = d\nINCLUDE a.ink\n== d ==\nThis is D.\n-> END\n");
+        files.put("e.ink", "VAR = e\nINCLUDE b.ink\n== e ==\nThis is E.\n-> END\n");
+
+        IFileHandler fileHandler = new IFileHandler() {
+            @Override
+            public String resolveInkFilename(String includeName) {
+                return includeName;
+            }
+
+            @Override
+            public String loadInkFileContents(String fullFilename) {
+                return files.get(fullFilename);
+            }
+        };
+
+        List<String> sequential = compileMessages(files.get("main.ink"), fileHandler, false);
+        List<String> parallel = compileMessages(files.get("main.ink"), fileHandler, true);
+
+        // The messages of the nested includes are replayed in file order
+        Assert.assertEquals(sequential, parallel);
+
+        String[] order = {"main", "a", "c", "d", "d", "b", "e", "e"};
+        Assert.assertEquals(order.length, parallel.size());
+        for (int i = 0; i < order.length; i++)
+            Assert.assertTrue(parallel.get(i).startsWith("Error: ERROR: '" + order[i] + ".ink'"));
+
+        Assert.assertTrue(parallel.get(4).contains("Recursive INCLUDE"));
+        Assert.assertTrue(parallel.get(7).contains("Recursive INCLUDE"));
+    }
+
+    private static List<String> compileMessages(String source, IFileHandler fileHandler, boolean parallelIncludes)
+            throws Exception {
+        final List<String> messages = new ArrayList<>();
+
+        Compiler.Options options = new Compiler.Options();
+        options.sourceFilename = "main.ink";
+        options.fileHandler = fileHandler;
+        options.parallelIncludes = parallelIncludes;
+        options.errorHandler = (message, type) -> messages.add(type + ": " + message);
+
+        try {
+            new Compiler(source, options).compile();
+        } catch (Exception e) {
+            // Compilation errors are reported to the handler too
+        }
+
+        return messages;
+    }
+
+    private static List<String> compileAndRun(IFileHandler fileHandler, ParseCache cache) throws Exception {
+        Compiler.Options options = new Compiler.Options();
+        options.sourceFilename = "main.ink";
+        options.fileHandler = fileHandler;
+        options.parseCache = cache;
+
+        Story story = new Compiler("INCLUDE a.ink\n-> a\n", options).compile();
+
+        List<String> text = new ArrayList<>();
+        TestUtils.nextAll(story, text);
+
+        return text;
+    }
+
     private static class ResourceFileHandler implements IFileHandler {
         private final String basePath;
 
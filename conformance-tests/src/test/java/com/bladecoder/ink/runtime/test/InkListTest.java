@@ -0,0 +1,209 @@
+package com.bladecoder.ink.runtime.test;
+
+import com.bladecoder.ink.runtime.InkList;
+import com.bladecoder.ink.runtime.InkListItem;
+import com.bladecoder.ink.runtime.ListDefinition;
+import com.bladecoder.ink.runtime.ListDefinitionsOrigin;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The list operations take the bitset path when both lists have the same
+ * origin and fall back to the items otherwise, so every operation is checked
+ * against the same lists without origins.
+ */
+public class InkListTest {
+
+    private static final int ITEMS = 100;
+
+    @Test
+    public void bitsLikeItems() throws Exception {
+        List<ListDefinition> defs = definitions();
+        new ListDefinitionsOrigin(defs);
+
+        Random random = new Random(1);
+
+        for (int i = 0; i < 500; i++) {
+            InkList a = randomList(random, defs);
+            InkList b = randomList(random, defs);
+            InkList plainA = withoutOrigins(a);
+            InkList plainB = withoutOrigins(b);
+
+            Assert.assertEquals(plainA.union(plainB), a.union(b));
+            Assert.assertEquals(plainA.intersect(plainB), a.intersect(b));
+            Assert.assertEquals(plainA.without(plainB), a.without(b));
+            Assert.assertEquals(plainA.hasIntersection(plainB), a.hasIntersection(b));
+            Assert.assertEquals(plainA.contains(plainB), a.contains(b));
+            Assert.assertEquals(plainA.equals(plainB), a.equals(b));
+            Assert.assertEquals(plainA.greaterThan(plainB), a.greaterThan(b));
+            Assert.assertEquals(plainA.greaterThanOrEquals(plainB), a.greaterThanOrEquals(b));
+            Assert.assertEquals(plainA.lessThan(plainB), a.lessThan(b));
+            Assert.assertEquals(plainA.lessThanOrEquals(plainB), a.lessThanOrEquals(b));
+
+            // The results keep working as operands
+            InkList union = a.union(b);
+            Assert.assertTrue(union.contains(a));
+            Assert.assertEquals(a.without(b), union.without(b));
+            Assert.assertEquals(a.intersect(b), union.intersect(a).intersect(b));
+        }
+    }
+
+    @Test
+    public void minAndMax() throws Exception {
+        List<ListDefinition> defs = definitions();
+        new ListDefinitionsOrigin(defs);
+
+        // Values out of the order of the names and the definition map: high
+        // is 40 and 50, low 1 and 30, and overlapping 1 and 45
+        InkList high = list(defs, "numbers.n50", "numbers.n60");
+        InkList low = list(defs, "numbers.n99", "numbers.n70");
+        InkList overlapping = list(defs, "numbers.n99", "numbers.n55");
+
+        Assert.assertTrue(high.greaterThan(low));
+        Assert.assertTrue(low.lessThan(high));
+        Assert.assertTrue(high.greaterThanOrEquals(overlapping));
+        Assert.assertFalse(high.greaterThan(overlapping));
+        Assert.assertTrue(overlapping.lessThanOrEquals(high));
+        Assert.assertFalse(overlapping.lessThan(high));
+        Assert.assertTrue(list(defs, "numbers.n99").lessThan(list(defs, "numbers.n0")));
+
+        // Items of different definitions, with overlapping values
+        InkList mixed = list(defs, "colours.red", "numbers.n0");
+        InkList colour = list(defs, "colours.blue");
+
+        Assert.assertTrue(mixed.greaterThanOrEquals(colour));
+        Assert.assertTrue(colour.lessThanOrEquals(mixed));
+        Assert.assertFalse(mixed.lessThan(colour));
+        Assert.assertEquals(withoutOrigins(mixed).greaterThan(withoutOrigins(colour)), mixed.greaterThan(colour));
+    }
+
+    @Test
+    public void inverse() throws Exception {
+        List<ListDefinition> defs = definitions();
+        new ListDefinitionsOrigin(defs);
+
+        InkList colours = list(defs, "colours.red");
+        colours.setOrigins(new ArrayList<>(Arrays.asList(defs.get(0))));
+
+        InkList inverse = colours.getInverse();
+        Assert.assertEquals(2, inverse.size());
+        Assert.assertFalse(inverse.containsKey(new InkListItem("colours.red")));
+        Assert.assertTrue(inverse.containsKey(new InkListItem("colours.green")));
+        Assert.assertEquals(colours.getAll(), inverse.union(colours));
+
+        InkList numbers = list(defs, "numbers.n7", "numbers.n70");
+        numbers.setOrigins(new ArrayList<>(Arrays.asList(defs.get(1))));
+
+        Assert.assertEquals(ITEMS - 2, numbers.getInverse().size());
+        Assert.assertFalse(numbers.getInverse().hasIntersection(numbers));
+    }
+
+    @Test
+    public void mixedOrigins() throws Exception {
+        List<ListDefinition> defs1 = definitions();
+        List<ListDefinition> defs2 = definitions();
+        new ListDefinitionsOrigin(defs1);
+        new ListDefinitionsOrigin(defs2);
+
+        // Same items from the lists of two stories
+        InkList a = list(defs1, "colours.red", "numbers.n5");
+        InkList b = list(defs2, "colours.red", "colours.blue");
+
+        Assert.assertEquals(list(defs1, "colours.red", "colours.blue", "numbers.n5"), a.union(b));
+        Assert.assertEquals(list(defs1, "colours.red"), a.intersect(b));
+        Assert.assertEquals(list(defs1, "numbers.n5"), a.without(b));
+        Assert.assertTrue(a.hasIntersection(b));
+        Assert.assertTrue(a.union(b).contains(b));
+        Assert.assertEquals(list(defs2, "colours.red"), list(defs1, "colours.red"));
+
+        // A list with definitions of both stories can't use the bitsets
+        InkList both = list(defs1, "colours.red");
+        both.getOrigins().addAll(defs2);
+        both.put(new InkListItem("colours.green"), 1);
+
+        Assert.assertTrue(both.contains(list(defs1, "colours.green")));
+        Assert.assertEquals(list(defs2, "colours.red", "colours.green"), both);
+    }
+
+    @Test
+    public void missingOrigins() throws Exception {
+        List<ListDefinition> defs = definitions();
+        new ListDefinitionsOrigin(defs);
+
+        InkList withOrigins = list(defs, "colours.red", "numbers.n1");
+        InkList plain = withoutOrigins(list(defs, "colours.red", "colours.blue"));
+
+        Assert.assertEquals(
+                withoutOrigins(list(defs, "colours.red", "colours.blue", "numbers.n1")), withOrigins.union(plain));
+        Assert.assertEquals(withoutOrigins(list(defs, "colours.red")), plain.intersect(withOrigins));
+        Assert.assertEquals(withoutOrigins(list(defs, "numbers.n1")), withOrigins.without(plain));
+        Assert.assertFalse(withOrigins.contains(plain));
+        Assert.assertTrue(plain.union(withOrigins).contains(withOrigins));
+
+        // An item that isn't in its list's definitions
+        InkList unknown = list(defs, "colours.red");
+        unknown.put(new InkListItem("colours.purple"), 9);
+
+        Assert.assertTrue(unknown.contains(list(defs, "colours.red")));
+        Assert.assertFalse(list(defs, "colours.red").contains(unknown));
+        Assert.assertEquals(2, unknown.union(list(defs, "colours.red")).size());
+        Assert.assertTrue(unknown.greaterThan(list(defs, "colours.blue")));
+    }
+
+    // colours (red = 3, green = 1, blue = 2) and numbers n0..n99 with the
+    // values in reverse order.
+    private static List<ListDefinition> definitions() {
+        HashMap<String, Integer> colours = new HashMap<>();
+        colours.put("red", 3);
+        colours.put("green", 1);
+        colours.put("blue", 2);
+
+        HashMap<String, Integer> numbers = new HashMap<>();
+        for (int i = 0; i < ITEMS; i++) numbers.put("n" + i, ITEMS - i);
+
+        List<ListDefinition> defs = new ArrayList<>();
+        defs.add(new ListDefinition("colours", colours));
+        defs.add(new ListDefinition("numbers", numbers));
+
+        return defs;
+    }
+
+    private static InkList list(List<ListDefinition> defs, String... items) {
+        InkList list = new InkList();
+        list.setOrigins(new ArrayList<>(defs));
+
+        for (String name : items) {
+            InkListItem item = new InkListItem(name);
+
+            for (ListDefinition def : defs) {
+                if (def.containsItem(item)) list.put(item, def.getValueForItem(item));
+            }
+        }
+
+        return list;
+    }
+
+    private static InkList randomList(Random random, List<ListDefinition> defs) {
+        InkList list = list(defs);
+
+        for (ListDefinition def : defs) {
+            for (InkListItem item : def.getItems().keySet()) {
+                if (random.nextInt(4) == 0) list.put(item, def.getValueForItem(item));
+            }
+        }
+
+        return list;
+    }
+
+    private static InkList withoutOrigins(InkList list) {
+        InkList plain = new InkList();
+        plain.putAll(list);
+
+        return plain;
+    }
+}
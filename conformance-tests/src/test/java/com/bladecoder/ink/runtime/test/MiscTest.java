@@ -1,7 +1,16 @@
 package com.bladecoder.ink.runtime.test;
 
 import com.bladecoder.ink.compiler.Compiler;
+import com.bladecoder.ink.compiler.IFileHandler;
 import com.bladecoder.ink.runtime.Story;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -40,4 +49,94 @@ public class MiscTest {
 
         Assert.assertEquals("Bug with escape character #\n", story.Continue());
     }
+
+    @Test
+    public void memoizedNestedInlineLogic() throws Exception {
+        String expr = "x";
+        for (int i = 0; i < 12; i++) expr = "f(\"{" + expr + "}\")";
+
+        String source = "VAR x = 1\n{" + expr + "}\n=== function f(s)\n~ return s\n";
+
+        Compiler.Options options = new Compiler.Options();
+        options.memoization = true;
+
+        // Without memoization, every level parses the next one three times
+        Story story = new Compiler(source, options).compile();
+
+        Assert.assertEquals("1\n", story.Continue());
+    }
+
+    @Test
+    public void memoizedCompilesLikePlain() throws Exception {
+        // Inline logic tries the expression as a condition, then as a sequence
+        // and finally as an expression to output, and logic lines flag their
+        // function calls, so the memoized expressions are reused and modified
+        String[] sources = {
+            "VAR x = 1\n{f(x)}\n{f(x): yes|no}\n~ f(x)\n{x > 0: {f(\"{f(x)}\")}}\n=== function f(s)\n~ return s\n",
+            "VAR x = 1\n{&{f(x)}|{x}}\n{f(\"{x}\") == \"1\": A|B}\n* [{f(x)}] {f(x)}\n  -> END\n=== function f(s)\n~ return s\n",
+            "VAR x = 1\n{\n- f(x): {f(x)}\n- else: no\n}\n~ x = f(x) + 1\n{x}\n=== function f(s)\n~ return s\n",
+        };
+
+        for (String source : sources) {
+            String plain =
+                    new Compiler(source, new Compiler.Options()).compile().toJson();
+
+            Compiler.Options options = new Compiler.Options();
+            options.memoization = true;
+            String memoized = new Compiler(source, options).compile().toJson();
+
+            Assert.assertEquals(plain, memoized);
+        }
+    }
+
+    /**
+     * Every ink file of the conformance tests compiles the same, with the
+     * same messages, with and without memoization.
+     */
+    @Test
+    public void memoizedCompilesCorpusLikePlain() throws Exception {
+        Path root = Paths.get(ClassLoader.getSystemResource("inkfiles").toURI());
+        List<Path> files;
+
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(f -> f.toString().endsWith(".ink")).sorted().collect(Collectors.toList());
+        }
+
+        Assert.assertFalse(files.isEmpty());
+
+        for (Path file : files) {
+            Assert.assertEquals(file.toString(), compileForComparison(file, false), compileForComparison(file, true));
+        }
+    }
+
+    private static String compileForComparison(final Path file, boolean memoization) throws IOException {
+        final StringBuilder result = new StringBuilder();
+
+        Compiler.Options options = new Compiler.Options();
+        options.sourceFilename = file.getFileName().toString();
+        options.memoization = memoization;
+        options.errorHandler = (message, type) ->
+                result.append(type).append(": ").append(message).append('\n');
+        options.fileHandler = new IFileHandler() {
+            @Override
+            public String resolveInkFilename(String includeName) {
+                return file.resolveSibling(includeName).toString();
+            }
+
+            @Override
+            public String loadInkFileContents(String fullFilename) throws IOException {
+                return new String(Files.readAllBytes(Paths.get(fullFilename)), StandardCharsets.UTF_8);
+            }
+        };
+
+        String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+
+        try {
+            result.append(new Compiler(source, options).compile().toJson());
+        } catch (Exception e) {
+            result.append(e.getMessage());
+        }
+
+        return result.toString();
+    }
 }
@@ -1,12 +1,29 @@
 package com.bladecoder.ink.runtime.test;
 
 import com.bladecoder.ink.compiler.Compiler;
+import com.bladecoder.ink.runtime.CompiledStory;
+import com.bladecoder.ink.runtime.ExplorationResult;
+import com.bladecoder.ink.runtime.PlaythroughRunner;
+import com.bladecoder.ink.runtime.PlaythroughStats;
 import com.bladecoder.ink.runtime.Profiler;
+import com.bladecoder.ink.runtime.SchedulerStats;
 import com.bladecoder.ink.runtime.Story;
 import com.bladecoder.ink.runtime.Story.*;
 import com.bladecoder.ink.runtime.StoryException;
+import com.bladecoder.ink.runtime.StoryExplorer;
+import com.bladecoder.ink.runtime.StoryMetrics;
+import com.bladecoder.ink.runtime.StoryScheduler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -423,6 +440,89 @@ public class RuntimeSpecTest {
         story.endProfiling();
 
         System.out.println("PROFILER REPORT: " + reportStr);
+
+        Assert.assertTrue(profiler.collapsedStacks().contains("two"));
+        Assert.assertTrue(profiler.knotsCsv().startsWith("knot,self_ms,total_ms,self_samples,total_samples\n"));
+        Assert.assertTrue(profiler.knotsCsv().contains("\"three\","));
+        Assert.assertTrue(profiler.megalog().split("\n").length > 1);
+    }
+
+    /**
+     * Test the Profiler only records the sampled steps.
+     */
+    @Test
+    public void profilerSampling() throws Exception {
+        List<String> text = new ArrayList<>();
+
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile(TestUtils.readFileAsString("inkfiles/runtime/jump-knot.ink"));
+        Story story = new Story(json);
+
+        Profiler all = story.startProfiling();
+        story.choosePathString("two");
+        TestUtils.nextAll(story, text);
+        story.endProfiling();
+
+        story.resetState();
+
+        Profiler sampled = story.startProfiling(3);
+        story.choosePathString("two");
+        TestUtils.nextAll(story, text);
+        story.endProfiling();
+
+        int steps = all.getRootNode().getTotalSampleCount();
+        Assert.assertTrue(steps > 0);
+        Assert.assertEquals(steps / 3, sampled.getRootNode().getTotalSampleCount());
+
+        // Sampled profiles don't keep the step log unless asked to
+        Assert.assertEquals("Step type\tDescription\tPath\tTime\n", sampled.megalog());
+    }
+
+    /**
+     * Test the StoryMetrics counters and listener.
+     */
+    @Test
+    public void metrics() throws Exception {
+        List<String> text = new ArrayList<>();
+
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile(TestUtils.readFileAsString("inkfiles/runtime/external-function-0-arg.ink"));
+        Story story = new Story(json);
+
+        story.bindExternalFunction("externalFunction", new ExternalFunction0<String>() {
+
+            @Override
+            protected String call() {
+                return "Hello world";
+            }
+        });
+
+        final List<Long> stepsPerContinue = new ArrayList<>();
+
+        StoryMetrics metrics = story.startMetrics(new StoryMetrics.Listener() {
+            @Override
+            public void continueComplete(StoryMetrics m) {
+                stepsPerContinue.add(m.getLastContinue(StoryMetrics.Counter.STEPS));
+            }
+        });
+
+        TestUtils.nextAll(story, text);
+
+        story.endMetrics();
+
+        Assert.assertEquals("The value is Hello world.", text.get(0));
+        Assert.assertEquals(1, metrics.getTotal(StoryMetrics.Counter.EXTERNAL_CALLS));
+        Assert.assertEquals(stepsPerContinue.size(), metrics.getTotal(StoryMetrics.Counter.CONTINUES));
+
+        long steps = 0;
+        for (long s : stepsPerContinue) steps += s;
+        Assert.assertEquals(metrics.getTotal(StoryMetrics.Counter.STEPS), steps);
+        Assert.assertTrue(steps > 0);
+        Assert.assertTrue(metrics.getMaxEvalStackDepth() > 0);
+        Assert.assertTrue(metrics.getTotal(StoryMetrics.Counter.CONTINUE_NANOS)
+                >= metrics.getTotal(StoryMetrics.Counter.STEP_NANOS));
     }
 
     /**
@@ -474,6 +574,8 @@ public class RuntimeSpecTest {
         TestUtils.nextAll(story, text);
         Assert.assertEquals(4, story.getState().visitCountAtPathString("two.s2"));
         Assert.assertEquals(5, story.getState().visitCountAtPathString("two"));
+        Assert.assertEquals(0, story.getState().visitCountAtPathString("two.unknown"));
+        Assert.assertEquals(0, story.getState().visitCountAtPathString("unknown"));
     }
 
     @Test
@@ -511,4 +613,482 @@ public class RuntimeSpecTest {
         Assert.assertEquals(false, story.canContinue());
         Assert.assertEquals(0, story.getCurrentChoices().size());
     }
+
+    @Test
+    public void testLoadSaveStream() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile(TestUtils.readFileAsString("inkfiles/runtime/load-save.ink"));
+        Story story = new Story(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        List<String> text = new ArrayList<>();
+
+        TestUtils.nextAll(story, text);
+
+        Assert.assertEquals(1, text.size());
+        Assert.assertEquals("We arrived into London at 9.45pm exactly.", text.get(0));
+
+        // save the game state to a stream
+        ByteArrayOutputStream saveStream = new ByteArrayOutputStream();
+        story.getState().toJson(saveStream);
+
+        // recreate game and load state from the stream
+        story = new Story(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        story.getState().loadJson(new ByteArrayInputStream(saveStream.toByteArray()));
+
+        story.chooseChoiceIndex(0);
+
+        TestUtils.nextAll(story, text);
+        Assert.assertEquals("\"There is not a moment to lose!\" I declared.", text.get(1));
+        Assert.assertEquals("We hurried home to Savile Row as fast as we could.", text.get(2));
+    }
+
+    @Test
+    public void testCompiledStorySessions() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile(TestUtils.readFileAsString("inkfiles/runtime/load-save.ink"));
+        CompiledStory compiledStory = new CompiledStory(json);
+
+        Story story1 = compiledStory.createStory();
+        Story story2 = compiledStory.createStory();
+
+        Assert.assertSame(story1.getMainContentContainer(), story2.getMainContentContainer());
+
+        List<String> text1 = new ArrayList<>();
+        TestUtils.nextAll(story1, text1);
+        story1.chooseChoiceIndex(0);
+        TestUtils.nextAll(story1, text1);
+
+        Assert.assertEquals(3, text1.size());
+        Assert.assertEquals("\"There is not a moment to lose!\" I declared.", text1.get(1));
+
+        // the second session is not affected by the first one
+        List<String> text2 = new ArrayList<>();
+        TestUtils.nextAll(story2, text2);
+
+        Assert.assertEquals(1, text2.size());
+        Assert.assertEquals("We arrived into London at 9.45pm exactly.", text2.get(0));
+        Assert.assertEquals(3, story2.getCurrentChoices().size());
+
+        // and a state saved in one session can be loaded in another
+        Story story3 = new Story(story1.getCompiledStory());
+        story3.getState().loadJson(story2.getState().toJson());
+        story3.chooseChoiceIndex(1);
+
+        List<String> text3 = new ArrayList<>();
+        TestUtils.nextAll(story3, text3);
+        Assert.assertEquals("\"Monsieur, let us savour this moment!\" I declared.", text3.get(0));
+        Assert.assertEquals(3, story2.getCurrentChoices().size());
+    }
+
+    /**
+     * Test streaming the text to an Appendable or a line handler.
+     */
+    @Test
+    public void continueToSink() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("VAR x = 1\n"
+                + "Hello   {x}  world. # greeting\n"
+                + "  Second\tline {\"a\"} <>\n"
+                + "glued. # one # two\n"
+                + "* [Choice] Chosen.\n");
+
+        String expected = new Story(json).continueMaximally();
+
+        StringBuilder sb = new StringBuilder();
+        new Story(json).continueMaximallyTo(sb);
+        Assert.assertEquals(expected, sb.toString());
+
+        final List<String> lines = new ArrayList<>();
+        final List<String> tags = new ArrayList<>();
+        new Story(json).continueMaximally(new Story.LineHandler() {
+            @Override
+            public void line(CharSequence text, List<String> lineTags) {
+                lines.add(text.toString());
+                tags.addAll(lineTags);
+            }
+        });
+
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("Hello 1 world.\n", lines.get(0));
+        Assert.assertEquals("Second line a glued.\n", lines.get(1));
+        Assert.assertEquals(expected, lines.get(0) + lines.get(1));
+        Assert.assertEquals(Arrays.asList("greeting", "one", "two"), tags);
+
+        Story story = new Story(json);
+        sb.setLength(0);
+        story.continueTo(sb);
+        Assert.assertEquals(lines.get(0), sb.toString());
+        Assert.assertEquals(lines.get(0), story.getCurrentText());
+    }
+
+    /**
+     * Test a story whose knots are built the first time they are used.
+     */
+    @Test
+    public void testLazyKnots() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile(TestUtils.readFileAsString("inkfiles/runtime/load-save.ink"));
+
+        CompiledStory.Options options = new CompiledStory.Options();
+        options.lazyKnots = true;
+
+        for (int i = 0; i < 2; i++) {
+            options.warmUp = i == 1;
+
+            Story eager = new CompiledStory(json).createStory();
+            Story lazy = new CompiledStory(json, options).createStory();
+
+            for (int choice : new int[] {0, 1}) {
+                List<String> eagerText = new ArrayList<>();
+                List<String> lazyText = new ArrayList<>();
+
+                TestUtils.nextAll(eager, eagerText);
+                TestUtils.nextAll(lazy, lazyText);
+                Assert.assertEquals(eagerText, lazyText);
+                Assert.assertEquals(
+                        eager.getCurrentChoices().size(),
+                        lazy.getCurrentChoices().size());
+
+                if (eager.getCurrentChoices().isEmpty()) break;
+
+                eager.chooseChoiceIndex(choice);
+                lazy.chooseChoiceIndex(choice);
+            }
+
+            // Saves can be loaded in both ways
+            Story loaded = new CompiledStory(json, options).createStory();
+            loaded.getState().loadJson(eager.getState().toJson());
+            Assert.assertEquals(
+                    eager.getCurrentChoices().size(), loaded.getCurrentChoices().size());
+        }
+    }
+
+    @Test
+    public void testLoadSaveBinary() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("LIST Items = sword, shield, potion\n"
+                + "VAR inventory = (sword)\n"
+                + "VAR gold = 10\n"
+                + "VAR ratio = 0.5\n"
+                + "VAR hero = \"Hero \\\"Ñandú\\\"\"\n"
+                + "-> start\n"
+                + "== start ==\n"
+                + "~ gold += 5\n"
+                + "~ ratio = ratio * gold\n"
+                + "~ inventory += potion\n"
+                + "Hello {hero}, you have {gold} coins.\n"
+                + "* [Go] -> start\n"
+                + "* [Stay] Ok. -> END\n");
+
+        Story story = new Story(json);
+        List<String> text = new ArrayList<>();
+        TestUtils.nextAll(story, text);
+        story.chooseChoiceIndex(0);
+        TestUtils.nextAll(story, text);
+
+        String saveJson = story.getState().toJson();
+
+        ByteArrayOutputStream saveStream = new ByteArrayOutputStream();
+        story.getState().toBinary(saveStream);
+        Assert.assertTrue(saveStream.size() < saveJson.length());
+
+        // the binary save holds exactly the same state as the JSON one
+        Story story2 = new Story(json);
+        story2.getState().loadBinary(new ByteArrayInputStream(saveStream.toByteArray()));
+        Assert.assertEquals(saveJson, story2.getState().toJson());
+
+        Assert.assertEquals(20, story2.getVariablesState().get("gold"));
+        Assert.assertEquals(150f, story2.getVariablesState().get("ratio"));
+        Assert.assertEquals("Hero \"Ñandú\"", story2.getVariablesState().get("hero"));
+
+        story2.chooseChoiceIndex(0);
+        text.clear();
+        TestUtils.nextAll(story2, text);
+        Assert.assertEquals("Ok.", text.get(0));
+    }
+
+    /**
+     * Test a base save plus a chain of deltas restores the same state.
+     */
+    @Test
+    public void testSaveDeltas() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("VAR gold = 0\n"
+                + "VAR name = \"none\"\n"
+                + "-> hub\n"
+                + "== hub ==\n"
+                + "~ gold++\n"
+                + "Gold {gold}, hub {hub}.\n"
+                + "+ [Rename] -> rename\n"
+                + "+ [Stay] -> hub\n"
+                + "== rename ==\n"
+                + "~ name = \"Alice\"\n"
+                + "~ gold = 0\n"
+                + "-> hub\n");
+
+        Story story = new Story(json);
+        List<String> text = new ArrayList<>();
+        TestUtils.nextAll(story, text);
+
+        String base = story.getState().toJson();
+        story.getState().checkpoint();
+
+        story.chooseChoiceIndex(1);
+        TestUtils.nextAll(story, text);
+        String delta1 = story.getState().toJsonDelta();
+
+        story.chooseChoiceIndex(0);
+        TestUtils.nextAll(story, text);
+        ByteArrayOutputStream delta2 = new ByteArrayOutputStream();
+        story.getState().toBinaryDelta(delta2);
+
+        // unchanged values aren't in the delta
+        Assert.assertFalse(delta1.contains("\"name\""));
+
+        Story story2 = new Story(json);
+        story2.getState().loadJson(base);
+        story2.getState().applyJsonDelta(delta1);
+        story2.getState().applyBinaryDelta(new ByteArrayInputStream(delta2.toByteArray()));
+
+        Assert.assertEquals(story.getState().toJson(), story2.getState().toJson());
+        Assert.assertEquals(1, story2.getVariablesState().get("gold"));
+        Assert.assertEquals("Alice", story2.getVariablesState().get("name"));
+        Assert.assertEquals(
+                story.getState().visitCountAtPathString("hub"),
+                story2.getState().visitCountAtPathString("hub"));
+
+        try {
+            story2.getState().loadJson(delta1);
+            Assert.fail("A delta can't be loaded as a full save");
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Test parallel random playthroughs.
+     */
+    @Test
+    public void playthroughs() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("VAR gold = 0\n"
+                + "-> start\n"
+                + "== start ==\n"
+                + "~ gold = RANDOM(1, 3)\n"
+                + "+ [Left] -> left\n"
+                + "+ [Right] -> right\n"
+                + "== left ==\n"
+                + "Left.\n"
+                + "-> END\n"
+                + "== right ==\n"
+                + "Right.\n"
+                + "+ [Again] -> start\n"
+                + "+ [Stop] -> DONE\n");
+
+        CompiledStory compiledStory = new CompiledStory(json);
+
+        PlaythroughRunner.Options options = new PlaythroughRunner.Options();
+        options.playthroughs = 200;
+        options.seed = 42;
+        options.threads = 1;
+
+        PlaythroughStats serial = new PlaythroughRunner(compiledStory, options).run();
+
+        options.threads = 4;
+        PlaythroughStats parallel = new PlaythroughRunner(compiledStory, options).run();
+
+        Assert.assertEquals(200, serial.getPlaythroughs());
+        Assert.assertEquals(2, serial.getEndings().size());
+        Assert.assertEquals(
+                200, serial.getEndings().get("left") + serial.getEndings().get("right"));
+        Assert.assertEquals(3, serial.getVariableHistograms().get("gold").size());
+        Assert.assertTrue(serial.getVisitCounts().get("start") >= 200);
+        Assert.assertTrue(serial.getPlaythroughsPerSecond() > 0);
+
+        // Same seed, same results whatever the number of threads
+        Assert.assertEquals(serial.getEndings(), parallel.getEndings());
+        Assert.assertEquals(serial.getVisitCounts(), parallel.getVisitCounts());
+        Assert.assertEquals(serial.getVariableHistograms(), parallel.getVariableHistograms());
+        Assert.assertEquals(serial.getTurns(), parallel.getTurns());
+    }
+
+    /**
+     * Test the breadth-first exploration of choices.
+     */
+    @Test
+    public void explorer() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("VAR met = false\n"
+                + "-> hub\n"
+                + "== hub ==\n"
+                + "+ {not met} [Meet]\n"
+                + "  ~ met = true\n"
+                + "  -> hub\n"
+                + "+ [Wait] -> wait\n"
+                + "+ [Leave] -> ending\n"
+                + "== wait ==\n"
+                + "Time passes.\n"
+                + "-> ending\n"
+                + "== ending ==\n"
+                + "{met: Goodbye friend.|Goodbye.}\n"
+                + "-> END\n"
+                + "== secret ==\n"
+                + "Never.\n"
+                + "-> END\n");
+
+        Story story = new Story(json);
+
+        StoryExplorer.Options options = new StoryExplorer.Options();
+        options.threads = 2;
+
+        ExplorationResult result = new StoryExplorer(story, options).explore();
+
+        Assert.assertFalse(result.isTruncated());
+        Assert.assertEquals(2, result.getDepth());
+        Assert.assertTrue(result.getUnreachableContainers().contains("secret"));
+        Assert.assertFalse(result.getUnreachableContainers().contains("wait"));
+        Assert.assertEquals(0.0, result.getKnotCoverage().get("secret"), 0.0);
+        Assert.assertEquals(1.0, result.getKnotCoverage().get("ending"), 0.0);
+
+        // Meet/Leave, Meet/Wait, Wait, Leave
+        Assert.assertEquals(4, result.getDeadEndCount());
+        for (ExplorationResult.DeadEnd d : result.getDeadEnds()) {
+            Assert.assertEquals("ending", d.getLocation());
+            Assert.assertNull(d.getError());
+        }
+
+        // The explored story is left as it was
+        Assert.assertTrue(story.canContinue());
+
+        // A bounded visited set truncates the search
+        options.maxStates = 2;
+        Assert.assertTrue(new StoryExplorer(story, options).explore().isTruncated());
+
+        // The visited set can't hold more than MAX_STATES
+        options.maxStates = StoryExplorer.MAX_STATES + 1;
+        try {
+            new StoryExplorer(story, options);
+            Assert.fail("maxStates above MAX_STATES should be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Test many sessions sharing the workers of a StoryScheduler.
+     */
+    @Test
+    public void scheduler() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("-> start\n"
+                + "== start ==\n"
+                + "One.\n"
+                + "Two.\n"
+                + "Three.\n"
+                + "+ [Again] -> start\n"
+                + "+ [Stop] -> END\n");
+
+        CompiledStory compiledStory = new CompiledStory(json);
+
+        // Sequential reference
+        Story story = compiledStory.createStory();
+        String expected = story.continueMaximally();
+
+        final int sessions = 20;
+        final int turns = 3;
+
+        StoryScheduler.Options options = new StoryScheduler.Options();
+        options.threads = 4;
+        options.sliceSteps = 2;
+
+        StoryScheduler scheduler = new StoryScheduler(options);
+
+        final CountDownLatch done = new CountDownLatch(sessions);
+        final List<String> texts = Collections.synchronizedList(new ArrayList<String>());
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final Map<StoryScheduler.Session, Integer> turnCounts = new ConcurrentHashMap<>();
+
+        StoryScheduler.TurnListener listener = new StoryScheduler.TurnListener() {
+            @Override
+            public int turnComplete(StoryScheduler.Session session, String text, Exception error) {
+                texts.add(text);
+                if (error != null) errors.add(error);
+
+                // Called from one thread at a time for each session
+                Integer count = turnCounts.get(session);
+                count = count == null ? 1 : count + 1;
+                turnCounts.put(session, count);
+
+                if (error == null && count < turns) return 0;
+
+                done.countDown();
+                return -1;
+            }
+        };
+
+        for (int i = 0; i < sessions; i++) {
+            scheduler.addSession(compiledStory.createStory()).continueTurn(listener);
+        }
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        scheduler.shutdown();
+
+        Assert.assertTrue(errors.isEmpty());
+        Assert.assertEquals(sessions * turns, texts.size());
+        for (String text : texts) Assert.assertEquals(expected, text);
+
+        SchedulerStats stats = scheduler.getStats();
+        Assert.assertEquals(sessions, stats.getSessions());
+        Assert.assertEquals(sessions * turns, stats.getTurns());
+        // The step budget splits every turn in several slices
+        Assert.assertTrue(stats.getSlices() > stats.getTurns());
+        Assert.assertTrue(stats.getFairness() > 0 && stats.getFairness() <= 1.0001);
+    }
+
+    /**
+     * Test that an exception thrown by a turn listener reaches the scheduler's
+     * error handler.
+     */
+    @Test
+    public void schedulerListenerError() throws Exception {
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("Hello.\n-> END\n");
+
+        StoryScheduler scheduler = new StoryScheduler(new StoryScheduler.Options());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<RuntimeException>());
+
+        scheduler.setListenerErrorHandler(new StoryScheduler.ListenerErrorHandler() {
+            @Override
+            public void listenerFailed(StoryScheduler.Session session, RuntimeException e) {
+                failures.add(e);
+                done.countDown();
+            }
+        });
+
+        StoryScheduler.Session session = scheduler.addSession(new Story(json));
+        session.continueTurn(new StoryScheduler.TurnListener() {
+            @Override
+            public int turnComplete(StoryScheduler.Session session, String text, Exception error) {
+                throw new IllegalStateException("listener failure");
+            }
+        });
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        scheduler.shutdown();
+
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals("listener failure", failures.get(0).getMessage());
+        Assert.assertFalse(session.isRunning());
+        Assert.assertEquals(1, scheduler.getStats().getFailedTurns());
+    }
 }
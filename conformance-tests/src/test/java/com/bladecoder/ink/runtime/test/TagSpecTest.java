@@ -1,7 +1,10 @@
 package com.bladecoder.ink.runtime.test;
 
 import com.bladecoder.ink.compiler.Compiler;
+import com.bladecoder.ink.runtime.CompiledStory;
+import com.bladecoder.ink.runtime.Container;
 import com.bladecoder.ink.runtime.Story;
+import com.bladecoder.ink.runtime.StoryException;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -33,6 +36,11 @@ public class TagSpecTest {
         Assert.assertArrayEquals(
                 stitchTags, story.tagsForContentAtPath("knot.stitch").toArray());
 
+        Assert.assertEquals(2, story.getAllKnotTags().size());
+        Assert.assertArrayEquals(knotTags, story.getAllKnotTags().get("knot").toArray());
+        Assert.assertArrayEquals(
+                stitchTags, story.getAllKnotTags().get("knot.stitch").toArray());
+
         story.choosePathString("knot");
         Assert.assertEquals("Knot content\n", story.Continue());
         Assert.assertArrayEquals(knotTags, story.getCurrentTags().toArray());
@@ -41,6 +49,78 @@ public class TagSpecTest {
                 knotTagWhenContinuedTwice, story.getCurrentTags().toArray());
     }
 
+    /**
+     * Knots with dynamic tags are left out of the tag index.
+     */
+    @Test
+    public void testAllKnotTags() throws Exception {
+
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("VAR x = 2\n"
+                + "Start\n"
+                + "-> END\n"
+                + "== plain ==\n"
+                + "# place: forest\n"
+                + "Trees.\n"
+                + "-> END\n"
+                + "== dynamic ==\n"
+                + "# count: {x}\n"
+                + "Count.\n"
+                + "-> END\n"
+                + "== untagged ==\n"
+                + "Nothing.\n"
+                + "-> END\n");
+        Story story = new Story(json);
+
+        Assert.assertNull(story.getGlobalTags());
+        Assert.assertNull(story.tagsForContentAtPath("untagged"));
+        Assert.assertEquals(1, story.getAllKnotTags().size());
+        Assert.assertArrayEquals(
+                new String[] {"place: forest"},
+                story.getAllKnotTags().get("plain").toArray());
+
+        try {
+            story.tagsForContentAtPath("dynamic");
+            Assert.fail();
+        } catch (StoryException e) {
+        }
+    }
+
+    /**
+     * Tag queries on a story loaded with lazy knots only build the knots asked
+     * for.
+     */
+    @Test
+    public void testTagsOfLazyKnots() throws Exception {
+
+        Compiler compiler = new Compiler();
+
+        String json = compiler.compile("# title: lazy\nStart\n-> END\n== forest ==\n# place: forest\nTrees.\n-> END\n"
+                + "== sea ==\n# place: sea\nWaves.\n-> END\n");
+        CompiledStory.Options options = new CompiledStory.Options();
+        options.lazyKnots = true;
+        Story story = new CompiledStory(json, options).createStory();
+
+        Assert.assertArrayEquals(
+                new String[] {"title: lazy"}, story.getGlobalTags().toArray());
+        Assert.assertFalse(knot(story, "forest").isMaterialized());
+        Assert.assertFalse(knot(story, "sea").isMaterialized());
+
+        Assert.assertArrayEquals(
+                new String[] {"place: forest"},
+                story.tagsForContentAtPath("forest").toArray());
+        Assert.assertTrue(knot(story, "forest").isMaterialized());
+        Assert.assertFalse(knot(story, "sea").isMaterialized());
+
+        Assert.assertEquals(new Story(json).getAllKnotTags(), story.getAllKnotTags());
+        Assert.assertTrue(knot(story, "sea").isMaterialized());
+    }
+
+    private static Container knot(Story story, String name) {
+        return (Container) story.getMainContentContainer().getNamedContent().get(name);
+    }
+
     @Test
     public void testTagsInSeq() throws Exception {
 
@@ -2,19 +2,42 @@ package com.bladecoder.ink.inklecate;
 
 import com.bladecoder.ink.compiler.Compiler;
 import com.bladecoder.ink.compiler.IFileHandler;
+import com.bladecoder.ink.compiler.ParseCache;
 import com.bladecoder.ink.compiler.Stats;
 import com.bladecoder.ink.runtime.Error.ErrorHandler;
 import com.bladecoder.ink.runtime.Error.ErrorType;
+import com.bladecoder.ink.runtime.PlaythroughRunner;
+import com.bladecoder.ink.runtime.PlaythroughStats;
 import com.bladecoder.ink.runtime.SimpleJson;
 import com.bladecoder.ink.runtime.Story;
 import com.bladecoder.ink.runtime.StoryException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class CommandLineTool {
     private static class Options {
@@ -26,8 +49,17 @@ public class CommandLineTool {
         String outputFile;
         boolean countAllVisits;
         boolean keepOpenAfterStoryFinish;
+        int playthroughs;
+        boolean watch;
+        boolean parallelIncludes;
+        boolean memoization;
+        List<String> inputFiles = new ArrayList<>();
     }
 
+    // How long the files must stay unchanged before compiling in watch mode,
+    // since editors usually save in several steps.
+    private static final long WATCH_SETTLE_MILLIS = 100;
+
     public static int ExitCodeError = 1;
 
     public static void main(String[] args) {
@@ -39,11 +71,27 @@ public class CommandLineTool {
             exitWithUsageInstructions();
         }
 
+        if (isBatch(opts.inputFiles)) {
+            if (opts.outputFile != null || opts.stats || opts.playMode || opts.playthroughs > 0 || opts.watch) {
+                System.out.println("Several input files can only be compiled, without -o, -p, -s, -r or -w");
+                System.exit(ExitCodeError);
+                return;
+            }
+
+            compileBatch(opts.inputFiles);
+            return;
+        }
+
+        if (opts.inputFiles.size() == 1) {
+            opts.inputFile = opts.inputFiles.get(0);
+        }
+
         if (opts.inputFile == null) {
             exitWithUsageInstructions();
         }
 
         String inputString;
+        Path fullFilename;
         Path workingDirectory = Paths.get("").toAbsolutePath();
         Path inputBaseDir = null;
         Path outputBaseDir = workingDirectory;
@@ -54,7 +102,7 @@ public class CommandLineTool {
         boolean outputFileWasRelative = !Paths.get(opts.outputFile).isAbsolute();
 
         try {
-            Path fullFilename = Paths.get(opts.inputFile);
+            fullFilename = Paths.get(opts.inputFile);
             if (!fullFilename.isAbsolute()) {
                 fullFilename = workingDirectory.resolve(opts.inputFile);
             }
@@ -91,6 +139,17 @@ public class CommandLineTool {
             return;
         }
 
+        if (opts.watch) {
+            if (inputIsJson || opts.stats || opts.playMode || opts.playthroughs > 0) {
+                System.out.println("Watch mode only compiles .ink files, it can't be combined with -p, -s or -r");
+                System.exit(ExitCodeError);
+                return;
+            }
+
+            watch(fullFilename, inputBaseDir);
+            return;
+        }
+
         com.bladecoder.ink.compiler.ParsedHierarchy.Story parsedStory = null;
         Story story;
         Compiler compiler = null;
@@ -166,7 +225,9 @@ public class CommandLineTool {
             return;
         }
 
-        if (opts.playMode) {
+        if (opts.playthroughs > 0) {
+            runPlaythroughs(story);
+        } else if (opts.playMode) {
             playing = true;
             story.setAllowExternalFunctionFallbacks(true);
 
@@ -210,8 +271,402 @@ public class CommandLineTool {
         }
     }
 
+    private void runPlaythroughs(Story story) {
+        PlaythroughRunner.Options options = new PlaythroughRunner.Options();
+        options.playthroughs = opts.playthroughs;
+
+        try {
+            PlaythroughStats stats = new PlaythroughRunner(story.getCompiledStory(), options).run();
+
+            if (opts.jsonOutput) {
+                System.out.println("{\"playthroughs\": " + stats.toJson() + "}");
+            } else {
+                System.out.print(stats);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Compiles the story every time an .ink file in its directory changes. The
+    // parsed INCLUDEd files are kept between compilations, so only the ones
+    // that changed are parsed again, and the JVM stays warm.
+    private void watch(Path inputFile, Path inputBaseDir) {
+        ParseCache parseCache = new ParseCache();
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            registerDirectories(watchService, inputBaseDir);
+
+            if (!opts.jsonOutput) {
+                System.out.println("Watching '" + inputBaseDir + "' for changes. Press Ctrl+C to stop.");
+            }
+
+            while (true) {
+                compileAndWrite(inputFile, inputBaseDir, parseCache);
+                waitForChanges(watchService);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not watch directory '" + inputBaseDir + "': " + e.getMessage());
+            System.exit(ExitCodeError);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void compileAndWrite(Path inputFile, Path inputBaseDir, ParseCache parseCache) {
+        long startTime = System.nanoTime();
+        int hitsBefore = parseCache.getHits();
+        Story story = null;
+
+        try {
+            Compiler.Options options =
+                    buildCompilerOptions(opts, opts.inputFile, pluginDirectories, this::onError, inputBaseDir);
+            options.parseCache = parseCache;
+
+            story = new Compiler(readFile(inputFile.toString()), options).compile();
+        } catch (IOException e) {
+            onError("Could not open file '" + inputFile + "'", ErrorType.Error);
+        } catch (RuntimeException e) {
+            // Keep watching, the next change may fix it
+            onError(e.getMessage(), ErrorType.Error);
+        }
+
+        boolean compileSuccess = story != null && errors.isEmpty();
+
+        if (compileSuccess) {
+            try {
+                writeFile(opts.outputFile, story.toJson());
+            } catch (Exception e) {
+                onError("Could not write to output file '" + opts.outputFile + "'", ErrorType.Error);
+                compileSuccess = false;
+            }
+        }
+
+        double millis = (System.nanoTime() - startTime) / 1e6;
+
+        if (opts.jsonOutput) {
+            System.out.println("{\"compile-success\": " + compileSuccess + "}");
+            printAllMessages();
+            System.out.println(String.format(Locale.US, "{\"compile-time-ms\": %.1f}", millis));
+        } else {
+            printAllMessages();
+            System.out.println(String.format(
+                    Locale.US,
+                    "%s in %.1f ms (%d of the INCLUDEd files reused)",
+                    compileSuccess ? "Compiled '" + opts.outputFile + "'" : "Compilation failed",
+                    millis,
+                    parseCache.getHits() - hitsBefore));
+        }
+    }
+
+    // Blocks until an .ink file changes, and then until there are no changes
+    // for WATCH_SETTLE_MILLIS.
+    private static void waitForChanges(WatchService watchService) throws IOException, InterruptedException {
+        boolean inkChanged = false;
+
+        while (!inkChanged) {
+            inkChanged = processEvents(watchService, watchService.take());
+        }
+
+        WatchKey key;
+        while ((key = watchService.poll(WATCH_SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+            processEvents(watchService, key);
+        }
+    }
+
+    private static boolean processEvents(WatchService watchService, WatchKey key) throws IOException {
+        boolean inkChanged = false;
+        Path dir = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                inkChanged = true;
+                continue;
+            }
+
+            Path path = dir.resolve((Path) event.context());
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                registerDirectories(watchService, path);
+                inkChanged = true;
+            } else if (path.getFileName().toString().toLowerCase().endsWith(".ink")) {
+                inkChanged = true;
+            }
+        }
+
+        key.reset();
+
+        return inkChanged;
+    }
+
+    // INCLUDEd files can be in subdirectories, and the WatchService only
+    // watches single directories.
+    private static void registerDirectories(WatchService watchService, Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path dir : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+                dir.register(
+                        watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    private static boolean isBatch(List<String> inputFiles) {
+        if (inputFiles.size() > 1) {
+            return true;
+        }
+
+        return inputFiles.size() == 1 && (isGlob(inputFiles.get(0)) || Files.isDirectory(Paths.get(inputFiles.get(0))));
+    }
+
+    private static boolean isGlob(String inputFile) {
+        return inputFile.indexOf('*') != -1 || inputFile.indexOf('?') != -1;
+    }
+
+    private static class BatchResult {
+        final Path inputFile;
+        final Path outputFile;
+        final List<String> issues = new ArrayList<>();
+        boolean success;
+        long nanos;
+        long outputBytes;
+
+        BatchResult(Path inputFile) {
+            this.inputFile = inputFile;
+            this.outputFile = Paths.get(changeExtension(inputFile.toString(), ".ink.json"));
+        }
+    }
+
+    // Compiles many stories in one JVM, in parallel. Every input can be a
+    // file, a glob (for shells that don't expand them) or a directory, which
+    // compiles the .ink files in it that no other file INCLUDEs.
+    private void compileBatch(List<String> inputFiles) {
+        List<BatchResult> results = new ArrayList<>();
+
+        try {
+            for (Path inputFile : expandInputFiles(inputFiles)) {
+                results.add(new BatchResult(inputFile));
+            }
+        } catch (IOException e) {
+            System.out.println("Could not list input files: " + e.getMessage());
+            System.exit(ExitCodeError);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), results.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (BatchResult result : results) {
+                futures.add(executor.submit(() -> compileBatchFile(result)));
+            }
+
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        double totalMillis = (System.nanoTime() - startTime) / 1e6;
+        int failed = 0;
+
+        for (BatchResult result : results) {
+            if (!result.success) {
+                failed++;
+            }
+        }
+
+        if (opts.jsonOutput) {
+            printBatchJson(results, totalMillis);
+        } else {
+            for (BatchResult result : results) {
+                if (result.success) {
+                    System.out.println(String.format(
+                            Locale.US,
+                            "OK    %s -> %s (%.1f ms, %d bytes)",
+                            result.inputFile,
+                            result.outputFile.getFileName(),
+                            result.nanos / 1e6,
+                            result.outputBytes));
+                } else {
+                    System.out.println(
+                            String.format(Locale.US, "FAIL  %s (%.1f ms)", result.inputFile, result.nanos / 1e6));
+                }
+
+                for (String issue : result.issues) {
+                    System.out.println("      " + issue);
+                }
+            }
+
+            System.out.println(String.format(
+                    Locale.US,
+                    "Compiled %d of %d stories in %.1f ms",
+                    results.size() - failed,
+                    results.size(),
+                    totalMillis));
+        }
+
+        if (failed > 0) {
+            System.exit(ExitCodeError);
+        }
+    }
+
+    private void compileBatchFile(BatchResult result) {
+        long startTime = System.nanoTime();
+        List<String> errors = new ArrayList<>();
+
+        ErrorHandler handler = (message, type) -> {
+            result.issues.add(message);
+
+            if (type == ErrorType.Error) {
+                errors.add(message);
+            }
+        };
+
+        try {
+            Compiler.Options options = buildCompilerOptions(
+                    opts,
+                    result.inputFile.getFileName().toString(),
+                    pluginDirectories,
+                    handler,
+                    result.inputFile.toAbsolutePath().getParent());
+
+            Story story = new Compiler(readFile(result.inputFile.toString()), options).compile();
+
+            if (story != null && errors.isEmpty()) {
+                String json = story.toJson();
+                writeFile(result.outputFile.toString(), json);
+
+                result.outputBytes = json.getBytes(StandardCharsets.UTF_8).length;
+                result.success = true;
+            }
+        } catch (IOException e) {
+            result.issues.add("Could not read '" + result.inputFile + "' or write '" + result.outputFile + "'");
+        } catch (Exception e) {
+            result.issues.add(String.valueOf(e.getMessage()));
+        }
+
+        result.nanos = System.nanoTime() - startTime;
+    }
+
+    private static void printBatchJson(List<BatchResult> results, double totalMillis) {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+
+        try {
+            writer.writeObjectStart();
+            writer.writePropertyStart("batch");
+            writer.writeArrayStart();
+
+            for (BatchResult result : results) {
+                writer.writeObjectStart();
+                writer.writeProperty("file", result.inputFile.toString());
+                writer.writeProperty("compile-success", result.success);
+                writer.writeProperty("time-ms", (int) Math.round(result.nanos / 1e6));
+
+                if (result.success) {
+                    writer.writeProperty("output", result.outputFile.toString());
+                    writer.writeProperty("bytes", (int) result.outputBytes);
+                }
+
+                writer.writePropertyStart("issues");
+                writer.writeArrayStart();
+                for (String issue : result.issues) {
+                    writer.write(issue);
+                }
+                writer.writeArrayEnd();
+                writer.writePropertyEnd();
+
+                writer.writeObjectEnd();
+            }
+
+            writer.writeArrayEnd();
+            writer.writePropertyEnd();
+            writer.writeProperty("time-ms", (int) Math.round(totalMillis));
+            writer.writeObjectEnd();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        System.out.println(writer.toString());
+    }
+
+    private static List<Path> expandInputFiles(List<String> inputFiles) throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        for (String inputFile : inputFiles) {
+            if (isGlob(inputFile)) {
+                Path pattern = Paths.get(inputFile);
+                Path dir = pattern.getParent() != null ? pattern.getParent() : Paths.get("");
+
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+                        dir.toAbsolutePath(), pattern.getFileName().toString())) {
+                    for (Path file : stream) {
+                        files.add(dir.resolve(file.getFileName()));
+                    }
+                }
+            } else if (Files.isDirectory(Paths.get(inputFile))) {
+                files.addAll(rootInkFiles(Paths.get(inputFile)));
+            } else {
+                files.add(Paths.get(inputFile));
+            }
+        }
+
+        Collections.sort(files);
+        return files;
+    }
+
+    // The .ink files in the directory not INCLUDEd by any .ink file of the
+    // directory or its subdirectories. Includes are resolved from the
+    // directory of the root file, like InklecateFileHandler does.
+    private static List<Path> rootInkFiles(Path dir) throws IOException {
+        Set<Path> included = new HashSet<>();
+        List<Path> inkFiles = new ArrayList<>();
+
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) paths::iterator) {
+                if (!file.getFileName().toString().toLowerCase().endsWith(".ink") || !Files.isRegularFile(file)) {
+                    continue;
+                }
+
+                if (dir.equals(file.getParent())) {
+                    inkFiles.add(file);
+                }
+
+                for (String line : readFile(file.toString()).split("\n")) {
+                    line = line.trim();
+
+                    if (line.startsWith("INCLUDE ")) {
+                        included.add(
+                                dir.resolve(line.substring("INCLUDE ".length()).trim())
+                                        .normalize());
+                    }
+                }
+            }
+        }
+
+        List<Path> roots = new ArrayList<>();
+        for (Path file : inkFiles) {
+            if (!included.contains(file.normalize())) {
+                roots.add(file);
+            }
+        }
+
+        return roots;
+    }
+
     private void exitWithUsageInstructions() {
         System.out.println("Usage: inklecate <options> <ink file>\n"
+                + "       inklecate <options> <ink files, globs or directories>\n"
+                + "   Several inputs are compiled in parallel, every one to its own .ink.json. A\n"
+                + "   directory compiles the .ink files in it that aren't INCLUDEd by others.\n"
                 + "   -o <filename>:   Output file name\n"
                 + "   -c:              Count all visits to knots, stitches and weave points, not\n"
                 + "                    just those referenced by TURNS_SINCE and read counts.\n"
@@ -220,6 +675,11 @@ public class CommandLineTool {
                 + "   -s:              Print stats about story including word count in JSON format\n"
                 + "   -v:              Verbose mode - print compilation timings\n"
                 + "   -k:              Keep inklecate running in play mode even after story is complete\n"
+                + "   -r <count>:      Run <count> random playthroughs in parallel and print visit counts,\n"
+                + "                    endings, final variable values and timings\n"
+                + "   -w:              Watch mode - compile again every time an .ink file changes\n"
+                + "   -i:              Parse the INCLUDEd files in parallel\n"
+                + "   -m:              Memoize expressions while parsing, faster for expression heavy stories\n"
                 + "   -x <directory>:              Import plugins for the compiler.");
         System.exit(ExitCodeError);
     }
@@ -231,6 +691,8 @@ public class CommandLineTool {
         options.pluginDirectories = pluginDirectories;
         options.countAllVisits = opts.countAllVisits;
         options.errorHandler = handler;
+        options.parallelIncludes = opts.parallelIncludes;
+        options.memoization = opts.memoization;
         if (inputBaseDir != null) {
             options.fileHandler = new InklecateFileHandler(inputBaseDir);
         }
@@ -248,15 +710,25 @@ public class CommandLineTool {
 
         boolean nextArgIsOutputFilename = false;
         boolean nextArgIsPluginDirectory = false;
+        boolean nextArgIsPlaythroughs = false;
 
-        int argIdx = 0;
         for (String arg : args) {
             if (nextArgIsOutputFilename) {
                 opts.outputFile = arg;
                 nextArgIsOutputFilename = false;
+                continue;
             } else if (nextArgIsPluginDirectory) {
                 pluginDirectories.add(arg);
                 nextArgIsPluginDirectory = false;
+                continue;
+            } else if (nextArgIsPlaythroughs) {
+                try {
+                    opts.playthroughs = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                nextArgIsPlaythroughs = false;
+                continue;
             }
 
             if (arg.startsWith("-") && arg.length() > 1) {
@@ -288,16 +760,26 @@ public class CommandLineTool {
                         case 'k':
                             opts.keepOpenAfterStoryFinish = true;
                             break;
+                        case 'r':
+                            nextArgIsPlaythroughs = true;
+                            break;
+                        case 'w':
+                            opts.watch = true;
+                            break;
+                        case 'i':
+                            opts.parallelIncludes = true;
+                            break;
+                        case 'm':
+                            opts.memoization = true;
+                            break;
                         default:
                             System.out.println("Unsupported argument type: '" + argChar + "'");
                             break;
                     }
                 }
-            } else if (argIdx == args.length - 1) {
-                opts.inputFile = arg;
+            } else {
+                opts.inputFiles.add(arg);
             }
-
-            argIdx++;
         }
 
         return true;
@@ -374,7 +856,30 @@ public class CommandLineTool {
         if (!path.isAbsolute()) {
             path = Paths.get(System.getProperty("user.dir"), filename);
         }
-        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+
+        // Written to a temporary file first, so the tools reading the output
+        // (e.g. a running game in watch mode) never see half a story. It's
+        // created like a normal file, with the default permissions, since
+        // createTempFile() would make the output readable only by the owner.
+        Path dir = path.toAbsolutePath().getParent();
+        Path tmp = dir.resolve("." + path.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+
+        try {
+            Files.write(
+                    tmp,
+                    contents.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+
+            try {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
     }
 
     private static String changeExtension(String filename, String extension) {
@@ -0,0 +1,357 @@
+package com.bladecoder.ink.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact binary form of the JSON documents written through SimpleJson.Writer,
+ * used for save states.
+ *
+ * It encodes exactly the same token tree as the JSON text, so everything that
+ * can be written as JSON can be written as binary and read back to the same
+ * HashMap/List tree. The differences are in the encoding only:
+ *
+ * - Ints are zigzag varints and floats their raw 4 bytes.
+ *
+ * - Strings, including dictionary keys, are interned: the first occurrence is
+ * written in UTF-8 and the next ones are a varint reference to it. This makes
+ * the repeated path strings and variable names of a save cheap.
+ *
+ * - No escaping, separators nor whitespace.
+ */
+class BinaryJson {
+    private static final byte[] MAGIC = {'I', 'N', 'K', 'B'};
+
+    // Increase when the encoding changes. The content itself is versioned by the
+    // save format (inkSaveVersion) as in JSON.
+    static final int FORMAT_VERSION = 1;
+
+    private static final int NULL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INT = 3;
+    private static final int FLOAT = 4;
+    private static final int STRING = 5;
+    private static final int STRING_REF = 6;
+    private static final int OBJECT = 7;
+    private static final int ARRAY = 8;
+    private static final int END = 9;
+
+    // Longest string accepted by the reader. Strings in saves are paths, names
+    // and text, so anything longer means the data is corrupt.
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Reads a dictionary written by BinaryJson.Writer.
+     */
+    static HashMap<String, Object> readDictionary(InputStream stream) throws Exception {
+        Reader reader = new Reader(stream);
+
+        Object root = reader.readValue(reader.readByte());
+
+        if (!(root instanceof HashMap)) throw new Exception("ink binary format incorrect, expected a dictionary.");
+
+        @SuppressWarnings("unchecked")
+        HashMap<String, Object> dict = (HashMap<String, Object>) root;
+        return dict;
+    }
+
+    static class Writer extends SimpleJson.Writer {
+        private final OutputStream out;
+
+        private final HashMap<String, Integer> strings = new HashMap<>();
+
+        // Strings and property names written in several pieces
+        private final StringBuilder sb = new StringBuilder();
+
+        private int depth;
+
+        Writer(OutputStream stream) throws IOException {
+            out = new BufferedOutputStream(stream);
+            out.write(MAGIC);
+            writeVarInt(FORMAT_VERSION);
+        }
+
+        @Override
+        public void writeObjectStart() throws Exception {
+            out.write(OBJECT);
+            depth++;
+        }
+
+        @Override
+        public void writeObjectEnd() throws Exception {
+            end();
+        }
+
+        @Override
+        public void writeArrayStart() throws Exception {
+            out.write(ARRAY);
+            depth++;
+        }
+
+        @Override
+        public void writeArrayEnd() throws Exception {
+            end();
+        }
+
+        private void end() throws IOException {
+            out.write(END);
+            depth--;
+
+            if (depth == 0) out.flush();
+        }
+
+        @Override
+        public void writePropertyStart(String name) throws Exception {
+            writeString(name);
+        }
+
+        @Override
+        public void writePropertyEnd() throws Exception {}
+
+        @Override
+        public void writePropertyNameStart() throws Exception {
+            sb.setLength(0);
+        }
+
+        @Override
+        public void writePropertyNameInner(String str) throws Exception {
+            sb.append(str);
+        }
+
+        @Override
+        public void writePropertyNameEnd() throws Exception {
+            writeString(sb.toString());
+        }
+
+        @Override
+        public void write(int i) throws Exception {
+            out.write(INT);
+            writeVarInt((i << 1) ^ (i >> 31));
+        }
+
+        // The format only has ints, as the JSON reader.
+        @Override
+        public void write(long l) throws Exception {
+            if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE)
+                throw new Exception("ink binary data can't store the value " + l);
+
+            write((int) l);
+        }
+
+        @Override
+        public void write(float f) throws Exception {
+            out.write(FLOAT);
+
+            int bits = Float.floatToIntBits(f);
+            out.write(bits >>> 24);
+            out.write(bits >>> 16);
+            out.write(bits >>> 8);
+            out.write(bits);
+        }
+
+        @Override
+        public void write(String str, boolean escape) throws Exception {
+            writeString(escape ? str : unescape(str));
+        }
+
+        @Override
+        public void write(boolean b) throws Exception {
+            out.write(b ? TRUE : FALSE);
+        }
+
+        @Override
+        public void writeNull() throws Exception {
+            out.write(NULL);
+        }
+
+        @Override
+        public void writeStringStart() throws Exception {
+            sb.setLength(0);
+        }
+
+        @Override
+        public void writeStringInner(String str, boolean escape) throws Exception {
+            sb.append(escape ? str : unescape(str));
+        }
+
+        @Override
+        public void writeStringEnd() throws Exception {
+            writeString(sb.toString());
+        }
+
+        // The output is binary, so there is no text to return.
+        @Override
+        public String toString() {
+            return "BinaryJson.Writer";
+        }
+
+        private void writeString(String str) throws IOException {
+            Integer id = strings.get(str);
+
+            if (id != null) {
+                out.write(STRING_REF);
+                writeVarInt(id);
+            } else {
+                strings.put(str, strings.size());
+
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                out.write(STRING);
+                writeVarInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            out.write(value);
+        }
+
+        // Strings written without escaping are already in their JSON form (e.g.
+        // "\\n" for newlines).
+        private static String unescape(String str) {
+            if (str.indexOf('\\') == -1) return str;
+
+            StringBuilder sb = new StringBuilder(str.length());
+
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+
+                if (c == '\\' && i + 1 < str.length()) {
+                    c = str.charAt(++i);
+
+                    if (c == 'n') c = '\n';
+                    else if (c == 't') c = '\t';
+                }
+
+                sb.append(c);
+            }
+
+            return sb.toString();
+        }
+    }
+
+    private static class Reader {
+        private final InputStream in;
+
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(InputStream stream) throws Exception {
+            in = new BufferedInputStream(stream);
+
+            for (byte b : MAGIC) {
+                if (in.read() != b) throw new Exception("ink binary format incorrect, can't load.");
+            }
+
+            int version = readVarInt();
+
+            if (version > FORMAT_VERSION)
+                throw new Exception("ink binary format version " + version + " is newer than the supported version "
+                        + FORMAT_VERSION + ", can't load.");
+        }
+
+        int readByte() throws IOException {
+            int b = in.read();
+
+            if (b == -1) throw new EOFException("Unexpected end of ink binary data");
+
+            return b;
+        }
+
+        Object readValue(int tag) throws Exception {
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case INT:
+                    int zigzag = readVarInt();
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                case FLOAT:
+                    int bits = readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+                    return Float.intBitsToFloat(bits);
+                case STRING:
+                case STRING_REF:
+                    return readString(tag);
+                case OBJECT:
+                    HashMap<String, Object> dict = new HashMap<>();
+
+                    for (int t = readByte(); t != END; t = readByte()) {
+                        String key = readString(t);
+                        dict.put(key, readValue(readByte()));
+                    }
+
+                    return dict;
+                case ARRAY:
+                    List<Object> list = new ArrayList<>();
+
+                    for (int t = readByte(); t != END; t = readByte()) list.add(readValue(t));
+
+                    return list;
+                default:
+                    throw new Exception("Unexpected token in ink binary data: " + tag);
+            }
+        }
+
+        private String readString(int tag) throws Exception {
+            if (tag == STRING_REF) {
+                int id = readVarInt();
+
+                if (id < 0 || id >= strings.size())
+                    throw new Exception("Invalid string reference in ink binary data: " + id);
+
+                return strings.get(id);
+            }
+
+            if (tag != STRING) throw new Exception("Expected string in ink binary data, found: " + tag);
+
+            int length = readVarInt();
+
+            if (length < 0 || length > MAX_STRING_BYTES)
+                throw new Exception("Invalid string length in ink binary data: " + length);
+
+            byte[] bytes = new byte[length];
+            int read = 0;
+
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+
+                if (n == -1) throw new EOFException("Unexpected end of ink binary data");
+
+                read += n;
+            }
+
+            String str = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(str);
+
+            return str;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) return value;
+            }
+
+            throw new IOException("Malformed varint in ink binary data");
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.bladecoder.ink.runtime;
 
 public class BoolValue extends Value<Boolean> {
+    // Shared instances returned by comparisons and logical operations.
+    // They must never be modified nor added to a container.
+    static final BoolValue TRUE = new BoolValue(true);
+    static final BoolValue FALSE = new BoolValue(false);
+
     public BoolValue() {
         this(false);
     }
@@ -9,6 +14,10 @@ public class BoolValue extends Value<Boolean> {
         super(boolVal);
     }
 
+    static BoolValue valueOf(boolean boolVal) {
+        return boolVal ? TRUE : FALSE;
+    }
+
     @Override
     public AbstractValue cast(ValueType newType) throws Exception {
         if (newType == getValueType()) {
@@ -16,7 +25,7 @@ public class BoolValue extends Value<Boolean> {
         }
 
         if (newType == ValueType.Int) {
-            return new IntValue(value ? 1 : 0);
+            return IntValue.valueOf(value ? 1 : 0);
         }
 
         if (newType == ValueType.Float) {
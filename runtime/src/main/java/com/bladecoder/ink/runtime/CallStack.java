@@ -25,6 +25,10 @@ public class CallStack {
         // they generate, so we make sure know where the function's start and end are.
         public int functionStartInOuputStream;
 
+        // The element is referenced by more than one thread, so it has to be
+        // copied before modifying it.
+        boolean shared;
+
         public Element(PushPopType type, Pointer pointer) {
             this(type, pointer, false);
         }
@@ -51,6 +55,10 @@ public class CallStack {
         public final Pointer previousPointer = new Pointer();
         public int threadIndex;
 
+        // The thread is referenced by more than one callstack, so it has to be
+        // copied before modifying it.
+        boolean shared;
+
         public Thread() {
             callstack = new ArrayList<>();
         }
@@ -120,16 +128,30 @@ public class CallStack {
             }
         }
 
+        // Elements are shared between both threads and only copied when
+        // modified through getElementForWrite.
         public Thread copy() {
             Thread copy = new Thread();
             copy.threadIndex = threadIndex;
             for (Element e : callstack) {
-                copy.callstack.add(e.copy());
+                e.shared = true;
+                copy.callstack.add(e);
             }
             copy.previousPointer.assign(previousPointer);
             return copy;
         }
 
+        Element getElementForWrite(int index) {
+            Element el = callstack.get(index);
+
+            if (el.shared) {
+                el = el.copy();
+                callstack.set(index, el);
+            }
+
+            return el;
+        }
+
         public void writeJson(SimpleJson.Writer writer) throws Exception {
             writer.writeObjectStart();
 
@@ -176,10 +198,12 @@ public class CallStack {
 
     private List<Thread> threads;
 
+    // Threads are shared with the copied callstack and copied on write, so
+    // taking a copy doesn't depend on the size of the callstack.
     public CallStack(CallStack toCopy) {
-        threads = new ArrayList<>();
-        for (Thread otherThread : toCopy.threads) {
-            threads.add(otherThread.copy());
+        threads = new ArrayList<>(toCopy.threads);
+        for (Thread thread : threads) {
+            thread.shared = true;
         }
 
         threadCounter = toCopy.threadCounter;
@@ -259,6 +283,44 @@ public class CallStack {
         return threads.get(threads.size() - 1);
     }
 
+    // Current thread, copied first if it's shared with another callstack.
+    private Thread getCurrentThreadForWrite() {
+        int last = threads.size() - 1;
+        Thread thread = threads.get(last);
+
+        if (thread.shared) {
+            thread = thread.copy();
+            threads.set(last, thread);
+        }
+
+        return thread;
+    }
+
+    // Element of the current thread that is going to be modified.
+    Element getElementForWrite(int index) {
+        return getCurrentThreadForWrite().getElementForWrite(index);
+    }
+
+    void setCurrentPointer(Pointer value) {
+        Element el = getElementForWrite(getCurrentElementIndex());
+        el.currentPointer.assign(value);
+    }
+
+    void setInExpressionEvaluation(boolean value) {
+        if (getCurrentElement().inExpressionEvaluation == value) return;
+
+        Element el = getElementForWrite(getCurrentElementIndex());
+        el.inExpressionEvaluation = value;
+    }
+
+    void setPreviousPointer(Pointer value) {
+        Pointer previousPointer = getcurrentThread().previousPointer;
+
+        if (previousPointer.container == value.container && previousPointer.index == value.index) return;
+
+        getCurrentThreadForWrite().previousPointer.assign(value);
+    }
+
     //
     public List<Element> getElements() {
         return getCallStack();
@@ -306,7 +368,7 @@ public class CallStack {
 
     public void pop(PushPopType type) throws Exception {
         if (canPop(type)) {
-            getCallStack().remove(getCallStack().size() - 1);
+            getCurrentThreadForWrite().callstack.remove(getCallStack().size() - 1);
             return;
         } else {
             throw new Exception("Mismatched push/pop in Callstack");
@@ -338,7 +400,7 @@ public class CallStack {
         element.evaluationStackHeightWhenPushed = externalEvaluationStackHeight;
         element.functionStartInOuputStream = outputStreamLengthWithPushed;
 
-        getCallStack().add(element);
+        getCurrentThreadForWrite().callstack.add(element);
     }
 
     public void pushThread() {
@@ -399,7 +461,7 @@ public class CallStack {
 
         if (oldValue != null) ListValue.retainListOriginsForAssignment(oldValue, value);
 
-        contextElement.temporaryVariables.put(name, value);
+        getElementForWrite(contextIndex - 1).temporaryVariables.put(name, value);
     }
 
     public Thread getThreadWithIndex(int index) {
@@ -18,6 +18,9 @@ public class ChoicePoint extends RTObject {
 
     private Path pathOnChoice;
 
+    // Content doesn't change at runtime, so the target is only resolved once.
+    private Container choiceTarget;
+
     public ChoicePoint() throws Exception {
         this(true);
     }
@@ -27,7 +30,9 @@ public class ChoicePoint extends RTObject {
     }
 
     public Container getChoiceTarget() throws Exception {
-        return resolvePath(pathOnChoice).getContainer();
+        if (choiceTarget == null) choiceTarget = resolvePath(pathOnChoice).getContainer();
+
+        return choiceTarget;
     }
 
     public int getFlags() {
@@ -110,6 +115,12 @@ public class ChoicePoint extends RTObject {
 
     public void setPathOnChoice(Path value) {
         pathOnChoice = value;
+        choiceTarget = null;
+    }
+
+    // Pre-resolves the choice target when linking the story content.
+    void link() throws Exception {
+        if (pathOnChoice != null) getChoiceTarget();
     }
 
     public void setPathStringOnChoice(String value) {
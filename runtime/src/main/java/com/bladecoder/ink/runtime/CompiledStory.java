@@ -0,0 +1,399 @@
+package com.bladecoder.ink.runtime;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The read-only part of a story: the content container and the list
+ * definitions.
+ *
+ * It can be loaded once and shared by many Story instances, each one with its
+ * own StoryState, so creating a new session doesn't need to parse the JSON nor
+ * build the content again. It is thread-safe: sessions can be created and run
+ * in different threads, as long as every single Story is used from one thread
+ * at a time.
+ */
+public class CompiledStory {
+
+    public static class Options {
+        /**
+         * Keeps the top level knots and functions as JSON, and only builds
+         * their content the first time they are used. A session usually
+         * touches a small part of a big story, so this makes loading faster
+         * and uses less memory, at the cost of keeping the JSON text. Missing
+         * external functions in knots not built yet are reported when they
+         * are called instead of at the first Continue().
+         */
+        public boolean lazyKnots;
+        /**
+         * With lazyKnots, builds the knots not used yet in a background
+         * thread, one at a time.
+         */
+        public boolean warmUp;
+        /**
+         * Resolves the targets of every static divert, choice and read count
+         * when the story is loaded instead of the first time they are used.
+         */
+        public boolean linkContent = true;
+    }
+
+    private final Container mainContentContainer;
+
+    private final ListDefinitionsOrigin listDefinitions;
+
+    private final boolean linkContent;
+
+    // Containers that need counting, indexed by Container.countIndex. The state
+    // stores visit counts and turn indices in arrays using those indices.
+    private final List<Container> countedContainers = new ArrayList<>();
+
+    private volatile boolean contentPrepared;
+
+    // Tags at the start of the story ("") and of the knots and stitches, by
+    // path. Each one is found the first time it's asked for, since the
+    // compiler can still modify the content before that, and so only the knots
+    // asked for are built in a lazily loaded story.
+    private final ConcurrentHashMap<String, List<String>> tagIndex = new ConcurrentHashMap<>();
+    private volatile Map<String, List<String>> knotTags;
+
+    // Marks the flows with dynamic tags in tagIndex.
+    private static final List<String> DYNAMIC_TAGS = Collections.unmodifiableList(new ArrayList<String>());
+
+    /**
+     * Loads the JSON compiled through inklecate.
+     */
+    public CompiledStory(String jsonString) throws Exception {
+        this(new StringReader(jsonString));
+    }
+
+    /**
+     * Loads the JSON compiled through inklecate with the given options.
+     */
+    public CompiledStory(String jsonString, Options options) throws Exception {
+        this(
+                new StringReader(jsonString),
+                options != null && options.lazyKnots ? jsonString : null,
+                options == null || options.linkContent);
+
+        if (options != null && options.lazyKnots && options.warmUp) startWarmUp();
+    }
+
+    /**
+     * Loads the JSON compiled through inklecate from an UTF-8 stream.
+     */
+    public CompiledStory(InputStream stream) throws Exception {
+        this(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Loads the JSON compiled through inklecate. The content is built while the
+     * JSON is read, so neither the text nor its intermediate tree is ever fully
+     * in memory.
+     */
+    public CompiledStory(Reader reader) throws Exception {
+        this(reader, null, true);
+    }
+
+    private CompiledStory(Reader reader, String lazyJson, boolean linkContent) throws Exception {
+        this.linkContent = linkContent;
+
+        SimpleJson.StreamReader jsonReader = lazyJson != null
+                ? new SimpleJson.StreamReader(lazyJson, this)
+                : new SimpleJson.StreamReader(reader, true);
+        HashMap<String, Object> rootObject = jsonReader.toHashMap();
+
+        Object versionObj = rootObject.get("inkVersion");
+        if (versionObj == null)
+            throw new Exception("ink version number not found. Are you sure it's a valid .ink.json file?");
+
+        int formatFromFile = versionObj instanceof String ? Integer.parseInt((String) versionObj) : (int) versionObj;
+
+        if (formatFromFile > Story.inkVersionCurrent) {
+            throw new Exception("Version of ink used to build story was newer than the current version of the engine");
+        } else if (formatFromFile < Story.inkVersionMinimumCompatible) {
+            throw new Exception(
+                    "Version of ink used to build story is too old to be loaded by this version of the engine");
+        } else if (formatFromFile != Story.inkVersionCurrent) {
+            System.out.println("WARNING: Version of ink used to build story doesn't match current version of engine. "
+                    + "Non-critical, but recommend synchronising.");
+        }
+
+        Object rootToken = rootObject.get("root");
+        if (rootToken == null)
+            throw new Exception("Root node for ink not found. Are you sure it's a valid .ink.json file?");
+
+        Object listDefsObj = rootObject.get("listDefs");
+        listDefinitions = listDefsObj != null ? Json.jTokenToListDefinitions(listDefsObj) : null;
+
+        RTObject runtimeObject = Json.jTokenToRuntimeObject(rootToken);
+        mainContentContainer = runtimeObject instanceof Container ? (Container) runtimeObject : null;
+
+        prepareContent();
+    }
+
+    // The content can still be modified (e.g. by the compiler) until the first
+    // Story using it is reset.
+    CompiledStory(Container contentContainer, List<ListDefinition> lists) {
+        mainContentContainer = contentContainer;
+        listDefinitions = lists != null ? new ListDefinitionsOrigin(lists) : null;
+        linkContent = true;
+    }
+
+    /**
+     * Creates a new Story session over this content, with a fresh state.
+     */
+    public Story createStory() throws Exception {
+        return new Story(this);
+    }
+
+    public Container getMainContentContainer() {
+        return mainContentContainer;
+    }
+
+    public ListDefinitionsOrigin getListDefinitions() {
+        return listDefinitions;
+    }
+
+    // Walks the whole content once before running the story:
+    // - Gives every container that needs counting a dense index, so the state
+    // can store visit counts and turn indices in arrays instead of maps keyed by
+    // path string.
+    // - If Options.linkContent is set, resolves the targets of diverts,
+    // choice points and read counts.
+    void prepareContent() throws Exception {
+        if (contentPrepared) return;
+
+        synchronized (this) {
+            if (!contentPrepared) {
+                prepareContent(mainContentContainer);
+                contentPrepared = true;
+            }
+        }
+    }
+
+    private void prepareContent(Container container) throws Exception {
+        prepareContent(container, linkContent);
+    }
+
+    // Knots not built yet are prepared when they are built.
+    private void prepareContent(Container container, boolean link) throws Exception {
+        if (container == null) return;
+
+        if (container.getVisitsShouldBeCounted() || container.getTurnIndexShouldBeCounted())
+            countIndexForContainer(container);
+
+        for (RTObject c : container.getContent()) {
+            if (c instanceof Container) {
+                if (((Container) c).isMaterialized()) prepareContent((Container) c, link);
+            } else if (link) {
+                linkContent(c);
+            }
+        }
+
+        for (RTObject c : container.getNamedOnlyContent().values()) {
+            if (c instanceof Container && ((Container) c).isMaterialized()) prepareContent((Container) c, link);
+        }
+    }
+
+    // Builds a knot of a lazily loaded story. There's a single lock for all the
+    // knots, since building one can resolve paths into others. The content
+    // isn't linked: it would build every knot it diverts to, and diverts are
+    // resolved the first time they run anyway.
+    synchronized void materialize(Container container, LazyContent lazy) {
+        if (container.getLazyContent() != lazy || lazy.building) return;
+
+        lazy.building = true;
+
+        try {
+            container.takeContentOf(new SimpleJson.StreamReader(new StringReader(lazy.getJson()), true).toContainer());
+            prepareContent(container, false);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load the content of " + container.getName(), e);
+        } finally {
+            lazy.building = false;
+        }
+
+        container.setLazyContent(null);
+    }
+
+    private void startWarmUp() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Object knot :
+                        mainContentContainer.getNamedContent().values().toArray()) {
+                    if (knot instanceof Container) ((Container) knot).getContent();
+                }
+            }
+        });
+
+        thread.setName("ink-warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void linkContent(RTObject obj) throws Exception {
+        if (obj instanceof Divert) ((Divert) obj).link();
+        else if (obj instanceof ChoicePoint) ((ChoicePoint) obj).link();
+        else if (obj instanceof VariableReference) ((VariableReference) obj).link();
+    }
+
+    // Containers that weren't indexed at load (e.g. added afterwards or only
+    // referenced from a save file) are registered the first time they're
+    // counted.
+    int countIndexForContainer(Container container) {
+        if (container.countIndex < 0) {
+            synchronized (countedContainers) {
+                if (container.countIndex < 0) {
+                    container.countIndex = countedContainers.size();
+                    countedContainers.add(container);
+                }
+            }
+        }
+
+        return container.countIndex;
+    }
+
+    /**
+     * The tags at the start of the story ("") or of a knot or stitch, or null if
+     * the path isn't one of them or its tags have dynamic content.
+     */
+    List<String> getTags(String path) {
+        List<String> tags = tagIndex.get(path);
+
+        if (tags == null) {
+            Container flow = flowContainerAtPath(path);
+
+            if (flow == null) return null;
+
+            tags = tagsAtStartOfFlowContainer(flow);
+            tags = tags == null ? DYNAMIC_TAGS : Collections.unmodifiableList(tags);
+            tagIndex.put(path, tags);
+        }
+
+        return tags != DYNAMIC_TAGS ? tags : null;
+    }
+
+    // Builds every knot of a lazily loaded story.
+    Map<String, List<String>> getKnotTags() {
+        Map<String, List<String>> result = knotTags;
+
+        if (result == null) {
+            TreeMap<String, List<String>> tagged = new TreeMap<>();
+
+            if (mainContentContainer != null) {
+                for (Entry<String, INamedContent> knot :
+                        mainContentContainer.getNamedContent().entrySet()) {
+                    if (!(knot.getValue() instanceof Container)) continue;
+
+                    addKnotTags(tagged, knot.getKey());
+
+                    for (Entry<String, INamedContent> stitch :
+                            ((Container) knot.getValue()).getNamedContent().entrySet()) {
+                        if (stitch.getValue() instanceof Container)
+                            addKnotTags(tagged, knot.getKey() + "." + stitch.getKey());
+                    }
+                }
+            }
+
+            result = Collections.unmodifiableMap(tagged);
+            knotTags = result;
+        }
+
+        return result;
+    }
+
+    private void addKnotTags(Map<String, List<String>> tagged, String path) {
+        List<String> tags = getTags(path);
+
+        if (tags != null && !tags.isEmpty()) tagged.put(path, tags);
+    }
+
+    // The story, knot or stitch container at the path, without building any
+    // other knot.
+    private Container flowContainerAtPath(String path) {
+        if (mainContentContainer == null) return null;
+        if (path.isEmpty()) return mainContentContainer;
+
+        String[] names = path.split("\\.");
+
+        if (names.length > 2) return null;
+
+        INamedContent knot = mainContentContainer.getNamedContent().get(names[0]);
+
+        if (!(knot instanceof Container)) return null;
+        if (names.length == 1) return (Container) knot;
+
+        INamedContent stitch = ((Container) knot).getNamedContent().get(names[1]);
+
+        return stitch instanceof Container ? (Container) stitch : null;
+    }
+
+    /**
+     * The plain text tags at the start of a story, knot or stitch container, or
+     * null if one of them has other content, which can only be evaluated by
+     * continuing the story.
+     */
+    static List<String> tagsAtStartOfFlowContainer(Container flowContainer) {
+        while (!flowContainer.getContent().isEmpty()) {
+            RTObject firstContent = flowContainer.getContent().get(0);
+            if (firstContent instanceof Container) flowContainer = (Container) firstContent;
+            else break;
+        }
+
+        // Any initial tag objects count as the "main tags" associated with that
+        // story/knot/stitch
+        boolean inTag = false;
+        List<String> tags = new ArrayList<>();
+        for (RTObject c : flowContainer.getContent()) {
+
+            if (c instanceof ControlCommand) {
+                ControlCommand command = (ControlCommand) c;
+
+                if (command.getCommandType() == ControlCommand.CommandType.BeginTag) {
+                    inTag = true;
+                } else if (command.getCommandType() == ControlCommand.CommandType.EndTag) {
+                    inTag = false;
+                }
+            } else if (inTag) {
+                if (c instanceof StringValue) {
+                    tags.add(((StringValue) c).value);
+                } else {
+                    return null;
+                }
+            }
+
+            // Any other content - we're done
+            // We only recognise initial text-only tags
+            else {
+                break;
+            }
+        }
+
+        return tags;
+    }
+
+    int getCountedContainersSize() {
+        synchronized (countedContainers) {
+            return countedContainers.size();
+        }
+    }
+
+    Container getCountedContainer(int index) {
+        synchronized (countedContainers) {
+            return countedContainers.get(index);
+        }
+    }
+}
@@ -16,6 +16,14 @@ public class Container extends RTObject implements INamedContent {
     private boolean turnIndexShouldBeCounted;
     private boolean countingAtStartOnly;
 
+    // Dense index of this container in the story counted containers, used to
+    // store its visit count and turn index in the StoryState arrays.
+    int countIndex = -1;
+
+    // Set while the content is still JSON in a lazily loaded story. It's built
+    // the first time anything but the name is asked for.
+    private volatile LazyContent lazyContent;
+
     public Container() {
         content = new ArrayList<>();
         setNamedContent(new HashMap<>());
@@ -31,10 +39,14 @@ public class Container extends RTObject implements INamedContent {
     }
 
     public List<RTObject> getContent() {
+        if (lazyContent != null) materialize();
+
         return content;
     }
 
     public HashMap<String, INamedContent> getNamedContent() {
+        if (lazyContent != null) materialize();
+
         return namedContent;
     }
 
@@ -75,6 +87,8 @@ public class Container extends RTObject implements INamedContent {
     }
 
     public boolean getVisitsShouldBeCounted() {
+        if (lazyContent != null) materialize();
+
         return visitsShouldBeCounted;
     }
 
@@ -83,6 +97,8 @@ public class Container extends RTObject implements INamedContent {
     }
 
     public boolean getTurnIndexShouldBeCounted() {
+        if (lazyContent != null) materialize();
+
         return turnIndexShouldBeCounted;
     }
 
@@ -91,6 +107,8 @@ public class Container extends RTObject implements INamedContent {
     }
 
     public boolean getCountingAtStartOnly() {
+        if (lazyContent != null) materialize();
+
         return countingAtStartOnly;
     }
 
@@ -132,6 +150,47 @@ public class Container extends RTObject implements INamedContent {
         if ((value & COUNTFLAGS_COUNTSTARTONLY) > 0) setCountingAtStartOnly(true);
     }
 
+    /**
+     * False for the knots of a story loaded with CompiledStory.Options.lazyKnots
+     * until their content is first used.
+     */
+    public boolean isMaterialized() {
+        return lazyContent == null;
+    }
+
+    void setLazyContent(LazyContent value) {
+        lazyContent = value;
+    }
+
+    LazyContent getLazyContent() {
+        return lazyContent;
+    }
+
+    private void materialize() {
+        LazyContent lazy = lazyContent;
+
+        if (lazy != null) lazy.materialize(this);
+    }
+
+    // Moves the content, named content and count flags of a container built
+    // from the JSON of this one. The fields are used directly, since the
+    // getters would materialize this container again.
+    void takeContentOf(Container built) {
+        for (RTObject c : built.content) {
+            c.setParent(this);
+            content.add(c);
+        }
+
+        for (Entry<String, INamedContent> kvPair : built.namedContent.entrySet()) {
+            ((RTObject) kvPair.getValue()).setParent(this);
+            namedContent.put(kvPair.getKey(), kvPair.getValue());
+        }
+
+        visitsShouldBeCounted = built.visitsShouldBeCounted;
+        turnIndexShouldBeCounted = built.turnIndexShouldBeCounted;
+        countingAtStartOnly = built.countingAtStartOnly;
+    }
+
     @Override
     public boolean hasValidName() {
         return getName() != null && !getName().isEmpty();
@@ -0,0 +1,128 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * List used for the parts of the StoryState that are copied on every state
+ * snapshot (output stream, evaluation stack and choices).
+ *
+ * Copying is O(1): both lists share the same backing array until one of them
+ * is modified, and only then the modified one makes its own copy.
+ */
+class CopyOnWriteList<E> extends AbstractList<E> implements RandomAccess {
+    private ArrayList<E> items;
+
+    // The backing list may be referenced by another CopyOnWriteList
+    private boolean shared;
+
+    CopyOnWriteList() {
+        items = new ArrayList<>();
+    }
+
+    CopyOnWriteList(Collection<? extends E> c) {
+        items = new ArrayList<>(c);
+    }
+
+    private CopyOnWriteList(ArrayList<E> items) {
+        this.items = items;
+        this.shared = true;
+    }
+
+    /**
+     * Returns a copy of the list that shares the content with this one until any
+     * of them is modified.
+     */
+    CopyOnWriteList<E> copy() {
+        shared = true;
+        return new CopyOnWriteList<>(items);
+    }
+
+    /**
+     * Copies any list. CopyOnWriteLists are copied lazily.
+     */
+    static <T> List<T> copyOf(List<T> list) {
+        if (list instanceof CopyOnWriteList) return ((CopyOnWriteList<T>) list).copy();
+
+        return new CopyOnWriteList<>(list);
+    }
+
+    private ArrayList<E> writable() {
+        if (shared) {
+            items = new ArrayList<>(items);
+            shared = false;
+        }
+
+        return items;
+    }
+
+    @Override
+    public E get(int index) {
+        return items.get(index);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public E set(int index, E element) {
+        return writable().set(index, element);
+    }
+
+    @Override
+    public boolean add(E e) {
+        modCount++;
+        return writable().add(e);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        modCount++;
+        writable().add(index, element);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        modCount++;
+        return writable().addAll(c);
+    }
+
+    @Override
+    public E remove(int index) {
+        modCount++;
+        return writable().remove(index);
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        modCount++;
+        writable().subList(fromIndex, toIndex).clear();
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+
+        if (shared) {
+            items = new ArrayList<>();
+            shared = false;
+        } else {
+            items.clear();
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        return items.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        return items.toArray(a);
+    }
+}
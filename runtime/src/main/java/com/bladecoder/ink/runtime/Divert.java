@@ -11,7 +11,9 @@ public class Divert extends RTObject {
 
     private PushPopType stackPushType = PushPopType.Tunnel;
 
-    private final Pointer targetPointer = new Pointer();
+    // The divert can be shared by several stories (see CompiledStory), so the
+    // resolved pointer is published as a whole and never modified.
+    private volatile Pointer targetPointer = Pointer.Null;
 
     private Path targetPath;
 
@@ -58,17 +60,21 @@ public class Divert extends RTObject {
     }
 
     public Pointer getTargetPointer() throws Exception {
-        if (targetPointer.isNull()) {
+        Pointer p = targetPointer;
+
+        if (p.isNull()) {
             RTObject targetObj = resolvePath(targetPath).obj;
 
             if (targetPath.getLastComponent().isIndex()) {
-                targetPointer.container = targetObj.getParent();
-                targetPointer.index = targetPath.getLastComponent().getIndex();
+                p = new Pointer(
+                        targetObj.getParent(), targetPath.getLastComponent().getIndex());
             } else {
-                targetPointer.assign(Pointer.startOf((Container) targetObj));
+                p = Pointer.startOf((Container) targetObj);
             }
+
+            targetPointer = p;
         }
-        return targetPointer;
+        return p;
     }
 
     public Path getTargetPath() throws Exception {
@@ -143,9 +149,20 @@ public class Divert extends RTObject {
         this.stackPushType = stackPushType;
     }
 
+    // Pre-resolves the target pointer when linking the story content. Targets
+    // that can't be found exactly are left to be resolved (and reported) when
+    // the divert is taken.
+    void link() throws Exception {
+        if (targetPath == null || hasVariableTarget() || isExternal() || !targetPointer.isNull()) return;
+
+        SearchResult result = resolvePath(targetPath);
+
+        if (result.obj != null && !result.approximate) getTargetPointer();
+    }
+
     public void setTargetPath(Path value) {
         targetPath = value;
-        targetPointer.assign(Pointer.Null);
+        targetPointer = Pointer.Null;
     }
 
     public void setTargetPathString(String value) {
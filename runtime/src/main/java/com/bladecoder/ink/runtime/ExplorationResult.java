@@ -0,0 +1,200 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * What a StoryExplorer found.
+ */
+public class ExplorationResult {
+
+    /**
+     * A state where the story stops: it has ended, or it has no choices left,
+     * or it has thrown an error.
+     */
+    public static class DeadEnd {
+        private final int[] choices;
+        private final String location;
+        private final String error;
+
+        DeadEnd(int[] choices, String location, String error) {
+            this.choices = choices;
+            this.location = location;
+            this.error = error;
+        }
+
+        /**
+         * The choice indices that lead to this state from the start state.
+         */
+        public int[] getChoices() {
+            return choices.clone();
+        }
+
+        /**
+         * The knot or stitch where the story stopped.
+         */
+        public String getLocation() {
+            return location;
+        }
+
+        /**
+         * The first error thrown by the story, or null.
+         */
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(location).append(" after choices [");
+
+            for (int i = 0; i < choices.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(choices[i]);
+            }
+
+            sb.append(']');
+            if (error != null) sb.append(": ").append(error);
+
+            return sb.toString();
+        }
+    }
+
+    int states;
+    int depth;
+    boolean truncated;
+
+    private int deadEndCount;
+    private final List<DeadEnd> deadEnds = new ArrayList<>();
+
+    private List<String> unreachable;
+    private Map<String, Double> knotCoverage;
+    private long elapsedNanos;
+
+    ExplorationResult() {}
+
+    /**
+     * Number of distinct states found.
+     */
+    public int getStates() {
+        return states;
+    }
+
+    /**
+     * Number of choices from the start state to the deepest state found.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * True if the exploration stopped because of Options.maxStates or
+     * Options.maxDepth. In that case the unreachable containers may actually
+     * be reachable.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int getDeadEndCount() {
+        return deadEndCount;
+    }
+
+    /**
+     * The dead ends found, up to Options.maxDeadEnds.
+     */
+    public List<DeadEnd> getDeadEnds() {
+        return Collections.unmodifiableList(deadEnds);
+    }
+
+    /**
+     * Paths of the counted containers never visited in any explored state.
+     */
+    public List<String> getUnreachableContainers() {
+        return unreachable;
+    }
+
+    /**
+     * For every knot, the fraction of its counted containers (the knot itself,
+     * its stitches, gathers and choices) visited in some explored state.
+     */
+    public Map<String, Double> getKnotCoverage() {
+        return knotCoverage;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(String.format(
+                "%d states, depth %d%s in %.1f ms%n",
+                states, depth, truncated ? " (truncated)" : "", elapsedNanos / 1e6));
+
+        sb.append("Coverage:\n");
+        for (Entry<String, Double> e : knotCoverage.entrySet())
+            sb.append(String.format("  %s: %.1f%%%n", e.getKey(), e.getValue() * 100));
+
+        sb.append("Unreachable:\n");
+        for (String path : unreachable) sb.append("  ").append(path).append('\n');
+
+        sb.append("Dead ends: ").append(deadEndCount).append('\n');
+        for (DeadEnd d : deadEnds) sb.append("  ").append(d).append('\n');
+
+        return sb.toString();
+    }
+
+    synchronized void addDeadEnd(int[] choices, String location, String error, int maxDeadEnds) {
+        deadEndCount++;
+
+        if (deadEnds.size() < maxDeadEnds) deadEnds.add(new DeadEnd(choices, location, error));
+    }
+
+    void finish(CompiledStory compiledStory, BitSet covered, long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+
+        List<String> unreachable = new ArrayList<>();
+        TreeMap<String, int[]> knots = new TreeMap<>();
+
+        int counted = compiledStory.getCountedContainersSize();
+
+        for (int i = 0; i < counted; i++) {
+            Container c = compiledStory.getCountedContainer(i);
+
+            if (!c.getVisitsShouldBeCounted()) continue;
+
+            Path path = c.getPath();
+            String knot = path.getLength() > 0 && !path.getComponent(0).isIndex()
+                    ? path.getComponent(0).getName()
+                    : PlaythroughStats.ROOT;
+
+            int[] visitedAndTotal = knots.get(knot);
+            if (visitedAndTotal == null) {
+                visitedAndTotal = new int[2];
+                knots.put(knot, visitedAndTotal);
+            }
+
+            visitedAndTotal[1]++;
+
+            if (covered.get(i)) visitedAndTotal[0]++;
+            else unreachable.add(path.getLength() > 0 ? path.toString() : PlaythroughStats.ROOT);
+        }
+
+        Collections.sort(unreachable);
+        this.unreachable = Collections.unmodifiableList(unreachable);
+
+        TreeMap<String, Double> coverage = new TreeMap<>();
+        for (Entry<String, int[]> e : knots.entrySet())
+            coverage.put(e.getKey(), (double) e.getValue()[0] / e.getValue()[1]);
+
+        knotCoverage = Collections.unmodifiableMap(coverage);
+    }
+}
@@ -16,11 +16,11 @@ public class FloatValue extends Value<Float> {
         }
 
         if (newType == ValueType.Bool) {
-            return new BoolValue(this.value == 0.0f ? false : true);
+            return BoolValue.valueOf(this.value != 0.0f);
         }
 
         if (newType == ValueType.Int) {
-            return new IntValue(this.getValue().intValue());
+            return IntValue.valueOf(this.getValue().intValue());
         }
 
         if (newType == ValueType.String) {
@@ -1,7 +1,6 @@
 package com.bladecoder.ink.runtime;
 
 import com.bladecoder.ink.runtime.SimpleJson.Writer;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
@@ -14,8 +13,8 @@ public class Flow {
     public Flow(String name, Story story) {
         this.name = name;
         this.callStack = new CallStack(story);
-        this.outputStream = new ArrayList<>();
-        this.currentChoices = new ArrayList<>();
+        this.outputStream = new CopyOnWriteList<>();
+        this.currentChoices = new CopyOnWriteList<>();
     }
 
     @SuppressWarnings("unchecked")
@@ -23,8 +22,10 @@ public class Flow {
         this.name = name;
         this.callStack = new CallStack(story);
         this.callStack.setJsonToken((HashMap<String, Object>) jObject.get("callstack"), story);
-        this.outputStream = Json.jArrayToRuntimeObjList((List<Object>) jObject.get("outputStream"));
-        this.currentChoices = Json.jArrayToRuntimeObjList((List<Object>) jObject.get("currentChoices"));
+        this.outputStream = new CopyOnWriteList<>(
+                Json.<RTObject>jArrayToRuntimeObjList((List<Object>) jObject.get("outputStream")));
+        this.currentChoices = new CopyOnWriteList<>(
+                Json.<Choice>jArrayToRuntimeObjList((List<Object>) jObject.get("currentChoices")));
 
         // choiceThreads is optional
         Object jChoiceThreadsObj = jObject.get("choiceThreads");
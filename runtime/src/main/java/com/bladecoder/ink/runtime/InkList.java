@@ -1,18 +1,26 @@
 package com.bladecoder.ink.runtime;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * The InkList is the underlying type that's used to store an instance of a list
  * in ink. It's not used for the *definition* of the list, but for a list value
  * that's stored in a variable. Somewhat confusingly, it's backed by a C#
  * Dictionary, and has nothing to do with a C# List!
+ *
+ * Besides the map, the list keeps its items as a bitset over the item positions
+ * assigned by the ListDefinitionsOrigin of its origins, so the set operations
+ * used by ink conditionals (?, !?, ^, ==, +, -) are word-wise bit operations
+ * instead of map lookups.
  */
 @SuppressWarnings("serial")
 public class InkList extends HashMap<InkListItem, Integer> {
@@ -27,6 +35,15 @@ public class InkList extends HashMap<InkListItem, Integer> {
     // that is currently empty.
     private List<String> originNames;
 
+    private static final long[] NO_WORDS = new long[0];
+
+    // Items of the list as a bitset. It's built on demand, or directly by the
+    // set operations, and never modified once built, so copies of the list can
+    // share it. Changes through the map methods discard it. Removals through the
+    // keySet()/entrySet() views can't be intercepted, and are detected by the
+    // size instead.
+    private transient ItemBits bits;
+
     /**
      * Create a new empty ink list.
      */
@@ -60,6 +77,8 @@ public class InkList extends HashMap<InkListItem, Integer> {
     public InkList(InkList otherList) {
         super(otherList);
 
+        bits = otherList.bits;
+
         if (otherList.originNames != null) this.originNames = new ArrayList<>(otherList.originNames);
 
         if (otherList.origins != null) {
@@ -128,7 +147,24 @@ public class InkList extends HashMap<InkListItem, Integer> {
      * passed in. Equivalent to calling (list1 + list2) in ink.
      */
     public InkList union(InkList otherList) {
+        ItemBits a = getBits();
+        ItemBits b = otherList.getBits();
+
         InkList union = new InkList(this);
+
+        if (sameOrigin(a, b)) {
+            // Only the items that aren't in this list yet are added
+            if (containsAll(a.words, b.words)) return union;
+
+            for (Map.Entry<InkListItem, Integer> kv : otherList.entrySet()) {
+                if (!a.contains(kv.getKey())) union.put(kv.getKey(), kv.getValue());
+            }
+
+            union.bits = new ItemBits(a.origin, or(a.words, b.words), union.size());
+
+            return union;
+        }
+
         for (InkListItem key : otherList.keySet()) union.put(key, otherList.get(key));
 
         return union;
@@ -142,7 +178,24 @@ public class InkList extends HashMap<InkListItem, Integer> {
      * @param listToRemove List to remove.
      */
     public InkList without(InkList listToRemove) {
+        ItemBits a = getBits();
+        ItemBits b = listToRemove.getBits();
+
         InkList result = new InkList(this);
+
+        // Nothing to remove, the copy keeps the bitset of this list
+        if (sameOrigin(a, b) && !intersects(a.words, b.words)) return result;
+
+        if (sameOrigin(a, b)) {
+            for (InkListItem kv : listToRemove.keySet()) {
+                if (a.contains(kv)) result.remove(kv);
+            }
+
+            result.bits = new ItemBits(a.origin, andNot(a.words, b.words), result.size());
+
+            return result;
+        }
+
         for (InkListItem kv : listToRemove.keySet()) result.remove(kv);
 
         return result;
@@ -154,8 +207,23 @@ public class InkList extends HashMap<InkListItem, Integer> {
      * two other lists. Equivalent to calling (list1 ^ list2) in ink.
      */
     public InkList intersect(InkList otherList) {
+        ItemBits a = getBits();
+        ItemBits b = otherList.getBits();
+
         InkList intersection = new InkList();
 
+        if (sameOrigin(a, b)) {
+            if (!intersects(a.words, b.words)) return intersection;
+
+            for (Map.Entry<InkListItem, Integer> kv : this.entrySet()) {
+                if (b.contains(kv.getKey())) intersection.put(kv.getKey(), kv.getValue());
+            }
+
+            intersection.bits = new ItemBits(a.origin, and(a.words, b.words), intersection.size());
+
+            return intersection;
+        }
+
         for (Map.Entry<InkListItem, Integer> kv : this.entrySet()) {
             if (otherList.containsKey(kv.getKey())) intersection.put(kv.getKey(), kv.getValue());
         }
@@ -167,6 +235,11 @@ public class InkList extends HashMap<InkListItem, Integer> {
      * Fast test for the existence of any intersection between the current list and another
      */
     public boolean hasIntersection(InkList otherList) {
+        ItemBits a = getBits();
+        ItemBits b = otherList.getBits();
+
+        if (sameOrigin(a, b)) return intersects(a.words, b.words);
+
         for (Map.Entry<InkListItem, Integer> kv : this.entrySet()) {
             if (otherList.containsKey(kv.getKey())) return true;
         }
@@ -212,6 +285,11 @@ public class InkList extends HashMap<InkListItem, Integer> {
     public boolean contains(InkList otherList) {
         if (otherList.size() == 0 || this.size() == 0) return false;
 
+        ItemBits a = getBits();
+        ItemBits b = otherList.getBits();
+
+        if (sameOrigin(a, b)) return containsAll(a.words, b.words);
+
         for (Map.Entry<InkListItem, Integer> kv : otherList.entrySet()) {
             if (!this.containsKey(kv.getKey())) return false;
         }
@@ -239,7 +317,7 @@ public class InkList extends HashMap<InkListItem, Integer> {
         if (otherList.size() == 0) return true;
 
         // All greater
-        return getMinItem().getValue() > otherList.getMaxItem().getValue();
+        return minValue() > otherList.maxValue();
     }
 
     /**
@@ -254,8 +332,7 @@ public class InkList extends HashMap<InkListItem, Integer> {
         if (otherList.size() == 0) return true;
 
         // All greater
-        return getMinItem().getValue() >= otherList.getMinItem().getValue()
-                && getMaxItem().getValue() >= otherList.getMaxItem().getValue();
+        return minValue() >= otherList.minValue() && maxValue() >= otherList.maxValue();
     }
 
     /**
@@ -267,7 +344,7 @@ public class InkList extends HashMap<InkListItem, Integer> {
         if (otherList.size() == 0) return false;
         if (size() == 0) return true;
 
-        return getMaxItem().getValue() < otherList.getMinItem().getValue();
+        return maxValue() < otherList.minValue();
     }
 
     /**
@@ -281,8 +358,32 @@ public class InkList extends HashMap<InkListItem, Integer> {
         if (otherList.size() == 0) return false;
         if (size() == 0) return true;
 
-        return getMaxItem().getValue() <= otherList.getMaxItem().getValue()
-                && getMinItem().getValue() <= otherList.getMinItem().getValue();
+        return maxValue() <= otherList.maxValue() && minValue() <= otherList.minValue();
+    }
+
+    // Value of the min/max item, for non empty lists.
+    private int minValue() {
+        ItemBits a = getBits();
+
+        if (a != null) return a.minValue();
+
+        int min = Integer.MAX_VALUE;
+
+        for (Integer v : values()) if (v < min) min = v;
+
+        return min;
+    }
+
+    private int maxValue() {
+        ItemBits a = getBits();
+
+        if (a != null) return a.maxValue();
+
+        int max = Integer.MIN_VALUE;
+
+        for (Integer v : values()) if (v > max) max = v;
+
+        return max;
     }
 
     InkList maxAsList() {
@@ -374,13 +475,15 @@ public class InkList extends HashMap<InkListItem, Integer> {
     public InkList getInverse() {
 
         InkList rawList = new InkList();
+        ItemBits a = getBits();
 
         if (origins != null) {
             for (ListDefinition origin : origins) {
                 for (Map.Entry<InkListItem, Integer> itemAndValue :
                         origin.getItems().entrySet()) {
+                    InkListItem item = itemAndValue.getKey();
 
-                    if (!this.containsKey(itemAndValue.getKey()))
+                    if (a != null ? !a.contains(item) : !this.containsKey(item))
                         rawList.put(itemAndValue.getKey(), itemAndValue.getValue());
                 }
             }
@@ -518,6 +621,11 @@ public class InkList extends HashMap<InkListItem, Integer> {
         if (otherRawList == null) return false;
         if (otherRawList.size() != size()) return false;
 
+        ItemBits a = getBits();
+        ItemBits b = otherRawList.getBits();
+
+        if (sameOrigin(a, b)) return sameWords(a.words, b.words);
+
         for (InkListItem key : keySet()) {
             if (!otherRawList.containsKey(key)) return false;
         }
@@ -538,6 +646,256 @@ public class InkList extends HashMap<InkListItem, Integer> {
         return ownHash;
     }
 
+    // Returns the bitset of the list, or null if the list has no known origin or
+    // any of its items can't be placed, and then the operations fall back to
+    // the map.
+    private ItemBits getBits() {
+        ItemBits b = bits;
+
+        if (b != null && b.size == size()) return b;
+
+        ListDefinitionsOrigin origin = getDefinitionsOrigin();
+
+        if (origin == null) return null;
+
+        long[] words = NO_WORDS;
+
+        for (InkListItem item : keySet()) {
+            int i = origin.indexOf(item);
+
+            if (i < 0) return null;
+
+            int w = i >>> 6;
+
+            if (w >= words.length) words = Arrays.copyOf(words, w + 1);
+
+            words[w] |= 1L << i;
+        }
+
+        b = new ItemBits(origin, words, size());
+        bits = b;
+
+        return b;
+    }
+
+    // The story lists the origin definitions of the list come from, or null if
+    // there are none or they come from different stories.
+    private ListDefinitionsOrigin getDefinitionsOrigin() {
+        if (origins == null) return null;
+
+        ListDefinitionsOrigin origin = null;
+
+        for (ListDefinition def : origins) {
+            if (def == null) continue;
+
+            if (origin == null) origin = def.getOrigin();
+            else if (origin != def.getOrigin()) return null;
+        }
+
+        return origin;
+    }
+
+    // Bitsets can only be combined when their positions were assigned by the
+    // same story lists.
+    private static boolean sameOrigin(ItemBits a, ItemBits b) {
+        return a != null && b != null && a.origin == b.origin;
+    }
+
+    private static long[] or(long[] a, long[] b) {
+        if (a.length < b.length) return or(b, a);
+
+        long[] r = a.clone();
+
+        for (int i = 0; i < b.length; i++) r[i] |= b[i];
+
+        return r;
+    }
+
+    private static long[] and(long[] a, long[] b) {
+        long[] r = new long[Math.min(a.length, b.length)];
+
+        for (int i = 0; i < r.length; i++) r[i] = a[i] & b[i];
+
+        return r;
+    }
+
+    private static long[] andNot(long[] a, long[] b) {
+        long[] r = a.clone();
+
+        for (int i = 0; i < Math.min(a.length, b.length); i++) r[i] &= ~b[i];
+
+        return r;
+    }
+
+    private static boolean intersects(long[] a, long[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            if ((a[i] & b[i]) != 0) return true;
+        }
+
+        return false;
+    }
+
+    // True if every bit of b is in a.
+    private static boolean containsAll(long[] a, long[] b) {
+        for (int i = 0; i < b.length; i++) {
+            if ((b[i] & ~(i < a.length ? a[i] : 0)) != 0) return false;
+        }
+
+        return true;
+    }
+
+    // Arrays can have trailing zero words.
+    private static boolean sameWords(long[] a, long[] b) {
+        for (int i = 0; i < Math.max(a.length, b.length); i++) {
+            if ((i < a.length ? a[i] : 0) != (i < b.length ? b[i] : 0)) return false;
+        }
+
+        return true;
+    }
+
+    // The map methods that can add or remove items discard the bitset.
+
+    @Override
+    public Integer put(InkListItem key, Integer value) {
+        bits = null;
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends InkListItem, ? extends Integer> m) {
+        bits = null;
+        super.putAll(m);
+    }
+
+    @Override
+    public Integer putIfAbsent(InkListItem key, Integer value) {
+        bits = null;
+        return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        bits = null;
+        return super.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        bits = null;
+        return super.remove(key, value);
+    }
+
+    @Override
+    public void clear() {
+        bits = null;
+        super.clear();
+    }
+
+    @Override
+    public Integer computeIfAbsent(InkListItem key, Function<? super InkListItem, ? extends Integer> mappingFunction) {
+        bits = null;
+        return super.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public Integer computeIfPresent(
+            InkListItem key, BiFunction<? super InkListItem, ? super Integer, ? extends Integer> remappingFunction) {
+        bits = null;
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public Integer compute(
+            InkListItem key, BiFunction<? super InkListItem, ? super Integer, ? extends Integer> remappingFunction) {
+        bits = null;
+        return super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public Integer merge(
+            InkListItem key,
+            Integer value,
+            BiFunction<? super Integer, ? super Integer, ? extends Integer> remappingFunction) {
+        bits = null;
+        return super.merge(key, value, remappingFunction);
+    }
+
+    /**
+     * A bitset with the number of items it was built for. The fields are final
+     * so the bitset of a content list, shared between sessions, is safely seen
+     * from any thread.
+     */
+    private static final class ItemBits {
+        final ListDefinitionsOrigin origin;
+        final long[] words;
+        final int size;
+
+        ItemBits(ListDefinitionsOrigin origin, long[] words, int size) {
+            this.origin = origin;
+            this.words = words;
+            this.size = size;
+        }
+
+        boolean contains(int index) {
+            int w = index >>> 6;
+
+            return index >= 0 && w < words.length && (words[w] & (1L << index)) != 0;
+        }
+
+        boolean contains(InkListItem item) {
+            return contains(origin.indexOf(item));
+        }
+
+        int lowestBit() {
+            for (int i = 0; i < words.length; i++) {
+                if (words[i] != 0) return (i << 6) + Long.numberOfTrailingZeros(words[i]);
+            }
+
+            return -1;
+        }
+
+        int highestBit() {
+            for (int i = words.length - 1; i >= 0; i--) {
+                if (words[i] != 0) return (i << 6) + 63 - Long.numberOfLeadingZeros(words[i]);
+            }
+
+            return -1;
+        }
+
+        // The bits of a definition are in value order, so when the lowest and
+        // highest bits are of the same definition they're the min and max
+        // items. Lists mixing definitions check every item.
+        int minValue() {
+            int low = lowestBit();
+            int high = highestBit();
+
+            if (origin.sameDefinition(low, high)) return origin.valueAt(low);
+
+            int min = Integer.MAX_VALUE;
+
+            for (int i = low; i <= high; i++) {
+                if (contains(i)) min = Math.min(min, origin.valueAt(i));
+            }
+
+            return min;
+        }
+
+        int maxValue() {
+            int low = lowestBit();
+            int high = highestBit();
+
+            if (origin.sameDefinition(low, high)) return origin.valueAt(high);
+
+            int max = Integer.MIN_VALUE;
+
+            for (int i = low; i <= high; i++) {
+                if (contains(i)) max = Math.max(max, origin.valueAt(i));
+            }
+
+            return max;
+        }
+    }
+
     List<Entry<InkListItem, Integer>> getOrderedItems() {
         List<Entry<InkListItem, Integer>> ordered = new ArrayList<>(entrySet());
 
@@ -1,6 +1,16 @@
 package com.bladecoder.ink.runtime;
 
 public class IntValue extends Value<Integer> {
+    // Shared instances for the most common values produced during evaluation.
+    // They must never be modified nor added to a container.
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final IntValue[] cache = new IntValue[CACHE_HIGH - CACHE_LOW];
+
+    static {
+        for (int i = 0; i < cache.length; i++) cache[i] = new IntValue(i + CACHE_LOW);
+    }
+
     public IntValue() {
         this(0);
     }
@@ -9,6 +19,16 @@ public class IntValue extends Value<Integer> {
         super(intVal);
     }
 
+    /**
+     * Returns a shared IntValue for small values. Only for values that live in
+     * the evaluation stack, the output stream or variables.
+     */
+    static IntValue valueOf(int intVal) {
+        if (intVal >= CACHE_LOW && intVal < CACHE_HIGH) return cache[intVal - CACHE_LOW];
+
+        return new IntValue(intVal);
+    }
+
     @Override
     public AbstractValue cast(ValueType newType) throws Exception {
         if (newType == getValueType()) {
@@ -16,7 +36,7 @@ public class IntValue extends Value<Integer> {
         }
 
         if (newType == ValueType.Bool) {
-            return new BoolValue(this.value == 0 ? false : true);
+            return BoolValue.valueOf(this.value != 0);
         }
 
         if (newType == ValueType.Float) {
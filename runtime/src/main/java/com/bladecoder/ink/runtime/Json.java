@@ -303,6 +303,9 @@ public class Json {
     // Tag: {"#": "the tag text"}
     @SuppressWarnings("unchecked")
     public static RTObject jTokenToRuntimeObject(Object token) throws Exception {
+        // Already converted by the streaming reader
+        if (token instanceof RTObject) return (RTObject) token;
+
         if (token instanceof Integer || token instanceof Float || token instanceof Boolean) {
             return AbstractValue.create(token);
         }
@@ -575,7 +578,9 @@ public class Json {
                 } else if ("#n".equals(keyVal.getKey())) {
                     container.setName(keyVal.getValue().toString());
                 } else {
-                    RTObject namedContentItem = jTokenToRuntimeObject(keyVal.getValue());
+                    RTObject namedContentItem = keyVal.getValue() instanceof LazyContent
+                            ? ((LazyContent) keyVal.getValue()).createContainer()
+                            : jTokenToRuntimeObject(keyVal.getValue());
                     Container namedSubContainer =
                             namedContentItem instanceof Container ? (Container) namedContentItem : null;
                     if (namedSubContainer != null) namedSubContainer.setName(keyVal.getKey());
@@ -0,0 +1,56 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Thread-safe histogram of durations in power of two buckets: bucket i holds
+// the samples that took less than 2^i nanoseconds. Percentiles are rounded up
+// to a power of two, which is enough to follow tail latencies without keeping
+// every sample.
+class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void add(long nanos) {
+        if (nanos < 0) nanos = 0;
+
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos))
+            ;
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    double getMeanNanos() {
+        long n = count.get();
+        return n > 0 ? (double) totalNanos.get() / n : 0;
+    }
+
+    long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    long getPercentileNanos(double percentile) {
+        long max = maxNanos.get();
+        long target = (long) Math.ceil(count.get() * percentile / 100.0);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+
+            if (seen >= target && seen > 0) return Math.min(i == 63 ? Long.MAX_VALUE : 1L << i, max);
+        }
+
+        return max;
+    }
+}
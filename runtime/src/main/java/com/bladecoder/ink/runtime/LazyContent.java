@@ -0,0 +1,37 @@
+package com.bladecoder.ink.runtime;
+
+/**
+ * The JSON of a top level knot of a story loaded with
+ * CompiledStory.Options.lazyKnots. It's kept as a span of the story text
+ * until the knot is used for the first time.
+ */
+class LazyContent {
+    private final CompiledStory story;
+    private final String text;
+    private final int start;
+    private final int end;
+
+    // Set while the knot is being built, under the lock of the story
+    boolean building;
+
+    LazyContent(CompiledStory story, String text, int start, int end) {
+        this.story = story;
+        this.text = text;
+        this.start = start;
+        this.end = end;
+    }
+
+    Container createContainer() {
+        Container container = new Container();
+        container.setLazyContent(this);
+        return container;
+    }
+
+    String getJson() {
+        return text.substring(start, end);
+    }
+
+    void materialize(Container container) {
+        story.materialize(container, this);
+    }
+}
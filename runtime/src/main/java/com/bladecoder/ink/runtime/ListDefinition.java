@@ -1,11 +1,16 @@
 package com.bladecoder.ink.runtime;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 public class ListDefinition {
     private String name;
-    private HashMap<InkListItem, Integer> items;
+    private final Map<InkListItem, Integer> items;
 
     // The main representation should be simple item names rather than a
     // RawListItem,
@@ -14,23 +19,68 @@ public class ListDefinition {
     // how they'll be most commonly requested from ink.
     private HashMap<String, Integer> itemNameToValues;
 
+    // Bit positions of the items in the InkList bitsets, firstIndex plus the
+    // ordinal of the item in value order, so the lowest and highest bits of a
+    // list of this definition are its min and max items. The offset is
+    // assigned by the ListDefinitionsOrigin the definition belongs to, -1
+    // while it doesn't belong to any.
+    private final HashMap<String, Integer> itemOrdinals;
+    private ListDefinitionsOrigin origin;
+    private int firstIndex = -1;
+
     public ListDefinition(String name, HashMap<String, Integer> items) {
         this.name = name;
         this.itemNameToValues = items;
-    }
 
-    public HashMap<InkListItem, Integer> getItems() {
-        if (items == null) {
-            items = new HashMap<InkListItem, Integer>();
-            for (Entry<String, Integer> itemNameAndValue : itemNameToValues.entrySet()) {
-                InkListItem item = new InkListItem(name, itemNameAndValue.getKey());
-                items.put(item, itemNameAndValue.getValue());
+        // Built up front, so the definition can be shared by the stories of a
+        // CompiledStory without any synchronization.
+        HashMap<InkListItem, Integer> byItem = new HashMap<InkListItem, Integer>();
+        for (Entry<String, Integer> itemNameAndValue : items.entrySet()) {
+            InkListItem item = new InkListItem(name, itemNameAndValue.getKey());
+            byItem.put(item, itemNameAndValue.getValue());
+        }
+
+        List<Entry<String, Integer>> byValue = new ArrayList<Entry<String, Integer>>(items.entrySet());
+        Collections.sort(byValue, new Comparator<Entry<String, Integer>>() {
+            @Override
+            public int compare(Entry<String, Integer> o1, Entry<String, Integer> o2) {
+                int c = Integer.compare(o1.getValue(), o2.getValue());
+
+                return c != 0 ? c : o1.getKey().compareTo(o2.getKey());
             }
+        });
+
+        itemOrdinals = new HashMap<String, Integer>();
+        for (Entry<String, Integer> itemNameAndValue : byValue) {
+            itemOrdinals.put(itemNameAndValue.getKey(), itemOrdinals.size());
         }
 
+        this.items = Collections.unmodifiableMap(byItem);
+    }
+
+    public Map<InkListItem, Integer> getItems() {
         return items;
     }
 
+    void setOrigin(ListDefinitionsOrigin origin, int firstIndex) {
+        this.origin = origin;
+        this.firstIndex = firstIndex;
+    }
+
+    ListDefinitionsOrigin getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Bit position of the item in the InkList bitsets, or -1 if it isn't an item
+     * of this definition.
+     */
+    int indexOf(InkListItem item) {
+        Integer ordinal = itemOrdinals.get(item.getItemName());
+
+        return ordinal != null && firstIndex >= 0 ? firstIndex + ordinal : -1;
+    }
+
     public String getName() {
         return name;
     }
@@ -50,14 +100,10 @@ public class ListDefinition {
     }
 
     public InkListItem getItemWithValue(int val) {
-        InkListItem item = null;
-
-        for (Entry<String, Integer> namedItem : itemNameToValues.entrySet()) {
-            if (namedItem.getValue() == val) {
-                return new InkListItem(name, namedItem.getKey());
-            }
+        for (Entry<InkListItem, Integer> item : getItems().entrySet()) {
+            if (item.getValue() == val) return item.getKey();
         }
 
-        return item;
+        return null;
     }
 }
@@ -9,13 +9,23 @@ public class ListDefinitionsOrigin {
     private HashMap<String, ListDefinition> lists;
     private HashMap<String, ListValue> allUnambiguousListValueCache;
 
+    // Value and definition of the item at every bit position
+    private final int[] indexValues;
+    private final int[] indexDefinitions;
+
     public ListDefinitionsOrigin(List<ListDefinition> lists) {
         this.lists = new HashMap<String, ListDefinition>();
         allUnambiguousListValueCache = new HashMap<String, ListValue>();
 
+        // The items of all the definitions get consecutive bit positions
+        int firstIndex = 0;
+
         for (ListDefinition list : lists) {
             this.lists.put(list.getName(), list);
 
+            list.setOrigin(this, firstIndex);
+            firstIndex += list.getItems().size();
+
             for (Entry<InkListItem, Integer> itemWithValue : list.getItems().entrySet()) {
                 InkListItem item = itemWithValue.getKey();
                 Integer val = itemWithValue.getValue();
@@ -27,6 +37,20 @@ public class ListDefinitionsOrigin {
                 allUnambiguousListValueCache.put(item.getFullName(), listValue);
             }
         }
+
+        indexValues = new int[firstIndex];
+        indexDefinitions = new int[firstIndex];
+
+        for (int d = 0; d < lists.size(); d++) {
+            ListDefinition list = lists.get(d);
+
+            for (Entry<InkListItem, Integer> itemWithValue : list.getItems().entrySet()) {
+                int index = list.indexOf(itemWithValue.getKey());
+
+                indexValues[index] = itemWithValue.getValue();
+                indexDefinitions[index] = d;
+            }
+        }
     }
 
     public ListDefinition getListDefinition(String name) {
@@ -42,6 +66,24 @@ public class ListDefinitionsOrigin {
         return listOfLists;
     }
 
+    /**
+     * Bit position of the item in the bitsets of the InkLists of this origin, or
+     * -1 if the item isn't defined here.
+     */
+    int indexOf(InkListItem item) {
+        ListDefinition def = lists.get(item.getOriginName());
+
+        return def != null ? def.indexOf(item) : -1;
+    }
+
+    int valueAt(int index) {
+        return indexValues[index];
+    }
+
+    boolean sameDefinition(int index1, int index2) {
+        return indexDefinitions[index1] == indexDefinitions[index2];
+    }
+
     ListValue findSingleItemListWithName(String name) {
         ListValue val = null;
 
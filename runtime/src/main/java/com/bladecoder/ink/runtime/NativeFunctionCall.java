@@ -14,6 +14,47 @@ public class NativeFunctionCall extends RTObject {
         Object invoke(Object val);
     }
 
+    // Operations that have a primitive implementation for ints, floats and
+    // bools. See callPrimitive().
+    enum Op {
+        ADD(Add),
+        SUBTRACT(Subtract),
+        MULTIPLY(Multiply),
+        DIVIDE(Divide),
+        MOD(Mod),
+        NEGATE(Negate),
+        EQUAL(Equal),
+        GREATER(Greater),
+        LESS(Less),
+        GREATER_THAN_OR_EQUALS(GreaterThanOrEquals),
+        LESS_THAN_OR_EQUALS(LessThanOrEquals),
+        NOT_EQUALS(NotEquals),
+        NOT(Not),
+        AND(And),
+        OR(Or),
+        MAX(Max),
+        MIN(Min),
+        POW(Pow),
+        FLOOR(Floor),
+        CEILING(Ceiling),
+        INT(Int),
+        FLOAT(Float);
+
+        private final String name;
+
+        Op(String name) {
+            this.name = name;
+        }
+
+        static Op forName(String name) {
+            for (Op op : values()) {
+                if (op.name.equals(name)) return op;
+            }
+
+            return null;
+        }
+    }
+
     public static final String Add = "+";
     public static final String And = "&&";
     public static final String Divide = "/";
@@ -105,7 +146,9 @@ public class NativeFunctionCall extends RTObject {
         return new NativeFunctionCall(functionName);
     }
 
-    static void generateNativeFunctionsIfNecessary() {
+    // Synchronized since stories can be loaded from several threads (see
+    // CompiledStory).
+    static synchronized void generateNativeFunctionsIfNecessary() {
         if (nativeFunctions == null) {
             nativeFunctions = new HashMap<>();
 
@@ -164,7 +207,7 @@ public class NativeFunctionCall extends RTObject {
             addIntBinaryOp(Equal, new BinaryOp() {
                 @Override
                 public Object invoke(Object left, Object right) {
-                    return (Integer) left == (Integer) right;
+                    return ((Integer) left).intValue() == ((Integer) right).intValue();
                 }
             });
 
@@ -196,7 +239,7 @@ public class NativeFunctionCall extends RTObject {
             addIntBinaryOp(NotEquals, new BinaryOp() {
                 @Override
                 public Object invoke(Object left, Object right) {
-                    return (Integer) left != (Integer) right;
+                    return ((Integer) left).intValue() != ((Integer) right).intValue();
                 }
             });
 
@@ -315,7 +358,7 @@ public class NativeFunctionCall extends RTObject {
             addFloatBinaryOp(Equal, new BinaryOp() {
                 @Override
                 public Object invoke(Object left, Object right) {
-                    return (Float) left == (Float) right;
+                    return ((Float) left).floatValue() == ((Float) right).floatValue();
                 }
             });
 
@@ -347,7 +390,7 @@ public class NativeFunctionCall extends RTObject {
             addFloatBinaryOp(NotEquals, new BinaryOp() {
                 @Override
                 public Object invoke(Object left, Object right) {
-                    return (Float) left != (Float) right;
+                    return ((Float) left).floatValue() != ((Float) right).floatValue();
                 }
             });
 
@@ -395,21 +438,21 @@ public class NativeFunctionCall extends RTObject {
 
                 @Override
                 public Object invoke(Object val) {
-                    return (float) Math.floor((double) val);
+                    return (float) Math.floor((Float) val);
                 }
             });
             addFloatUnaryOp(Ceiling, new UnaryOp() {
 
                 @Override
                 public Object invoke(Object val) {
-                    return (float) Math.ceil((double) val);
+                    return (float) Math.ceil((Float) val);
                 }
             });
             addFloatUnaryOp(Int, new UnaryOp() {
 
                 @Override
                 public Object invoke(Object val) {
-                    return (int) val;
+                    return ((Float) val).intValue();
                 }
             });
             addFloatUnaryOp(Float, new UnaryOp() {
@@ -623,6 +666,8 @@ public class NativeFunctionCall extends RTObject {
 
     private String name;
 
+    private Op op;
+
     private int numberOfParameters;
 
     private boolean isPrototype;
@@ -666,6 +711,12 @@ public class NativeFunctionCall extends RTObject {
             throw new Exception("Unexpected number of parameters");
         }
 
+        if (parameters.size() == 2 || parameters.size() == 1) {
+            RTObject result = callPrimitive(parameters.get(0), parameters.size() == 2 ? parameters.get(1) : null);
+
+            if (result != null) return result;
+        }
+
         boolean hasList = false;
 
         for (RTObject p : parameters) {
@@ -715,7 +766,7 @@ public class NativeFunctionCall extends RTObject {
                 && (v1.getValueType() != ValueType.List || v2.getValueType() != ValueType.List)) {
             BinaryOp op = (BinaryOp) operationFuncs.get(ValueType.Int);
             boolean result = (boolean) op.invoke(v1.isTruthy() ? 1 : 0, v2.isTruthy() ? 1 : 0);
-            return new BoolValue(result);
+            return BoolValue.valueOf(result);
         }
 
         // Normal (list • list) operation
@@ -792,13 +843,13 @@ public class NativeFunctionCall extends RTObject {
                 // Return value unknown until it's evaluated
                 Object resultVal = opForType.invoke(val1.getValue(), val2.getValue());
 
-                return AbstractValue.create(resultVal);
+                return createResult(resultVal);
             } else { // Unary
                 UnaryOp opForType = (UnaryOp) opForTypeObj;
 
                 Object resultVal = opForType.invoke(val1.getValue());
 
-                return AbstractValue.create(resultVal);
+                return createResult(resultVal);
             }
         } else {
             throw new Exception(
@@ -806,6 +857,174 @@ public class NativeFunctionCall extends RTObject {
         }
     }
 
+    private static RTObject createResult(Object resultVal) {
+        if (resultVal instanceof Boolean) return BoolValue.valueOf((Boolean) resultVal);
+
+        if (resultVal instanceof Integer) return IntValue.valueOf((Integer) resultVal);
+
+        return AbstractValue.create(resultVal);
+    }
+
+    /**
+     * Fast path for operations on ints, floats and bools. The operation is
+     * computed over primitives, without the coercion list and the boxing of the
+     * generic path, and common results are shared instances.
+     *
+     * The coercion rules are the same as in coerceValuesToSingleType(): bools
+     * are treated as ints and any float turns the operation into a float one.
+     *
+     * @param right
+     *            null for unary operations.
+     * @return null when the operation or the values are not supported here, so
+     *         the generic path must be used.
+     */
+    RTObject callPrimitive(RTObject left, RTObject right) {
+        if (op == null || !isNumber(left) || (right != null && !isNumber(right))) return null;
+
+        if (left instanceof FloatValue || right instanceof FloatValue) {
+            float l = floatOf(left);
+
+            if (right == null) return callFloatUnary(l);
+
+            return callFloatBinary(l, floatOf(right));
+        }
+
+        int l = intOf(left);
+
+        if (right == null) return callIntUnary(l);
+
+        return callIntBinary(l, intOf(right));
+    }
+
+    private static boolean isNumber(RTObject obj) {
+        return obj instanceof IntValue || obj instanceof FloatValue || obj instanceof BoolValue;
+    }
+
+    private static int intOf(RTObject obj) {
+        if (obj instanceof IntValue) return ((IntValue) obj).value;
+
+        return ((BoolValue) obj).value ? 1 : 0;
+    }
+
+    private static float floatOf(RTObject obj) {
+        if (obj instanceof FloatValue) return ((FloatValue) obj).value;
+
+        return intOf(obj);
+    }
+
+    private RTObject callIntBinary(int l, int r) {
+        switch (op) {
+            case ADD:
+                return IntValue.valueOf(l + r);
+            case SUBTRACT:
+                return IntValue.valueOf(l - r);
+            case MULTIPLY:
+                return IntValue.valueOf(l * r);
+            case DIVIDE:
+                return IntValue.valueOf(l / r);
+            case MOD:
+                return IntValue.valueOf(l % r);
+            case EQUAL:
+                return BoolValue.valueOf(l == r);
+            case GREATER:
+                return BoolValue.valueOf(l > r);
+            case LESS:
+                return BoolValue.valueOf(l < r);
+            case GREATER_THAN_OR_EQUALS:
+                return BoolValue.valueOf(l >= r);
+            case LESS_THAN_OR_EQUALS:
+                return BoolValue.valueOf(l <= r);
+            case NOT_EQUALS:
+                return BoolValue.valueOf(l != r);
+            case AND:
+                return BoolValue.valueOf(l != 0 && r != 0);
+            case OR:
+                return BoolValue.valueOf(l != 0 || r != 0);
+            case MAX:
+                return IntValue.valueOf(Math.max(l, r));
+            case MIN:
+                return IntValue.valueOf(Math.min(l, r));
+            case POW:
+                return new FloatValue((float) Math.pow(l, r));
+            default:
+                return null;
+        }
+    }
+
+    private RTObject callIntUnary(int v) {
+        switch (op) {
+            case NEGATE:
+                return IntValue.valueOf(-v);
+            case NOT:
+                return BoolValue.valueOf(v == 0);
+            case FLOOR:
+            case CEILING:
+            case INT:
+            case FLOAT:
+                return IntValue.valueOf(v);
+            default:
+                return null;
+        }
+    }
+
+    private RTObject callFloatBinary(float l, float r) {
+        switch (op) {
+            case ADD:
+                return new FloatValue(l + r);
+            case SUBTRACT:
+                return new FloatValue(l - r);
+            case MULTIPLY:
+                return new FloatValue(l * r);
+            case DIVIDE:
+                return new FloatValue(l / r);
+            case MOD:
+                return new FloatValue(l % r);
+            case EQUAL:
+                return BoolValue.valueOf(l == r);
+            case GREATER:
+                return BoolValue.valueOf(l > r);
+            case LESS:
+                return BoolValue.valueOf(l < r);
+            case GREATER_THAN_OR_EQUALS:
+                return BoolValue.valueOf(l >= r);
+            case LESS_THAN_OR_EQUALS:
+                return BoolValue.valueOf(l <= r);
+            case NOT_EQUALS:
+                return BoolValue.valueOf(l != r);
+            case AND:
+                return BoolValue.valueOf(l != 0 && r != 0);
+            case OR:
+                return BoolValue.valueOf(l != 0 || r != 0);
+            case MAX:
+                return new FloatValue(Math.max(l, r));
+            case MIN:
+                return new FloatValue(Math.min(l, r));
+            case POW:
+                return new FloatValue((float) Math.pow(l, r));
+            default:
+                return null;
+        }
+    }
+
+    private RTObject callFloatUnary(float v) {
+        switch (op) {
+            case NEGATE:
+                return new FloatValue(-v);
+            case NOT:
+                return BoolValue.valueOf(v == 0);
+            case FLOOR:
+                return new FloatValue((float) Math.floor(v));
+            case CEILING:
+                return new FloatValue((float) Math.ceil(v));
+            case INT:
+                return IntValue.valueOf((int) v);
+            case FLOAT:
+                return new FloatValue(v);
+            default:
+                return null;
+        }
+    }
+
     List<Value<?>> coerceValuesToSingleType(List<RTObject> parametersIn) throws Exception {
         ValueType valType = ValueType.Int;
 
@@ -882,6 +1101,7 @@ public class NativeFunctionCall extends RTObject {
 
     public void setName(String value) {
         name = value;
+        op = Op.forName(name);
         if (!isPrototype) prototype = nativeFunctions.get(name);
     }
 
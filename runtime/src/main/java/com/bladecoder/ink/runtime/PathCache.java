@@ -0,0 +1,23 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of values resolved from paths that are only known at
+ * runtime (divert target variables, choice targets...).
+ */
+@SuppressWarnings("serial")
+class PathCache<V> extends LinkedHashMap<Path, V> {
+    private final int maxSize;
+
+    PathCache(int maxSize) {
+        super(16, 0.75f, true);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, V> eldest) {
+        return size() > maxSize;
+    }
+}
@@ -0,0 +1,193 @@
+package com.bladecoder.ink.runtime;
+
+import com.bladecoder.ink.runtime.Error.ErrorType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays a compiled story many times, in parallel, choosing at random or with a
+ * custom policy, and aggregates what happened in a PlaythroughStats: visit
+ * counts, endings, final values of the global variables and turn latency.
+ *
+ * Useful to find unbalanced branches or endings that are (almost) never
+ * reached, and as a throughput benchmark. To use:
+ *
+ * PlaythroughRunner.Options options = new PlaythroughRunner.Options();
+ * options.playthroughs = 10000;
+ *
+ * PlaythroughStats stats = new PlaythroughRunner(compiledStory, options).run();
+ *
+ * Every worker thread runs its own Story session over the shared CompiledStory.
+ * Playthrough i is always seeded the same way, so for a given seed the results
+ * (but the timings) don't depend on the number of threads.
+ */
+public class PlaythroughRunner {
+
+    /**
+     * Picks the choice to take at the end of a turn.
+     */
+    public interface ChoicePolicy {
+        /**
+         * Returns the index of one of story.getCurrentChoices(). The random is
+         * seeded for the current playthrough.
+         */
+        int choose(Story story, Random random) throws Exception;
+    }
+
+    public static final ChoicePolicy RANDOM_POLICY = new ChoicePolicy() {
+        @Override
+        public int choose(Story story, Random random) {
+            return random.nextInt(story.getCurrentChoices().size());
+        }
+    };
+
+    public static class Options {
+        public int playthroughs = 1000;
+        /**
+         * Worker threads. Defaults to the available processors.
+         */
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        public long seed;
+        /**
+         * Playthroughs still running after this many turns are stopped and
+         * counted as a PlaythroughStats.TURN_LIMIT ending.
+         */
+        public int maxTurns = 1000;
+
+        public ChoicePolicy policy = RANDOM_POLICY;
+        public boolean allowExternalFunctionFallbacks = true;
+    }
+
+    private final CompiledStory compiledStory;
+    private final Options options;
+
+    public PlaythroughRunner(CompiledStory compiledStory, Options options) {
+        this.compiledStory = compiledStory;
+        this.options = options != null ? options : new Options();
+    }
+
+    public PlaythroughStats run() throws Exception {
+        final AtomicInteger next = new AtomicInteger();
+        int threads = Math.max(1, Math.min(options.threads, options.playthroughs));
+
+        long startTime = System.nanoTime();
+        PlaythroughStats stats = new PlaythroughStats();
+
+        if (threads == 1) {
+            runWorker(next, stats);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+            try {
+                List<Future<PlaythroughStats>> futures = new ArrayList<>();
+
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executor.submit(new Callable<PlaythroughStats>() {
+                        @Override
+                        public PlaythroughStats call() throws Exception {
+                            PlaythroughStats workerStats = new PlaythroughStats();
+                            runWorker(next, workerStats);
+                            return workerStats;
+                        }
+                    }));
+                }
+
+                for (Future<PlaythroughStats> f : futures) {
+                    try {
+                        stats.merge(f.get());
+                    } catch (ExecutionException e) {
+                        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        stats.finish(compiledStory, System.nanoTime() - startTime);
+
+        return stats;
+    }
+
+    // Workers take playthroughs from a shared counter, so a slow playthrough
+    // doesn't leave the other threads idle.
+    private void runWorker(AtomicInteger next, PlaythroughStats stats) throws Exception {
+        final Story story = compiledStory.createStory();
+        story.setAllowExternalFunctionFallbacks(options.allowExternalFunctionFallbacks);
+
+        final boolean[] failed = new boolean[1];
+        story.onError = new Error.ErrorHandler() {
+            @Override
+            public void error(String message, ErrorType type) {
+                if (type == ErrorType.Error) failed[0] = true;
+            }
+        };
+
+        int i;
+        while ((i = next.getAndIncrement()) < options.playthroughs) {
+            Random random = new Random(options.seed + i * 0x9E3779B97F4A7C15L);
+
+            story.resetState();
+            story.getState().setStorySeed(random.nextInt());
+            failed[0] = false;
+
+            String ending = play(story, random, stats, failed);
+
+            stats.addPlaythrough(story, ending);
+        }
+    }
+
+    private String play(Story story, Random random, PlaythroughStats stats, boolean[] failed) throws Exception {
+        for (int turn = 0; turn < options.maxTurns; turn++) {
+            long turnStart = System.nanoTime();
+
+            try {
+                while (story.canContinue()) {
+                    story.Continue();
+                    if (failed[0]) return PlaythroughStats.ERROR;
+                }
+
+                List<Choice> choices = story.getCurrentChoices();
+
+                if (choices.isEmpty()) {
+                    stats.addTurn(System.nanoTime() - turnStart);
+                    return endingName(story.getState());
+                }
+
+                story.chooseChoiceIndex(options.policy.choose(story, random));
+            } catch (StoryException e) {
+                return PlaythroughStats.ERROR;
+            }
+
+            stats.addTurn(System.nanoTime() - turnStart);
+        }
+
+        return PlaythroughStats.TURN_LIMIT;
+    }
+
+    // The knot or stitch where the story ended: the named part of the path, up
+    // to the first weave index.
+    static String endingName(StoryState state) {
+        Pointer pointer = state.getPreviousPointer();
+        if (pointer.isNull()) pointer = state.getEndPointer();
+        if (pointer.isNull()) return PlaythroughStats.ROOT;
+
+        Path path = pointer.container.getPath();
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < path.getLength() && !path.getComponent(i).isIndex(); i++) {
+            if (sb.length() > 0) sb.append('.');
+            sb.append(path.getComponent(i).getName());
+        }
+
+        return sb.length() > 0 ? sb.toString() : PlaythroughStats.ROOT;
+    }
+}
@@ -0,0 +1,290 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * What happened in the playthroughs of a PlaythroughRunner.
+ */
+public class PlaythroughStats {
+    /**
+     * Ending of the playthroughs stopped by an ink error.
+     */
+    public static final String ERROR = "(error)";
+    /**
+     * Ending of the playthroughs still running after Options.maxTurns.
+     */
+    public static final String TURN_LIMIT = "(turn limit)";
+    /**
+     * Ending of the playthroughs that ended outside of any knot.
+     */
+    public static final String ROOT = "(root)";
+
+    // Turn latencies are kept in power of two buckets: bucket i holds the
+    // turns that took less than 2^i nanoseconds.
+    private static final int LATENCY_BUCKETS = 64;
+
+    private int playthroughs;
+    private long turns;
+    private long turnNanos;
+    private long maxTurnNanos;
+    private final long[] latencyBuckets = new long[LATENCY_BUCKETS];
+
+    private long[] visitCounts = new long[0];
+    private final HashMap<String, Long> endings = new HashMap<>();
+    private final HashMap<String, HashMap<String, Long>> variables = new HashMap<>();
+
+    private Map<String, Long> visitCountsByPath;
+    private long elapsedNanos;
+
+    PlaythroughStats() {}
+
+    public int getPlaythroughs() {
+        return playthroughs;
+    }
+
+    public long getTurns() {
+        return turns;
+    }
+
+    /**
+     * How many playthroughs ended in every knot or stitch, plus the ERROR,
+     * TURN_LIMIT and ROOT pseudo endings.
+     */
+    public Map<String, Long> getEndings() {
+        return Collections.unmodifiableMap(new TreeMap<>(endings));
+    }
+
+    /**
+     * Visits to every counted container, summed over all the playthroughs.
+     */
+    public Map<String, Long> getVisitCounts() {
+        return visitCountsByPath;
+    }
+
+    /**
+     * For every global variable, how many playthroughs ended with each value.
+     */
+    public Map<String, Map<String, Long>> getVariableHistograms() {
+        TreeMap<String, Map<String, Long>> result = new TreeMap<>();
+
+        for (Entry<String, HashMap<String, Long>> e : variables.entrySet())
+            result.put(e.getKey(), Collections.unmodifiableMap(new TreeMap<>(e.getValue())));
+
+        return Collections.unmodifiableMap(result);
+    }
+
+    public double getMeanTurnNanos() {
+        return turns > 0 ? (double) turnNanos / turns : 0;
+    }
+
+    public long getMaxTurnNanos() {
+        return maxTurnNanos;
+    }
+
+    /**
+     * Upper bound of the given percentile (0-100) of the turn latency. It is
+     * rounded up to a power of two, which is accurate enough to spot slow
+     * turns without keeping every sample.
+     */
+    public long getTurnNanosPercentile(double percentile) {
+        long target = (long) Math.ceil(turns * percentile / 100.0);
+        long seen = 0;
+
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += latencyBuckets[i];
+
+            if (seen >= target && seen > 0) return Math.min(i == 63 ? Long.MAX_VALUE : 1L << i, maxTurnNanos);
+        }
+
+        return maxTurnNanos;
+    }
+
+    /**
+     * Wall time of the whole run.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getPlaythroughsPerSecond() {
+        return elapsedNanos > 0 ? playthroughs * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(String.format(
+                "%d playthroughs in %.1f ms (%.1f playthroughs/s)%n",
+                playthroughs, elapsedNanos / 1e6, getPlaythroughsPerSecond()));
+        sb.append(String.format(
+                "%d turns, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                turns,
+                getMeanTurnNanos() / 1e3,
+                getTurnNanosPercentile(50) / 1e3,
+                getTurnNanosPercentile(99) / 1e3,
+                maxTurnNanos / 1e3));
+
+        sb.append("Endings:\n");
+        for (Entry<String, Long> e : getEndings().entrySet())
+            sb.append(String.format("  %s: %d (%.1f%%)%n", e.getKey(), e.getValue(), percent(e.getValue())));
+
+        sb.append("Visits:\n");
+        for (Entry<String, Long> e : visitCountsByPath.entrySet())
+            sb.append("  ").append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+
+        sb.append("Variables:\n");
+        for (Entry<String, Map<String, Long>> v : getVariableHistograms().entrySet()) {
+            sb.append("  ").append(v.getKey()).append(":");
+
+            for (Entry<String, Long> e : v.getValue().entrySet())
+                sb.append(' ').append(e.getKey()).append('=').append(e.getValue());
+
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    public String toJson() throws Exception {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+
+        writer.writeObjectStart();
+        writer.writeProperty("playthroughs", playthroughs);
+        writeFloatProperty(writer, "elapsedMs", elapsedNanos / 1e6);
+        writeFloatProperty(writer, "playthroughsPerSecond", getPlaythroughsPerSecond());
+
+        writer.writePropertyStart("turns");
+        writer.writeObjectStart();
+        writer.writeProperty("count", turns);
+        writeFloatProperty(writer, "meanUs", getMeanTurnNanos() / 1e3);
+        writeFloatProperty(writer, "p50Us", getTurnNanosPercentile(50) / 1e3);
+        writeFloatProperty(writer, "p99Us", getTurnNanosPercentile(99) / 1e3);
+        writeFloatProperty(writer, "maxUs", maxTurnNanos / 1e3);
+        writer.writeObjectEnd();
+        writer.writePropertyEnd();
+
+        writeCounts(writer, "endings", getEndings());
+        writeCounts(writer, "visits", visitCountsByPath);
+
+        writer.writePropertyStart("variables");
+        writer.writeObjectStart();
+        for (Entry<String, Map<String, Long>> v : getVariableHistograms().entrySet())
+            writeCounts(writer, v.getKey(), v.getValue());
+        writer.writeObjectEnd();
+        writer.writePropertyEnd();
+
+        writer.writeObjectEnd();
+
+        return writer.toString();
+    }
+
+    private static void writeCounts(SimpleJson.Writer writer, String name, Map<String, Long> counts) throws Exception {
+        writer.writePropertyStart(name);
+        writer.writeObjectStart();
+        for (Entry<String, Long> e : counts.entrySet())
+            writer.writeProperty(e.getKey(), e.getValue().longValue());
+        writer.writeObjectEnd();
+        writer.writePropertyEnd();
+    }
+
+    private static void writeFloatProperty(SimpleJson.Writer writer, String name, double value) throws Exception {
+        writer.writePropertyStart(name);
+        writer.write((float) value);
+        writer.writePropertyEnd();
+    }
+
+    private double percent(long count) {
+        return playthroughs > 0 ? count * 100.0 / playthroughs : 0;
+    }
+
+    void addTurn(long nanos) {
+        turns++;
+        turnNanos += nanos;
+        if (nanos > maxTurnNanos) maxTurnNanos = nanos;
+
+        latencyBuckets[64 - Long.numberOfLeadingZeros(nanos)]++;
+    }
+
+    void addPlaythrough(Story story, String ending) throws Exception {
+        playthroughs++;
+        increment(endings, ending, 1);
+
+        StoryState state = story.getState();
+        int counted = story.getCompiledStory().getCountedContainersSize();
+        if (visitCounts.length < counted) visitCounts = Arrays.copyOf(visitCounts, counted);
+
+        for (int i = 0; i < counted; i++) visitCounts[i] += state.visitCountAtIndex(i);
+
+        VariablesState vars = state.getVariablesState();
+        for (String name : vars) {
+            HashMap<String, Long> histogram = variables.get(name);
+
+            if (histogram == null) {
+                histogram = new HashMap<>();
+                variables.put(name, histogram);
+            }
+
+            increment(histogram, valueString(vars.getVariableWithName(name)), 1);
+        }
+    }
+
+    void merge(PlaythroughStats other) {
+        playthroughs += other.playthroughs;
+        turns += other.turns;
+        turnNanos += other.turnNanos;
+        maxTurnNanos = Math.max(maxTurnNanos, other.maxTurnNanos);
+
+        for (int i = 0; i < LATENCY_BUCKETS; i++) latencyBuckets[i] += other.latencyBuckets[i];
+
+        if (visitCounts.length < other.visitCounts.length)
+            visitCounts = Arrays.copyOf(visitCounts, other.visitCounts.length);
+
+        for (int i = 0; i < other.visitCounts.length; i++) visitCounts[i] += other.visitCounts[i];
+
+        for (Entry<String, Long> e : other.endings.entrySet()) increment(endings, e.getKey(), e.getValue());
+
+        for (Entry<String, HashMap<String, Long>> v : other.variables.entrySet()) {
+            HashMap<String, Long> histogram = variables.get(v.getKey());
+
+            if (histogram == null) {
+                variables.put(v.getKey(), new HashMap<>(v.getValue()));
+            } else {
+                for (Entry<String, Long> e : v.getValue().entrySet()) increment(histogram, e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    void finish(CompiledStory compiledStory, long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+
+        TreeMap<String, Long> byPath = new TreeMap<>();
+
+        for (int i = 0; i < visitCounts.length; i++) {
+            Container c = compiledStory.getCountedContainer(i);
+
+            if (c.getVisitsShouldBeCounted()) {
+                String path = c.getPath().toString();
+                byPath.put(path.isEmpty() ? ROOT : path, visitCounts[i]);
+            }
+        }
+
+        visitCountsByPath = Collections.unmodifiableMap(byPath);
+    }
+
+    private static void increment(HashMap<String, Long> counts, String key, long n) {
+        Long count = counts.get(key);
+        counts.put(key, count == null ? n : count + n);
+    }
+
+    private static String valueString(RTObject obj) {
+        if (obj instanceof Value) return String.valueOf(((Value<?>) obj).getValueObject());
+
+        return String.valueOf(obj);
+    }
+}
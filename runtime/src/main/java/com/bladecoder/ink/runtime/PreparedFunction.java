@@ -0,0 +1,69 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.ArrayList;
+
+/**
+ * An ink function of a Story looked up once, to call it many times from game
+ * code. To use:
+ *
+ * PreparedFunction add = story.prepareFunction("add");
+ *
+ * Object result = add.call(new Object[] {3, 4});
+ *
+ * It works like Story.evaluateFunction(), without looking up the function by
+ * name nor allocating the buffer that keeps the output of the story on every
+ * call. It belongs to the Story that prepared it, and has the same threading
+ * rules.
+ */
+public class PreparedFunction {
+    private final Story story;
+    private final Container container;
+    private final String name;
+
+    // Output of the story while the function runs, reused between calls
+    private final ArrayList<RTObject> outputStreamBefore = new ArrayList<>();
+    private boolean running;
+
+    PreparedFunction(Story story, Container container, String name) {
+        this.story = story;
+        this.container = container;
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Object call() throws Exception {
+        return call(null, null);
+    }
+
+    /**
+     * @param arguments The arguments that the ink function takes, if any.
+     * @return The value returned by the ink function, or null if nothing is
+     *         returned.
+     */
+    public Object call(Object[] arguments) throws Exception {
+        return call(null, arguments);
+    }
+
+    /**
+     * Calls the function, appending the text it writes as normal content to
+     * the given output.
+     */
+    public Object call(Appendable textOutput, Object[] arguments) throws Exception {
+        // The function can call itself through an external function
+        ArrayList<RTObject> before = running ? new ArrayList<RTObject>() : outputStreamBefore;
+
+        if (before != outputStreamBefore) return story.evaluateFunction(container, textOutput, arguments, before);
+
+        running = true;
+
+        try {
+            return story.evaluateFunction(container, textOutput, arguments, before);
+        } finally {
+            before.clear();
+            running = false;
+        }
+    }
+}
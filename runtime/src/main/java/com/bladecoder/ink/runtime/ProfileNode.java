@@ -1,5 +1,6 @@
 package com.bladecoder.ink.runtime;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -15,6 +16,13 @@ import java.util.Map.Entry;
  */
 public class ProfileNode {
     private HashMap<String, ProfileNode> nodes;
+
+    // The same children, found by key id while recording.
+    private ProfileNode[] children;
+    private int childCount;
+
+    private final int keyId;
+
     private double selfMillisecs;
     private double totalMillisecs;
     private int selfSampleCount;
@@ -47,41 +55,90 @@ public class ProfileNode {
         return key;
     }
 
-    ProfileNode() {}
+    ProfileNode() {
+        this(-1, null);
+    }
 
-    ProfileNode(String key) {
+    ProfileNode(int keyId, String key) {
+        this.keyId = keyId;
         this.key = key;
     }
 
-    void addSample(String[] stack, double duration) {
-        addSample(stack, -1, duration);
+    /**
+     * Returns the child for the given key, creating it the first time. Keys are
+     * identified by their id, given by the Profiler.
+     */
+    ProfileNode getChild(int childKeyId, String childKey) {
+        for (int i = 0; i < childCount; i++) {
+            if (children[i].keyId == childKeyId) return children[i];
+        }
+
+        ProfileNode node = new ProfileNode(childKeyId, childKey);
+
+        if (children == null) children = new ProfileNode[4];
+        else if (childCount == children.length) children = Arrays.copyOf(children, childCount * 2);
+
+        children[childCount++] = node;
+
+        if (nodes == null) nodes = new HashMap<>();
+        nodes.put(childKey, node);
+
+        return node;
+    }
+
+    int getKeyId() {
+        return keyId;
     }
 
-    void addSample(String[] stack, int stackIdx, double duration) {
+    /**
+     * Adds a sample of the time spent in this node itself. The totals of the
+     * ancestors are only updated by updateTotals(), so recording doesn't depend
+     * on the depth of the call stack.
+     */
+    void addSample(double duration) {
+        selfSampleCount++;
+        selfMillisecs += duration;
+    }
 
-        totalSampleCount++;
-        totalMillisecs += duration;
+    void updateTotals() {
+        totalSampleCount = selfSampleCount;
+        totalMillisecs = selfMillisecs;
 
-        if (stackIdx == stack.length - 1) {
-            selfSampleCount++;
-            selfMillisecs += duration;
+        for (int i = 0; i < childCount; i++) {
+            children[i].updateTotals();
+
+            totalSampleCount += children[i].totalSampleCount;
+            totalMillisecs += children[i].totalMillisecs;
         }
+    }
 
-        if (stackIdx + 1 < stack.length) addSampleToNode(stack, stackIdx + 1, duration);
+    int getChildCount() {
+        return childCount;
     }
 
-    void addSampleToNode(String[] stack, int stackIdx, double duration) {
-        String nodeKey = stack[stackIdx];
-        if (nodes == null) nodes = new HashMap<>();
+    ProfileNode getChild(int i) {
+        return children[i];
+    }
+
+    double getTotalMillisecsExact() {
+        return totalMillisecs;
+    }
+
+    /**
+     * Writes a line per call stack with its self time in microseconds, in the
+     * collapsed stack format read by flame graph tools: "knot;function 1234".
+     */
+    void writeCollapsedStacks(StringBuilder sb, String stack) {
+        if (key != null) {
+            String name = key.isEmpty() ? "?" : key;
+            stack = stack == null ? name : stack + ";" + name;
 
-        ProfileNode node = nodes.get(nodeKey);
+            long micros = Math.round(selfMillisecs * 1000.0);
 
-        if (node == null) {
-            node = new ProfileNode(nodeKey);
-            nodes.put(nodeKey, node);
+            if (micros > 0) sb.append(stack).append(' ').append(micros).append('\n');
         }
 
-        node.addSample(stack, stackIdx, duration);
+        for (int i = 0; i < childCount; i++) children[i].writeCollapsedStacks(sb, stack);
     }
 
     /**
@@ -96,7 +153,7 @@ public class ProfileNode {
         Collections.sort(averageStepTimes, new Comparator<Entry<String, ProfileNode>>() {
             @Override
             public int compare(Entry<String, ProfileNode> o1, Entry<String, ProfileNode> o2) {
-                return (int) (o1.getValue().totalMillisecs - o2.getValue().totalMillisecs);
+                return Double.compare(o2.getValue().totalMillisecs, o1.getValue().totalMillisecs);
             }
         });
 
@@ -145,6 +202,20 @@ public class ProfileNode {
         for (int i = 0; i < spaces; i++) sb.append("   ");
     }
 
+    /**
+     * Number of steps recorded in this node or in its children.
+     */
+    public int getTotalSampleCount() {
+        return totalSampleCount;
+    }
+
+    /**
+     * Number of steps recorded in this node itself.
+     */
+    public int getSelfSampleCount() {
+        return selfSampleCount;
+    }
+
     /**
      * Total number of milliseconds this node has been active for.
      */
@@ -2,12 +2,12 @@ package com.bladecoder.ink.runtime;
 
 import com.bladecoder.ink.runtime.Path.Component;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map.Entry;
 
 /**
  * Simple ink profiler that logs every instruction in the story and counts
@@ -21,21 +21,82 @@ import java.util.Map.Entry;
  *
  * story.EndProfiling();
  *
+ * The call tree is indexed by container, not by path strings, so it doesn't
+ * allocate once it has seen a call stack. A full profile still keeps a log
+ * entry of every step for megalog(), which allocates, unless
+ * setLogSteps(false) is called. To profile live sessions with less overhead,
+ * only every Nth step can be sampled with story.startProfiling(N), which
+ * doesn't keep the log by default.
  */
 public class Profiler {
-    private Stopwatch continueWatch = new Stopwatch();
-    private Stopwatch stepWatch = new Stopwatch();
-    private Stopwatch snapWatch = new Stopwatch();
+    private long continueStartTime;
+    private long stepStartTime;
+    private long snapStartTime;
+
+    // Time of the current step before the profiler recorded its call stack
+    private long stepNanosBeforeRecord;
 
     private double continueTotal;
     private double snapTotal;
     private double stepTotal;
 
-    private String[] currStepStack;
-    private StepDetails currStepDetails;
-    private ProfileNode rootNode;
+    private final ProfileNode rootNode;
     private int numContinues;
 
+    private final int sampleInterval;
+    private int stepsToNextSample;
+    private boolean sampling;
+
+    private ProfileNode currStepNode;
+    private StepType currStepType;
+    private RTObject currStepObj;
+
+    // Call stack keys (knot names) and the containers that belong to them.
+    private final IdentityHashMap<Container, Key> containerKeys = new IdentityHashMap<>();
+    private final HashMap<String, Key> keys = new HashMap<>();
+    private final List<Key> keyList = new ArrayList<>();
+    private final Key nullKey;
+
+    // Call stack of the last recorded step and its nodes, since consecutive
+    // steps usually share most of the stack.
+    private Container[] lastStack = new Container[16];
+    private ProfileNode[] lastStackNodes = new ProfileNode[16];
+    private int lastStackSize;
+
+    private final IdentityHashMap<Class<?>, StepType> stepTypes = new IdentityHashMap<>();
+    private final StepType[] commandStepTypes = new StepType[ControlCommand.CommandType.values().length];
+    private final List<StepType> stepTypeList = new ArrayList<>();
+
+    private boolean logSteps;
+
+    private static class Key {
+        final int id;
+        final String name;
+
+        double selfMillisecs;
+        double totalMillisecs;
+        int selfSampleCount;
+        int totalSampleCount;
+
+        // Times the key is in the stack while computing the totals
+        int activeDepth;
+
+        Key(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static class StepType {
+        final String name;
+        int count;
+        double millisecs;
+
+        StepType(String name) {
+            this.name = name;
+        }
+    }
+
     private class StepDetails {
         public String type;
         public RTObject obj;
@@ -54,11 +115,40 @@ public class Profiler {
      * The root node in the hierarchical tree of recorded ink timings.
      */
     public ProfileNode getRootNode() {
+        updateTotals();
         return rootNode;
     }
 
     Profiler() {
+        this(1);
+    }
+
+    /**
+     * @param sampleInterval Only one of every sampleInterval steps is recorded.
+     */
+    Profiler(int sampleInterval) {
+        if (sampleInterval < 1) throw new IllegalArgumentException("The sample interval must be at least 1");
+
+        this.sampleInterval = sampleInterval;
+        stepsToNextSample = sampleInterval;
+
+        // As before, a full profile keeps the step log. Sampled profiles are
+        // meant for live sessions, so they don't unless asked to.
+        logSteps = sampleInterval == 1;
         rootNode = new ProfileNode();
+        nullKey = getKey("");
+    }
+
+    /**
+     * Keep every recorded step for megalog(). It's on by default for full
+     * profiles and off for sampled ones, since it allocates for every step.
+     */
+    public void setLogSteps(boolean logSteps) {
+        this.logSteps = logSteps;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
     }
 
     /**
@@ -71,172 +161,293 @@ public class Profiler {
         sb.append(String.format("TOTAL TIME: %s\n", formatMillisecs(continueTotal)));
         sb.append(String.format("SNAPSHOTTING: %s\n", formatMillisecs(snapTotal)));
         sb.append(String.format("OTHER: %s\n", formatMillisecs(continueTotal - (stepTotal + snapTotal))));
-        sb.append(rootNode.toString());
+        if (sampleInterval > 1) sb.append(String.format("SAMPLING 1 OF EVERY %d STEPS\n", sampleInterval));
+        sb.append(getRootNode().toString());
+
+        return sb.toString();
+    }
+
+    /**
+     * Exports the call tree in the collapsed stack format ("knot;function
+     * selfMicroseconds" per line), ready for flame graph tools.
+     */
+    public String collapsedStacks() {
+        StringBuilder sb = new StringBuilder();
+        rootNode.writeCollapsedStacks(sb, null);
+
+        return sb.toString();
+    }
+
+    /**
+     * Exports the time spent in every knot and function as CSV, most expensive
+     * first. Self time is spent in the knot itself, and total time includes the
+     * knots and functions it calls.
+     */
+    public String knotsCsv() {
+        updateTotals();
+
+        List<Key> sorted = new ArrayList<>(keyList);
+
+        Collections.sort(sorted, new Comparator<Key>() {
+            @Override
+            public int compare(Key o1, Key o2) {
+                return Double.compare(o2.selfMillisecs, o1.selfMillisecs);
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("knot,self_ms,total_ms,self_samples,total_samples\n");
+
+        for (Key k : sorted) {
+            if (k.totalSampleCount == 0) continue;
+
+            sb.append('"').append(k.name.replace("\"", "\"\"")).append('"');
+            sb.append(',').append(k.selfMillisecs);
+            sb.append(',').append(k.totalMillisecs);
+            sb.append(',').append(k.selfSampleCount);
+            sb.append(',').append(k.totalSampleCount);
+            sb.append('\n');
+        }
 
         return sb.toString();
     }
 
     void preContinue() {
-        continueWatch.reset();
-        continueWatch.start();
+        continueStartTime = System.nanoTime();
     }
 
     void postContinue() {
-        continueWatch.stop();
-        continueTotal += millisecs(continueWatch);
+        continueTotal += millisecs(System.nanoTime() - continueStartTime);
         numContinues++;
     }
 
     void preStep() {
-        currStepStack = null;
-        stepWatch.reset();
-        stepWatch.start();
+        sampling = --stepsToNextSample == 0;
+
+        if (!sampling) return;
+
+        stepsToNextSample = sampleInterval;
+        currStepNode = null;
+        currStepType = null;
+        currStepObj = null;
+        stepNanosBeforeRecord = 0;
+        stepStartTime = System.nanoTime();
     }
 
     void step(CallStack callstack) {
-        stepWatch.stop();
+        if (!sampling) return;
 
-        String[] stack = new String[callstack.getElements().size()];
-        for (int i = 0; i < stack.length; i++) {
+        stepNanosBeforeRecord = System.nanoTime() - stepStartTime;
 
-            String stackElementName = "";
+        ProfileNode node = rootNode;
+        List<CallStack.Element> elements = callstack.getElements();
+        int size = elements.size();
+        boolean samePrefix = true;
 
-            if (!callstack.getElements().get(i).currentPointer.isNull()) {
-                Path objPath = callstack.getElements().get(i).currentPointer.getPath();
+        if (size > lastStack.length) {
+            lastStack = Arrays.copyOf(lastStack, size * 2);
+            lastStackNodes = Arrays.copyOf(lastStackNodes, size * 2);
+        }
 
-                for (int c = 0; c < objPath.getLength(); c++) {
-                    Component comp = objPath.getComponent(c);
-                    if (!comp.isIndex()) {
-                        stackElementName = comp.getName();
-                        break;
-                    }
-                }
-            }
+        for (int i = 0; i < size; i++) {
+            Container container = elements.get(i).currentPointer.container;
+
+            if (samePrefix && i < lastStackSize && lastStack[i] == container) {
+                node = lastStackNodes[i];
+            } else {
+                samePrefix = false;
 
-            stack[i] = stackElementName;
+                Key key = getKey(container);
+                node = node.getChild(key.id, key.name);
+
+                lastStack[i] = container;
+                lastStackNodes[i] = node;
+            }
         }
 
-        currStepStack = stack;
+        lastStackSize = size;
+        currStepNode = node;
 
         RTObject currObj = callstack.getCurrentElement().currentPointer.resolve();
+        currStepType = getStepType(currObj);
 
-        String stepType = null;
-        ControlCommand controlCommandStep = currObj instanceof ControlCommand ? (ControlCommand) currObj : null;
-        if (controlCommandStep != null)
-            stepType = controlCommandStep.getCommandType().toString() + " CC";
-        else stepType = currObj.getClass().getSimpleName();
+        if (logSteps) currStepObj = currObj;
 
-        currStepDetails = new StepDetails(stepType, currObj, 0f);
-
-        stepWatch.start();
+        stepStartTime = System.nanoTime();
     }
 
     void postStep() {
-        stepWatch.stop();
+        if (!sampling) return;
 
-        double duration = millisecs(stepWatch);
+        double duration = millisecs(stepNanosBeforeRecord + System.nanoTime() - stepStartTime);
         stepTotal += duration;
 
-        rootNode.addSample(currStepStack, duration);
+        ProfileNode node = currStepNode != null ? currStepNode : rootNode;
+        node.addSample(duration);
+
+        if (node != rootNode) {
+            Key key = keyList.get(node.getKeyId());
+            key.selfSampleCount++;
+            key.selfMillisecs += duration;
+        }
+
+        if (currStepType != null) {
+            currStepType.count++;
+            currStepType.millisecs += duration;
 
-        currStepDetails.time = duration;
-        stepDetails.add(currStepDetails);
+            if (logSteps) stepDetails.add(new StepDetails(currStepType.name, currStepObj, duration));
+        }
     }
 
-    /**
-     * Generate a printable report specifying the average and maximum times spent
-     * stepping over different internal ink instruction types. This report type is
-     * primarily used to profile the ink engine itself rather than your own specific
-     * ink.
-     */
-    public String stepLengthReport() {
-        StringBuilder sb = new StringBuilder();
+    // Computes the totals of the call tree nodes and of the keys from the self
+    // times recorded.
+    private void updateTotals() {
+        rootNode.updateTotals();
+
+        for (Key k : keyList) {
+            k.totalMillisecs = 0;
+            k.totalSampleCount = 0;
+        }
+
+        for (int i = 0; i < rootNode.getChildCount(); i++) addKeyTotals(rootNode.getChild(i));
+    }
 
-        sb.append("TOTAL: " + rootNode.getTotalMillisecs() + "ms\n");
+    // A knot that is in the stack several times (recursion) counts only once,
+    // in its outermost node.
+    private void addKeyTotals(ProfileNode node) {
+        Key key = keyList.get(node.getKeyId());
+        boolean outermost = key.activeDepth == 0;
 
-        // AVERAGE STEP TIMES
-        HashMap<String, Double> typeToDetails = new HashMap<>();
+        if (outermost) {
+            key.totalMillisecs += node.getTotalMillisecsExact();
+            key.totalSampleCount += node.getTotalSampleCount();
+        }
+
+        key.activeDepth++;
+
+        for (int i = 0; i < node.getChildCount(); i++) addKeyTotals(node.getChild(i));
+
+        key.activeDepth--;
+    }
+
+    // The key of a call stack element is the first named component of its path,
+    // usually the knot or function name.
+    private Key getKey(Container container) {
+        if (container == null) return nullKey;
 
-        // average group by s.type
-        for (StepDetails sd : stepDetails) {
-            if (typeToDetails.containsKey(sd.type)) continue;
+        Key key = containerKeys.get(container);
 
-            String type = sd.type;
-            double avg = 0f;
-            float num = 0;
+        if (key == null) {
+            String name = "";
+            Path path = container.getPath();
 
-            for (StepDetails sd2 : stepDetails) {
-                if (type.equals(sd2.type)) {
-                    num++;
-                    avg += sd2.time;
+            for (int c = 0; c < path.getLength(); c++) {
+                Component comp = path.getComponent(c);
+                if (!comp.isIndex()) {
+                    name = comp.getName();
+                    break;
                 }
             }
 
-            avg = avg / num;
+            key = getKey(name);
+            containerKeys.put(container, key);
+        }
+
+        return key;
+    }
+
+    private Key getKey(String name) {
+        Key key = keys.get(name);
 
-            typeToDetails.put(sd.type, avg);
+        if (key == null) {
+            key = new Key(keyList.size(), name);
+            keys.put(name, key);
+            keyList.add(key);
         }
 
-        // sort by average
-        List<Entry<String, Double>> averageStepTimes = new LinkedList<>(typeToDetails.entrySet());
+        return key;
+    }
 
-        Collections.sort(averageStepTimes, new Comparator<Entry<String, Double>>() {
-            @Override
-            public int compare(Entry<String, Double> o1, Entry<String, Double> o2) {
-                return (int) (o1.getValue() - o2.getValue());
-            }
-        });
+    private StepType getStepType(RTObject obj) {
+        if (obj == null) return null;
 
-        // join times
-        sb.append("AVERAGE STEP TIMES: ");
-        for (int i = 0; i < averageStepTimes.size(); i++) {
-            sb.append(averageStepTimes.get(i).getKey());
-            sb.append(": ");
-            sb.append(averageStepTimes.get(i).getValue());
-            sb.append("ms");
+        if (obj instanceof ControlCommand) {
+            int i = ((ControlCommand) obj).getCommandType().ordinal();
+
+            if (commandStepTypes[i] == null)
+                commandStepTypes[i] = newStepType(((ControlCommand) obj).getCommandType() + " CC");
 
-            if (i != averageStepTimes.size() - 1) sb.append(',');
+            return commandStepTypes[i];
         }
 
-        sb.append('\n');
+        StepType type = stepTypes.get(obj.getClass());
 
-        // ACCUMULATED STEP TIMES
-        typeToDetails.clear();
+        if (type == null) {
+            type = newStepType(obj.getClass().getSimpleName());
+            stepTypes.put(obj.getClass(), type);
+        }
 
-        // average group by s.type
-        for (StepDetails sd : stepDetails) {
-            if (typeToDetails.containsKey(sd.type)) continue;
+        return type;
+    }
 
-            String type = sd.type;
-            double sum = 0f;
+    private StepType newStepType(String name) {
+        StepType type = new StepType(name);
+        stepTypeList.add(type);
 
-            for (StepDetails sd2 : stepDetails) {
-                if (type.equals(sd2.type)) {
-                    sum += sd2.time;
-                }
+        return type;
+    }
+
+    /**
+     * Generate a printable report specifying the average and maximum times spent
+     * stepping over different internal ink instruction types. This report type is
+     * primarily used to profile the ink engine itself rather than your own specific
+     * ink.
+     */
+    public String stepLengthReport() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("TOTAL: " + getRootNode().getTotalMillisecs() + "ms\n");
+
+        List<StepType> sorted = new ArrayList<>(stepTypeList);
+
+        // AVERAGE STEP TIMES
+        Collections.sort(sorted, new Comparator<StepType>() {
+            @Override
+            public int compare(StepType o1, StepType o2) {
+                return Double.compare(o1.millisecs / o1.count, o2.millisecs / o2.count);
             }
+        });
+
+        sb.append("AVERAGE STEP TIMES: ");
+        for (int i = 0; i < sorted.size(); i++) {
+            sb.append(sorted.get(i).name);
+            sb.append(": ");
+            sb.append(sorted.get(i).millisecs / sorted.get(i).count);
+            sb.append("ms");
 
-            typeToDetails.put(sd.type + " (x" + typeToDetails.size() + ")", sum);
+            if (i != sorted.size() - 1) sb.append(',');
         }
 
-        // sort by average
-        List<Entry<String, Double>> accumStepTimes = new LinkedList<>(typeToDetails.entrySet());
+        sb.append('\n');
 
-        Collections.sort(accumStepTimes, new Comparator<Entry<String, Double>>() {
+        // ACCUMULATED STEP TIMES
+        Collections.sort(sorted, new Comparator<StepType>() {
             @Override
-            public int compare(Entry<String, Double> o1, Entry<String, Double> o2) {
-                return (int) (o1.getValue() - o2.getValue());
+            public int compare(StepType o1, StepType o2) {
+                return Double.compare(o1.millisecs, o2.millisecs);
             }
         });
 
-        // join times
         sb.append("ACCUMULATED STEP TIMES: ");
-        for (int i = 0; i < accumStepTimes.size(); i++) {
-            sb.append(accumStepTimes.get(i).getKey());
-            sb.append(": ");
-            sb.append(accumStepTimes.get(i).getValue());
-
-            if (i != accumStepTimes.size() - 1) sb.append(',');
+        for (int i = 0; i < sorted.size(); i++) {
+            sb.append(sorted.get(i).name);
+            sb.append(" (x");
+            sb.append(sorted.get(i).count);
+            sb.append("): ");
+            sb.append(sorted.get(i).millisecs);
+
+            if (i != sorted.size() - 1) sb.append(',');
         }
 
         sb.append('\n');
@@ -248,6 +459,8 @@ public class Profiler {
      * Create a large log of all the internal instructions that were evaluated while
      * profiling was active. Log is in a tab-separated format, for easy loading into
      * a spreadsheet application.
+     *
+     * Only the header is returned if step logging was off, see setLogSteps().
      */
     public String megalog() {
         StringBuilder sb = new StringBuilder();
@@ -268,18 +481,18 @@ public class Profiler {
         return sb.toString();
     }
 
+    // Snapshots are timed with the step they follow, so only when sampled.
+
     void preSnapshot() {
-        snapWatch.reset();
-        snapWatch.start();
+        if (sampling) snapStartTime = System.nanoTime();
     }
 
     void postSnapshot() {
-        snapWatch.stop();
-        snapTotal += millisecs(snapWatch);
+        if (sampling) snapTotal += millisecs(System.nanoTime() - snapStartTime);
     }
 
-    double millisecs(Stopwatch watch) {
-        return watch.getElapsedMilliseconds();
+    static double millisecs(long nanos) {
+        return nanos / 1000000.0;
     }
 
     static String formatMillisecs(double num) {
@@ -0,0 +1,141 @@
+package com.bladecoder.ink.runtime;
+
+/**
+ * A snapshot of what a StoryScheduler has done since it was created.
+ */
+public class SchedulerStats {
+    private final int sessions;
+    private final long turns;
+    private final long slices;
+    private final long failedTurns;
+
+    private final double meanQueueLatencyNanos;
+    private final long p99QueueLatencyNanos;
+    private final long maxQueueLatencyNanos;
+
+    private final double meanTurnLatencyNanos;
+    private final long p50TurnLatencyNanos;
+    private final long p99TurnLatencyNanos;
+    private final long maxTurnLatencyNanos;
+
+    private final double fairness;
+
+    SchedulerStats(
+            int sessions,
+            LatencyHistogram queueLatency,
+            LatencyHistogram turnLatency,
+            long slices,
+            long failedTurns,
+            double fairness) {
+        this.sessions = sessions;
+        this.turns = turnLatency.getCount();
+        this.slices = slices;
+        this.failedTurns = failedTurns;
+
+        meanQueueLatencyNanos = queueLatency.getMeanNanos();
+        p99QueueLatencyNanos = queueLatency.getPercentileNanos(99);
+        maxQueueLatencyNanos = queueLatency.getMaxNanos();
+
+        meanTurnLatencyNanos = turnLatency.getMeanNanos();
+        p50TurnLatencyNanos = turnLatency.getPercentileNanos(50);
+        p99TurnLatencyNanos = turnLatency.getPercentileNanos(99);
+        maxTurnLatencyNanos = turnLatency.getMaxNanos();
+
+        this.fairness = fairness;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Turns completed: every continueTurn() and choice taken.
+     */
+    public long getTurns() {
+        return turns;
+    }
+
+    /**
+     * Slices run. A turn takes more than one slice when it doesn't fit the
+     * time or step budget.
+     */
+    public long getSlices() {
+        return slices;
+    }
+
+    /**
+     * Turns whose listener threw an exception.
+     */
+    public long getFailedTurns() {
+        return failedTurns;
+    }
+
+    /**
+     * Time the slices waited in the queue for a worker.
+     */
+    public double getMeanQueueLatencyNanos() {
+        return meanQueueLatencyNanos;
+    }
+
+    /**
+     * Upper bound of the 99th percentile of the queue latency, rounded up to
+     * a power of two.
+     */
+    public long getP99QueueLatencyNanos() {
+        return p99QueueLatencyNanos;
+    }
+
+    public long getMaxQueueLatencyNanos() {
+        return maxQueueLatencyNanos;
+    }
+
+    /**
+     * Time from the start of a turn until the listener is called, including
+     * the time waiting in the queue.
+     */
+    public double getMeanTurnLatencyNanos() {
+        return meanTurnLatencyNanos;
+    }
+
+    public long getP50TurnLatencyNanos() {
+        return p50TurnLatencyNanos;
+    }
+
+    public long getP99TurnLatencyNanos() {
+        return p99TurnLatencyNanos;
+    }
+
+    public long getMaxTurnLatencyNanos() {
+        return maxTurnLatencyNanos;
+    }
+
+    /**
+     * Jain's fairness index of the mean queue latency of every session that
+     * has run: 1 when all of them waited the same for their slices, down to
+     * 1 / sessions when only one of them waited.
+     */
+    public double getFairness() {
+        return fairness;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%d sessions, %d turns (%d failed), %d slices%n"
+                        + "queue latency: mean %.1f us, p99 %.1f us, max %.1f us%n"
+                        + "turn latency: mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us%n"
+                        + "fairness: %.3f%n",
+                sessions,
+                turns,
+                failedTurns,
+                slices,
+                meanQueueLatencyNanos / 1e3,
+                p99QueueLatencyNanos / 1e3,
+                maxQueueLatencyNanos / 1e3,
+                meanTurnLatencyNanos / 1e3,
+                p50TurnLatencyNanos / 1e3,
+                p99TurnLatencyNanos / 1e3,
+                maxTurnLatencyNanos / 1e3,
+                fairness);
+    }
+}
@@ -2,10 +2,14 @@ package com.bladecoder.ink.runtime;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -26,6 +30,21 @@ public class SimpleJson {
         return new Reader(text).toArray();
     }
 
+    /**
+     * Same as textToDictionary() but reading the JSON text from a stream, without
+     * loading the whole text in memory.
+     */
+    public static HashMap<String, Object> streamToDictionary(java.io.Reader reader) throws Exception {
+        return new StreamReader(reader, false).toHashMap();
+    }
+
+    /**
+     * Reads an UTF-8 stream.
+     */
+    public static HashMap<String, Object> streamToDictionary(InputStream stream) throws Exception {
+        return streamToDictionary(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
     static class Reader {
         private int offset;
 
@@ -250,6 +269,321 @@ public class SimpleJson {
         }
     }
 
+    /**
+     * JSON reader that pulls the text from a java.io.Reader through a small
+     * buffer, so the whole document never has to be in memory as a String.
+     *
+     * When readContainers is set, the arrays that follow the ink container
+     * encoding (the last element is null or a dictionary, see Json) are
+     * converted to runtime Containers as soon as they are read. This way the
+     * story content is built directly and no JSON tree is kept for it.
+     *
+     * With a lazy story, the top level knots of the root container are only
+     * skipped and kept as spans of the text, see LazyContent.
+     */
+    static class StreamReader {
+        private static final int BUFFER_SIZE = 8192;
+
+        private final java.io.Reader reader;
+        private final boolean readContainers;
+
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int bufferPos;
+        private int bufferLength;
+
+        // Offset of the buffer start in the stream, for error messages
+        private long bufferOffset;
+
+        private final StringBuilder sb = new StringBuilder();
+
+        private Object rootObject;
+
+        private final CompiledStory lazyStory;
+        private final String lazyText;
+
+        // Nesting of the value being read, to find the root container
+        private int depth;
+        private int arrayDepth;
+
+        StreamReader(java.io.Reader reader, boolean readContainers) throws Exception {
+            this(reader, readContainers, null, null);
+        }
+
+        StreamReader(String text, CompiledStory lazyStory) throws Exception {
+            this(new StringReader(text), true, lazyStory, text);
+        }
+
+        private StreamReader(java.io.Reader reader, boolean readContainers, CompiledStory lazyStory, String lazyText)
+                throws Exception {
+            this.reader = reader;
+            this.readContainers = readContainers;
+            this.lazyStory = lazyStory;
+            this.lazyText = lazyText;
+
+            // Skip the UTF-8 BOM
+            if (peek() == '\uFEFF') bufferPos++;
+
+            skipWhitespace();
+            rootObject = readObject();
+        }
+
+        private long offset() {
+            return bufferOffset + bufferPos;
+        }
+
+        private int peek() throws IOException {
+            if (bufferPos == bufferLength) {
+                bufferOffset += bufferLength;
+                bufferPos = 0;
+                bufferLength = reader.read(buffer, 0, BUFFER_SIZE);
+
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    return -1;
+                }
+            }
+
+            return buffer[bufferPos];
+        }
+
+        private char next() throws Exception {
+            int c = peek();
+
+            if (c == -1) throw new Exception("Unexpected EOF at offset " + offset());
+
+            bufferPos++;
+            return (char) c;
+        }
+
+        private void expect(char expected) throws Exception {
+            if (peek() != expected) throw new Exception("Expected " + expected + " at offset " + offset());
+
+            bufferPos++;
+        }
+
+        private boolean tryRead(char c) throws IOException {
+            if (peek() != c) return false;
+
+            bufferPos++;
+            return true;
+        }
+
+        private void expectWord(String word) throws Exception {
+            for (int i = 0; i < word.length(); i++) {
+                if (peek() != word.charAt(i)) throw new Exception("Expected " + word + " at offset " + offset());
+
+                bufferPos++;
+            }
+        }
+
+        private void skipWhitespace() throws IOException {
+            int c = peek();
+
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                bufferPos++;
+                c = peek();
+            }
+        }
+
+        private Object readObject() throws Exception {
+            int currentChar = peek();
+
+            if (currentChar == '{') return readHashMap();
+            else if (currentChar == '[') return readArray();
+            else if (currentChar == '"') return readString();
+            else if (currentChar >= '0' && currentChar <= '9' || currentChar == '-' || currentChar == '+')
+                return readNumber();
+            else if (currentChar == 't') {
+                expectWord("true");
+                return true;
+            } else if (currentChar == 'f') {
+                expectWord("false");
+                return false;
+            } else if (currentChar == 'n') {
+                expectWord("null");
+                return null;
+            }
+
+            throw new Exception("Unhandled RTObject type in JSON at offset " + offset());
+        }
+
+        private Object readArray() throws Exception {
+            List<Object> list = new ArrayList<>();
+            expect('[');
+            skipWhitespace();
+
+            depth++;
+            arrayDepth++;
+
+            // Empty list?
+            if (!tryRead(']')) {
+                do {
+                    skipWhitespace();
+                    list.add(readObject());
+                    skipWhitespace();
+                } while (tryRead(','));
+
+                expect(']');
+            }
+
+            depth--;
+            arrayDepth--;
+
+            if (readContainers && !list.isEmpty()) {
+                Object last = list.get(list.size() - 1);
+
+                if (last == null || last instanceof HashMap) return Json.jArrayToContainer(list);
+            }
+
+            return list;
+        }
+
+        private HashMap<String, Object> readHashMap() throws Exception {
+            HashMap<String, Object> dict = new HashMap<>();
+            expect('{');
+            skipWhitespace();
+
+            // Empty HashMap?
+            if (tryRead('}')) return dict;
+
+            // The named content of the root container: {"root": [..., {...}]}
+            boolean knots = lazyStory != null && depth == 2 && arrayDepth == 1;
+
+            depth++;
+
+            do {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                Object val;
+
+                if (knots && peek() == '[') {
+                    int start = (int) offset();
+                    skipValue();
+                    val = new LazyContent(lazyStory, lazyText, start, (int) offset());
+                } else {
+                    val = readObject();
+                }
+
+                if (val == null) throw new Exception("Expected dictionary value at offset " + offset());
+
+                dict.put(key, val);
+                skipWhitespace();
+            } while (tryRead(','));
+
+            expect('}');
+
+            depth--;
+            return dict;
+        }
+
+        private void skipValue() throws Exception {
+            int nesting = 0;
+
+            do {
+                char c = next();
+
+                if (c == '"') {
+                    for (c = next(); c != '"'; c = next()) {
+                        if (c == '\\') next();
+                    }
+                } else if (c == '[' || c == '{') {
+                    nesting++;
+                } else if (c == ']' || c == '}') {
+                    nesting--;
+                }
+            } while (nesting > 0);
+        }
+
+        private Object readNumber() throws Exception {
+            sb.setLength(0);
+            boolean isFloat = false;
+
+            for (int c = peek(); c != -1; c = peek()) {
+                if (c == '.' || c == 'e' || c == 'E') isFloat = true;
+                else if (!(c >= '0' && c <= '9' || c == '-' || c == '+')) break;
+
+                sb.append((char) c);
+                bufferPos++;
+            }
+
+            String numStr = sb.toString();
+
+            try {
+                if (isFloat) return Float.parseFloat(numStr);
+                else return Integer.parseInt(numStr);
+            } catch (NumberFormatException e) {
+                throw new Exception("Failed to parse number value: " + numStr);
+            }
+        }
+
+        private String readString() throws Exception {
+            expect('"');
+            sb.setLength(0);
+
+            while (true) {
+                char c = next();
+
+                if (c == '"') break;
+
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+
+                // Escaped character
+                c = next();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/': // Yes, JSON allows this to be escaped
+                        sb.append(c);
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'r':
+                    case 'b':
+                    case 'f':
+                        // Ignore other control characters
+                        break;
+                    case 'u':
+                        // 4-digit Unicode
+                        int uchar = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(next(), 16);
+
+                            if (digit == -1)
+                                throw new Exception("Invalid Unicode escape character at offset " + offset());
+
+                            uchar = uchar * 16 + digit;
+                        }
+                        sb.append((char) uchar);
+                        break;
+                    default:
+                        // The escaped character is invalid per json spec
+                        throw new Exception("Invalid Unicode escape character at offset " + (offset() - 1));
+                }
+            }
+
+            return sb.toString();
+        }
+
+        @SuppressWarnings("unchecked")
+        public HashMap<String, Object> toHashMap() throws Exception {
+            return (HashMap<String, Object>) rootObject;
+        }
+
+        Container toContainer() {
+            return (Container) rootObject;
+        }
+    }
+
     public static class Writer {
         Stack<StateElement> stateStack = new Stack<>();
         java.io.Writer writer;
@@ -311,6 +645,12 @@ public class SimpleJson {
             writePropertyEnd();
         }
 
+        public void writeProperty(String name, long content) throws Exception {
+            writePropertyStart(name);
+            write(content);
+            writePropertyEnd();
+        }
+
         public void writeProperty(String name, boolean content) throws Exception {
             writePropertyStart(name);
             write(content);
@@ -402,6 +742,11 @@ public class SimpleJson {
             writer.write(Integer.toString(i));
         }
 
+        public void write(long l) throws Exception {
+            startNewObject(false);
+            writer.write(Long.toString(l));
+        }
+
         public void write(float f) throws Exception {
             startNewObject(false);
 
@@ -5,16 +5,26 @@ import java.util.HashSet;
 
 class StatePatch {
     private HashMap<String, RTObject> globals;
-    private HashSet<String> changedVariables = new HashSet<>();
-    private HashMap<Container, Integer> visitCounts = new HashMap<>();
-    private HashMap<Container, Integer> turnIndices = new HashMap<>();
+    private HashSet<String> changedVariables;
+    private HashMap<Container, Integer> visitCounts;
+    private HashMap<Container, Integer> turnIndices;
+
+    // When copying a patch, the collections are shared between both patches
+    // and they are only copied the first time one of them is modified.
+    private boolean globalsShared;
+    private boolean changedVariablesShared;
+    private boolean visitCountsShared;
+    private boolean turnIndicesShared;
 
     public StatePatch(StatePatch toCopy) {
         if (toCopy != null) {
-            globals = new HashMap<>(toCopy.globals);
-            changedVariables = new HashSet<>(toCopy.changedVariables);
-            visitCounts = new HashMap<>(toCopy.visitCounts);
-            turnIndices = new HashMap<>(toCopy.turnIndices);
+            globals = toCopy.globals;
+            changedVariables = toCopy.changedVariables;
+            visitCounts = toCopy.visitCounts;
+            turnIndices = toCopy.turnIndices;
+
+            toCopy.markShared();
+            markShared();
         } else {
             globals = new HashMap<>();
             changedVariables = new HashSet<>();
@@ -23,15 +33,32 @@ class StatePatch {
         }
     }
 
+    private void markShared() {
+        globalsShared = true;
+        changedVariablesShared = true;
+        visitCountsShared = true;
+        turnIndicesShared = true;
+    }
+
     public RTObject getGlobal(String name) {
         return globals.get(name);
     }
 
     public void setGlobal(String name, RTObject value) {
+        if (globalsShared) {
+            globals = new HashMap<>(globals);
+            globalsShared = false;
+        }
+
         globals.put(name, value);
     }
 
     public void addChangedVariable(String name) {
+        if (changedVariablesShared) {
+            changedVariables = new HashSet<>(changedVariables);
+            changedVariablesShared = false;
+        }
+
         changedVariables.add(name);
     }
 
@@ -40,10 +67,20 @@ class StatePatch {
     }
 
     public void setVisitCount(Container container, int count) {
+        if (visitCountsShared) {
+            visitCounts = new HashMap<>(visitCounts);
+            visitCountsShared = false;
+        }
+
         visitCounts.put(container, count);
     }
 
     public void setTurnIndex(Container container, int index) {
+        if (turnIndicesShared) {
+            turnIndices = new HashMap<>(turnIndices);
+            turnIndicesShared = false;
+        }
+
         turnIndices.put(container, index);
     }
 
@@ -51,6 +88,9 @@ class StatePatch {
         return turnIndices.get(container);
     }
 
+    // The returned collections are read only, since they can be shared with
+    // other patches.
+
     public HashMap<String, RTObject> getGlobals() {
         return globals;
     }
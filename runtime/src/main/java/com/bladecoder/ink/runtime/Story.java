@@ -3,7 +3,9 @@ package com.bladecoder.ink.runtime;
 import com.bladecoder.ink.runtime.Error.ErrorType;
 import com.bladecoder.ink.runtime.SimpleJson.InnerWriter;
 import com.bladecoder.ink.runtime.SimpleJson.Writer;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -163,6 +165,14 @@ public class Story implements VariablesState.VariableChanged {
         void call(String variableName, Object newValue);
     }
 
+    /**
+     * Receives the lines of continueMaximally(LineHandler). The text is only
+     * valid during the call: the same buffer is reused for the next line.
+     */
+    public interface LineHandler {
+        void line(CharSequence text, List<String> tags) throws Exception;
+    }
+
     /**
      * The current version of the ink story file format.
      */
@@ -174,8 +184,10 @@ public class Story implements VariablesState.VariableChanged {
      */
     public static final int inkVersionMinimumCompatible = 18;
 
-    private Container mainContentContainer;
-    private ListDefinitionsOrigin listDefinitions;
+    private final CompiledStory compiledStory;
+
+    private final Container mainContentContainer;
+    private final ListDefinitionsOrigin listDefinitions;
 
     /**
      * An ink file can provide a fallback functions for when when an EXTERNAL has
@@ -198,9 +210,22 @@ public class Story implements VariablesState.VariableChanged {
 
     private final List<Container> prevContainers = new ArrayList<>();
 
+    // Pointers and containers resolved from runtime paths (divert target
+    // values, choice targets). Only exact matches are cached, so failed or
+    // approximated lookups keep reporting their errors.
+    private static final int PATH_CACHE_SIZE = 256;
+    private final PathCache<Pointer> pointerAtPathCache = new PathCache<>(PATH_CACHE_SIZE);
+    private final PathCache<Container> containerAtPathCache = new PathCache<>(PATH_CACHE_SIZE);
+
     private Profiler profiler;
 
+    private StoryMetrics metrics;
+
     private boolean asyncContinueActive;
+
+    // Set while a function whose text nobody reads is evaluated from game
+    // code, so the end of the lines isn't looked for.
+    private boolean skipNewlineLookahead;
     private StoryState stateSnapshotAtLastNewline = null;
 
     private int recursiveContinueCount = 0;
@@ -215,11 +240,9 @@ public class Story implements VariablesState.VariableChanged {
     // call ResetState on it before use. Intended for compiler use only.
     // For normal use, use the constructor that takes a json string.
     public Story(Container contentContainer, List<ListDefinition> lists) {
+        this.compiledStory = new CompiledStory(contentContainer, lists);
         mainContentContainer = contentContainer;
-
-        if (lists != null) {
-            listDefinitions = new ListDefinitionsOrigin(lists);
-        }
+        listDefinitions = compiledStory.getListDefinitions();
 
         externals = new HashMap<>();
     }
@@ -232,36 +255,36 @@ public class Story implements VariablesState.VariableChanged {
      * Construct a Story Object using a JSON String compiled through inklecate.
      */
     public Story(String jsonString) throws Exception {
-        this((Container) null);
-        HashMap<String, Object> rootObject = SimpleJson.textToDictionary(jsonString);
-
-        Object versionObj = rootObject.get("inkVersion");
-        if (versionObj == null)
-            throw new Exception("ink version number not found. Are you sure it's a valid .ink.json file?");
-
-        int formatFromFile = versionObj instanceof String ? Integer.parseInt((String) versionObj) : (int) versionObj;
+        this(new CompiledStory(jsonString));
+    }
 
-        if (formatFromFile > inkVersionCurrent) {
-            throw new Exception("Version of ink used to build story was newer than the current version of the engine");
-        } else if (formatFromFile < inkVersionMinimumCompatible) {
-            throw new Exception(
-                    "Version of ink used to build story is too old to be loaded by this version of the engine");
-        } else if (formatFromFile != inkVersionCurrent) {
-            System.out.println("WARNING: Version of ink used to build story doesn't match current version of engine. "
-                    + "Non-critical, but recommend synchronising.");
-        }
+    /**
+     * Construct a Story Object reading the JSON compiled through inklecate from
+     * an UTF-8 stream. The story content is built while the stream is read, so
+     * neither the JSON text nor its intermediate tree is ever fully in memory.
+     */
+    public Story(InputStream stream) throws Exception {
+        this(new CompiledStory(stream));
+    }
 
-        Object rootToken = rootObject.get("root");
-        if (rootToken == null)
-            throw new Exception("Root node for ink not found. Are you sure it's a valid .ink.json file?");
+    /**
+     * Construct a Story Object reading the JSON compiled through inklecate.
+     */
+    public Story(Reader reader) throws Exception {
+        this(new CompiledStory(reader));
+    }
 
-        Object listDefsObj = rootObject.get("listDefs");
-        if (listDefsObj != null) {
-            listDefinitions = Json.jTokenToListDefinitions(listDefsObj);
-        }
+    /**
+     * Construct a new session of an already loaded story. The content is shared
+     * with the other sessions, only the state belongs to this Story, so this is
+     * much cheaper than loading the JSON again.
+     */
+    public Story(CompiledStory compiledStory) throws Exception {
+        this.compiledStory = compiledStory;
+        mainContentContainer = compiledStory.getMainContentContainer();
+        listDefinitions = compiledStory.getListDefinitions();
 
-        RTObject runtimeObject = Json.jTokenToRuntimeObject(rootToken);
-        mainContentContainer = runtimeObject instanceof Container ? (Container) runtimeObject : null;
+        externals = new HashMap<>();
 
         resetState();
     }
@@ -304,8 +327,18 @@ public class Story implements VariablesState.VariableChanged {
      * @throws Exception
      */
     public Profiler startProfiling() throws Exception {
+        return startProfiling(1);
+    }
+
+    /**
+     * Start recording ink profiling information, but only for one of every
+     * sampleInterval steps, to profile live sessions with less overhead.
+     *
+     * @throws Exception
+     */
+    public Profiler startProfiling(int sampleInterval) throws Exception {
         ifAsyncWeCant("start profiling");
-        profiler = new Profiler();
+        profiler = new Profiler(sampleInterval);
 
         return profiler;
     }
@@ -318,6 +351,37 @@ public class Story implements VariablesState.VariableChanged {
         profiler = null;
     }
 
+    /**
+     * Start recording the lightweight metrics of the story (steps, snapshots,
+     * choices, external calls, timings...).
+     *
+     * @param listener Called after every Continue, can be null.
+     */
+    public StoryMetrics startMetrics(StoryMetrics.Listener listener) throws Exception {
+        ifAsyncWeCant("start metrics");
+        metrics = new StoryMetrics(listener);
+
+        return metrics;
+    }
+
+    public StoryMetrics startMetrics() throws Exception {
+        return startMetrics(null);
+    }
+
+    /**
+     * Stop recording metrics.
+     */
+    public void endMetrics() {
+        metrics = null;
+    }
+
+    /**
+     * The metrics being recorded, or null if they weren't started.
+     */
+    public StoryMetrics getMetrics() {
+        return metrics;
+    }
+
     void Assert(boolean condition, Object... formatParams) throws Exception {
         Assert(condition, null, formatParams);
     }
@@ -425,52 +489,38 @@ public class Story implements VariablesState.VariableChanged {
         return tagsAtStartOfFlowContainerWithPathString(path);
     }
 
-    List<String> tagsAtStartOfFlowContainerWithPathString(String pathString) throws Exception {
-        Path path = new Path(pathString);
+    /**
+     * Gets the tags of every knot and stitch that has tags at its top, by path
+     * ("knot" or "knot.stitch"). Knots and stitches without tags, or whose
+     * tags have dynamic content, aren't in the map. The map is built once and
+     * shared by every Story of the same CompiledStory, and can't be modified.
+     * Building it builds every knot of a story loaded with
+     * CompiledStory.Options.lazyKnots.
+     */
+    public Map<String, List<String>> getAllKnotTags() {
+        return compiledStory.getKnotTags();
+    }
 
-        // Expected to be global story, knot or stitch
-        Container flowContainer = contentAtPath(path).getContainer();
+    List<String> tagsAtStartOfFlowContainerWithPathString(String pathString) throws Exception {
+        List<String> tags = compiledStory.getTags(pathString);
 
-        while (true) {
-            RTObject firstContent = flowContainer.getContent().get(0);
-            if (firstContent instanceof Container) flowContainer = (Container) firstContent;
-            else break;
-        }
+        if (tags == null) {
+            // Not a knot or stitch, or dynamic tags
+            Path path = new Path(pathString);
 
-        // Any initial tag objects count as the "main tags" associated with that
-        // story/knot/stitch
-        boolean inTag = false;
-        List<String> tags = null;
-        for (RTObject c : flowContainer.getContent()) {
+            // Expected to be global story, knot or stitch
+            Container flowContainer = contentAtPath(path).getContainer();
 
-            if (c instanceof ControlCommand) {
-                ControlCommand command = (ControlCommand) c;
+            tags = CompiledStory.tagsAtStartOfFlowContainer(flowContainer);
 
-                if (command.getCommandType() == ControlCommand.CommandType.BeginTag) {
-                    inTag = true;
-                } else if (command.getCommandType() == ControlCommand.CommandType.EndTag) {
-                    inTag = false;
-                }
-            } else if (inTag) {
-                if (c instanceof StringValue) {
-                    StringValue str = (StringValue) c;
-                    if (tags == null) tags = new ArrayList<>();
-                    tags.add(str.value);
-                } else {
-                    error("Tag contained non-text content. Only plain text is allowed when using globalTags or "
-                            + "TagsAtContentPath. If you want to evaluate dynamic content, you need to use story"
-                            + ".Continue().");
-                }
-            }
-
-            // Any other content - we're done
-            // We only recognise initial text-only tags
-            else {
-                break;
+            if (tags == null) {
+                error("Tag contained non-text content. Only plain text is allowed when using globalTags or "
+                        + "TagsAtContentPath. If you want to evaluate dynamic content, you need to use story"
+                        + ".Continue().");
             }
         }
 
-        return tags;
+        return tags.isEmpty() ? null : tags;
     }
 
     /**
@@ -580,8 +630,12 @@ public class Story implements VariablesState.VariableChanged {
         Collections.reverse(arguments);
 
         // Run the function!
+        long startTime = metrics != null ? System.nanoTime() : 0;
+
         Object funcResult = funcDef.function.call(arguments.toArray());
 
+        if (metrics != null) metrics.externalCall(System.nanoTime() - startTime);
+
         // Convert return value (if any) to the a type that the ink engine can use
         RTObject returnObj;
         if (funcResult != null) {
@@ -779,6 +833,15 @@ public class Story implements VariablesState.VariableChanged {
         return getCurrentText();
     }
 
+    /**
+     * Like Continue(), but the line is appended to the given buffer or Writer
+     * instead of returned, so no String is created for it.
+     */
+    public void continueTo(Appendable out) throws StoryException, Exception {
+        continueAsync(0);
+        state.appendCurrentText(out);
+    }
+
     /**
      * If ContinueAsync was called (with milliseconds limit &gt; 0) then this
      * property will return false if the ink evaluation isn't yet finished, and you
@@ -799,19 +862,31 @@ public class Story implements VariablesState.VariableChanged {
      * exactly what Continue does internally).
      */
     public void continueAsync(float millisecsLimitAsync) throws Exception {
+        continueAsync(millisecsLimitAsync, 0);
+    }
+
+    /**
+     * Like continueAsync(float), but the evaluation can also be limited to a
+     * number of steps, which doesn't depend on the speed of the machine. Used
+     * by StoryScheduler.
+     */
+    void continueAsync(float millisecsLimitAsync, int stepsLimitAsync) throws Exception {
         if (!hasValidatedExternals) validateExternalBindings();
 
-        continueInternal(millisecsLimitAsync);
+        continueInternal(millisecsLimitAsync, stepsLimitAsync);
     }
 
     void continueInternal() throws Exception {
-        continueInternal(0);
+        continueInternal(0, 0);
     }
 
-    void continueInternal(float millisecsLimitAsync) throws Exception {
+    void continueInternal(float millisecsLimitAsync, int stepsLimitAsync) throws Exception {
         if (profiler != null) profiler.preContinue();
 
+        if (metrics != null && recursiveContinueCount == 0) metrics.preContinue();
+
         boolean isAsyncTimeLimited = millisecsLimitAsync > 0;
+        boolean isAsyncStepLimited = stepsLimitAsync > 0;
 
         recursiveContinueCount++;
 
@@ -819,7 +894,7 @@ public class Story implements VariablesState.VariableChanged {
         // - full run through non-async (so not active and don't want to be)
         // - Starting async run-through
         if (!asyncContinueActive) {
-            asyncContinueActive = isAsyncTimeLimited;
+            asyncContinueActive = isAsyncTimeLimited || isAsyncStepLimited;
             if (!canContinue()) {
                 throw new Exception("Can't continue - should check canContinue before calling Continue");
             }
@@ -832,13 +907,14 @@ public class Story implements VariablesState.VariableChanged {
             // In this case, we only want to batch observe variable changes
             // for the outermost call.
             if (recursiveContinueCount == 1) state.getVariablesState().startVariableObservation();
-        } else if (asyncContinueActive && !isAsyncTimeLimited) {
+        } else if (asyncContinueActive && !isAsyncTimeLimited && !isAsyncStepLimited) {
             asyncContinueActive = false;
         }
 
-        // Start timing
-        Stopwatch durationStopwatch = new Stopwatch();
-        durationStopwatch.start();
+        // The budget is checked on every step, so it's a plain deadline
+        // instead of a Stopwatch, and has sub-millisecond resolution.
+        long deadline = isAsyncTimeLimited ? System.nanoTime() + (long) (millisecsLimitAsync * 1000000) : 0;
+        int steps = 0;
 
         boolean outputStreamEndsInNewline = false;
         sawLookaheadUnsafeFunctionAfterNewline = false;
@@ -853,15 +929,15 @@ public class Story implements VariablesState.VariableChanged {
 
             if (outputStreamEndsInNewline) break;
 
-            // Run out of async time?
-            if (asyncContinueActive && durationStopwatch.getElapsedMilliseconds() > millisecsLimitAsync) {
-                break;
+            // Run out of async time or steps?
+            if (asyncContinueActive) {
+                if (isAsyncStepLimited && ++steps >= stepsLimitAsync) break;
+
+                if (isAsyncTimeLimited && System.nanoTime() - deadline > 0) break;
             }
 
         } while (canContinue());
 
-        durationStopwatch.stop();
-
         HashMap<String, RTObject> changedVariablesToObserve = null;
 
         // 4 outcomes:
@@ -906,6 +982,8 @@ public class Story implements VariablesState.VariableChanged {
 
         if (profiler != null) profiler.postContinue();
 
+        if (metrics != null && recursiveContinueCount == 0) metrics.postContinue();
+
         // Report any errors that occured during evaluation.
         // This may either have been StoryExceptions that were thrown
         // and caught during evaluation, or directly added with AddError.
@@ -970,11 +1048,15 @@ public class Story implements VariablesState.VariableChanged {
     boolean continueSingleStep() throws Exception {
         if (profiler != null) profiler.preStep();
 
+        if (metrics != null) metrics.preStep();
+
         // Run main step function (walks through content)
         step();
 
         if (profiler != null) profiler.postStep();
 
+        if (metrics != null) metrics.postStep(state.getEvaluationStack().size());
+
         // Run out of content and we have a default invisible choice that we can follow?
         if (!canContinue() && !state.getCallStack().elementIsEvaluateFromGame()) {
 
@@ -983,8 +1065,10 @@ public class Story implements VariablesState.VariableChanged {
 
         if (profiler != null) profiler.preSnapshot();
 
+        if (metrics != null) metrics.preSnapshot();
+
         // Don't save/rewind during string evaluation, which is e.g. used for choices
-        if (!state.inStringEvaluation()) {
+        if (!state.inStringEvaluation() && !skipNewlineLookahead) {
 
             // We previously found a newline, but were we just double checking that
             // it wouldn't immediately be removed by glue?
@@ -1002,6 +1086,10 @@ public class Story implements VariablesState.VariableChanged {
                 if (change == OutputStateChange.ExtendedBeyondNewline || sawLookaheadUnsafeFunctionAfterNewline) {
                     restoreStateSnapshot();
 
+                    if (profiler != null) profiler.postSnapshot();
+
+                    if (metrics != null) metrics.postSnapshot();
+
                     // Hit a newline for sure, we're done
                     return true;
                 }
@@ -1011,6 +1099,8 @@ public class Story implements VariablesState.VariableChanged {
                 else if (change == OutputStateChange.NewlineRemoved) {
                     stateSnapshotAtLastNewline = null;
                     discardSnapshot();
+
+                    if (metrics != null) metrics.snapshotDiscarded();
                 }
             }
 
@@ -1033,6 +1123,8 @@ public class Story implements VariablesState.VariableChanged {
                 // Can't continue, so we're about to exit - make sure we
                 // don't have an old state hanging around.
                 else {
+                    if (metrics != null && stateSnapshotAtLastNewline != null) metrics.snapshotDiscarded();
+
                     discardSnapshot();
                 }
             }
@@ -1040,6 +1132,8 @@ public class Story implements VariablesState.VariableChanged {
 
         if (profiler != null) profiler.postSnapshot();
 
+        if (metrics != null) metrics.postSnapshot();
+
         // outputStreamEndsInNewline = false
         return false;
     }
@@ -1058,12 +1152,40 @@ public class Story implements VariablesState.VariableChanged {
         StringBuilder sb = new StringBuilder();
 
         while (canContinue()) {
-            sb.append(Continue());
+            continueTo(sb);
         }
 
         return sb.toString();
     }
 
+    /**
+     * Like continueMaximally(), but the text is appended to the given buffer or
+     * Writer as every line is evaluated.
+     */
+    public void continueMaximallyTo(Appendable out) throws StoryException, Exception {
+        ifAsyncWeCant("ContinueMaximally");
+
+        while (canContinue()) {
+            continueTo(out);
+        }
+    }
+
+    /**
+     * Like continueMaximally(), but every line is passed to the handler with
+     * its tags as soon as it's evaluated.
+     */
+    public void continueMaximally(LineHandler handler) throws StoryException, Exception {
+        ifAsyncWeCant("ContinueMaximally");
+
+        StringBuilder sb = new StringBuilder();
+
+        while (canContinue()) {
+            sb.setLength(0);
+            continueTo(sb);
+            handler.line(sb, state.getCurrentTags());
+        }
+    }
+
     DebugMetadata currentDebugMetadata() {
         DebugMetadata dm;
 
@@ -1231,6 +1353,14 @@ public class Story implements VariablesState.VariableChanged {
         return listDefinitions;
     }
 
+    /**
+     * The read-only content of this story. It can be used to create more
+     * sessions of the story without loading it again.
+     */
+    public CompiledStory getCompiledStory() {
+        return compiledStory;
+    }
+
     /**
      * Whether the currentErrors list contains any errors. THIS MAY BE REMOVED - you
      * should be setting an error handler directly using Story.onError.
@@ -1282,7 +1412,7 @@ public class Story implements VariablesState.VariableChanged {
 
         if (!successfulIncrement) pointer.assign(Pointer.Null);
 
-        state.getCallStack().getCurrentElement().currentPointer.assign(pointer);
+        state.setCurrentPointer(pointer);
 
         return successfulIncrement;
     }
@@ -1872,11 +2002,11 @@ public class Story implements VariablesState.VariableChanged {
                 }
                 case ChoiceCount:
                     int choiceCount = state.getGeneratedChoices().size();
-                    state.pushEvaluationStack(new IntValue(choiceCount));
+                    state.pushEvaluationStack(IntValue.valueOf(choiceCount));
                     break;
 
                 case Turns:
-                    state.pushEvaluationStack(new IntValue(state.getCurrentTurnIndex() + 1));
+                    state.pushEvaluationStack(IntValue.valueOf(state.getCurrentTurnIndex() + 1));
                     break;
 
                 case TurnsSince:
@@ -1895,8 +2025,7 @@ public class Story implements VariablesState.VariableChanged {
                     DivertTargetValue divertTarget =
                             target instanceof DivertTargetValue ? (DivertTargetValue) target : null;
 
-                    RTObject otmp = contentAtPath(divertTarget.getTargetPath()).correctObj();
-                    Container container = otmp instanceof Container ? (Container) otmp : null;
+                    Container container = containerAtPath(divertTarget.getTargetPath());
 
                     int eitherCount;
 
@@ -1913,7 +2042,7 @@ public class Story implements VariablesState.VariableChanged {
                                 + divertTarget.getTargetPath().toString());
                     }
 
-                    state.pushEvaluationStack(new IntValue(eitherCount));
+                    state.pushEvaluationStack(IntValue.valueOf(eitherCount));
                     break;
 
                 case Random: {
@@ -1945,7 +2074,7 @@ public class Story implements VariablesState.VariableChanged {
 
                     int nextRandom = random.nextInt(Integer.MAX_VALUE);
                     int chosenValue = (nextRandom % randomRange) + minInt.value;
-                    state.pushEvaluationStack(new IntValue(chosenValue));
+                    state.pushEvaluationStack(IntValue.valueOf(chosenValue));
 
                     // Next random number (rather than keeping the Random object
                     // around)
@@ -1974,12 +2103,12 @@ public class Story implements VariablesState.VariableChanged {
                     int count = state.visitCountForContainer(state.getCurrentPointer().container) - 1; // index
                     // not
                     // count
-                    state.pushEvaluationStack(new IntValue(count));
+                    state.pushEvaluationStack(IntValue.valueOf(count));
                     break;
 
                 case SequenceShuffleIndex:
                     int shuffleIndex = nextSequenceShuffleIndex();
-                    state.pushEvaluationStack(new IntValue(shuffleIndex));
+                    state.pushEvaluationStack(IntValue.valueOf(shuffleIndex));
                     break;
 
                 case StartThread:
@@ -2148,7 +2277,7 @@ public class Story implements VariablesState.VariableChanged {
 
                 Container container = varRef.getContainerForCount();
                 int count = state.visitCountForContainer(container);
-                foundValue = new IntValue(count);
+                foundValue = IntValue.valueOf(count);
             }
 
             // Normal variable reference
@@ -2161,7 +2290,7 @@ public class Story implements VariablesState.VariableChanged {
                             + "'. Using default value of 0 (false). This can happen with temporary variables if the "
                             + "declaration hasn't yet been hit. Globals are always given a default value on load if a "
                             + "value doesn't exist in the save state.");
-                    foundValue = new IntValue(0);
+                    foundValue = IntValue.valueOf(0);
                 }
             }
 
@@ -2173,9 +2302,26 @@ public class Story implements VariablesState.VariableChanged {
         // Native function call
         else if (contentObj instanceof NativeFunctionCall) {
             NativeFunctionCall func = (NativeFunctionCall) contentObj;
-            List<RTObject> funcParams = state.popEvaluationStack(func.getNumberOfParameters());
+            int paramCount = func.getNumberOfParameters();
+            List<RTObject> evalStack = state.getEvaluationStack();
+            int stackSize = evalStack.size();
+            RTObject result = null;
+
+            // Int, float and bool operations are computed in place, without
+            // building the parameters list
+            if (paramCount == 2 && stackSize >= 2) {
+                result = func.callPrimitive(evalStack.get(stackSize - 2), evalStack.get(stackSize - 1));
+            } else if (paramCount == 1 && stackSize >= 1) {
+                result = func.callPrimitive(evalStack.get(stackSize - 1), null);
+            }
+
+            if (result != null) {
+                for (int i = 0; i < paramCount; i++) state.popEvaluationStack();
+            } else {
+                List<RTObject> funcParams = state.popEvaluationStack(paramCount);
+                result = func.call(funcParams);
+            }
 
-            RTObject result = func.call(funcParams);
             state.pushEvaluationStack(result);
             return true;
         }
@@ -2341,6 +2487,8 @@ public class Story implements VariablesState.VariableChanged {
         // TODO: Could make this possible
         ifAsyncWeCant("ResetState");
 
+        compiledStory.prepareContent();
+
         state = new StoryState(this);
 
         state.getVariablesState().setVariableChangedEvent(this);
@@ -2348,9 +2496,28 @@ public class Story implements VariablesState.VariableChanged {
         resetGlobals();
     }
 
+    // Exact container at the given path or null if not found. Results are cached
+    // since they are used for divert target values.
+    Container containerAtPath(Path path) throws Exception {
+        Container container = containerAtPathCache.get(path);
+
+        if (container == null) {
+            RTObject obj = contentAtPath(path).correctObj();
+            container = obj instanceof Container ? (Container) obj : null;
+
+            if (container != null) containerAtPathCache.put(path, container);
+        }
+
+        return container;
+    }
+
+    // The returned pointer can be cached, so it must not be modified.
     Pointer pointerAtPath(Path path) throws Exception {
         if (path.getLength() == 0) return Pointer.Null;
 
+        Pointer cached = pointerAtPathCache.get(path);
+        if (cached != null) return cached;
+
         final Pointer p = new Pointer();
 
         int pathLengthToUse = path.getLength();
@@ -2372,6 +2539,7 @@ public class Story implements VariablesState.VariableChanged {
         else if (result.approximate)
             warning("Failed to find content at path '" + path + "', so it was approximated to: '" + result.obj.getPath()
                     + "'.");
+        else pointerAtPathCache.put(path, p);
 
         return p;
     }
@@ -2437,6 +2605,8 @@ public class Story implements VariablesState.VariableChanged {
             Choice choice = processChoice(choicePoint);
             if (choice != null) {
                 state.getGeneratedChoices().add(choice);
+
+                if (metrics != null) metrics.choiceGenerated();
             }
 
             currentContentObj = null;
@@ -2632,6 +2802,10 @@ public class Story implements VariablesState.VariableChanged {
     }
 
     void validateExternalBindings(Container c, HashSet<String> missingExternals) throws Exception {
+        // Knots of a lazily loaded story are checked when the functions are
+        // called
+        if (!c.isMaterialized()) return;
+
         for (RTObject innerContent : c.getContent()) {
             Container container = innerContent instanceof Container ? (Container) innerContent : null;
             if (container == null || !container.hasValidName())
@@ -2741,6 +2915,18 @@ public class Story implements VariablesState.VariableChanged {
         }
     }
 
+    int countIndexForContainer(Container container) {
+        return compiledStory.countIndexForContainer(container);
+    }
+
+    int getCountedContainersSize() {
+        return compiledStory.getCountedContainersSize();
+    }
+
+    Container getCountedContainer(int index) {
+        return compiledStory.getCountedContainer(index);
+    }
+
     // Mark a container as having been visited
     void visitContainer(Container container, boolean atStart) throws Exception {
         if (!container.getCountingAtStartOnly() || atStart) {
@@ -2807,8 +2993,6 @@ public class Story implements VariablesState.VariableChanged {
      * @throws Exception
      */
     public Object evaluateFunction(String functionName, StringBuilder textOutput, Object[] arguments) throws Exception {
-        ifAsyncWeCant("evaluate a function");
-
         if (functionName == null) {
             throw new Exception("Function is null");
         } else if (functionName.trim().isEmpty()) {
@@ -2819,18 +3003,52 @@ public class Story implements VariablesState.VariableChanged {
         Container funcContainer = knotContainerWithName(functionName);
         if (funcContainer == null) throw new Exception("Function doesn't exist: '" + functionName + "'");
 
+        return evaluateFunction(
+                funcContainer,
+                textOutput,
+                arguments,
+                new ArrayList<RTObject>(state.getOutputStream().size()));
+    }
+
+    /**
+     * Looks up a function defined in ink once, to call it many times with
+     * PreparedFunction.call(), which is faster than evaluateFunction().
+     *
+     * @param functionName The name of the function as declared in ink.
+     * @throws Exception if the function doesn't exist.
+     */
+    public PreparedFunction prepareFunction(String functionName) throws Exception {
+        Container funcContainer = functionName != null ? knotContainerWithName(functionName) : null;
+        if (funcContainer == null) throw new Exception("Function doesn't exist: '" + functionName + "'");
+
+        return new PreparedFunction(this, funcContainer, functionName);
+    }
+
+    Object evaluateFunction(
+            Container funcContainer, Appendable textOutput, Object[] arguments, ArrayList<RTObject> outputStreamBefore)
+            throws Exception {
+        ifAsyncWeCant("evaluate a function");
+
         // Snapshot the output stream
-        ArrayList<RTObject> outputStreamBefore = new ArrayList<>(state.getOutputStream());
+        outputStreamBefore.addAll(state.getOutputStream());
         state.resetOutput();
 
         // State will temporarily replace the callstack in order to evaluate
         state.startFunctionEvaluationFromGame(funcContainer, arguments);
 
-        // Evaluate the function, and collect the string output
-        while (canContinue()) {
-            String text = Continue();
+        // Without text output, there's no need to find where every line ends,
+        // so the whole function runs in one pass without lookahead snapshots.
+        boolean skipNewlineLookaheadBefore = skipNewlineLookahead;
+        skipNewlineLookahead = textOutput == null;
 
-            if (textOutput != null) textOutput.append(text);
+        try {
+            // Evaluate the function, and collect the string output
+            while (canContinue()) {
+                if (textOutput != null) continueTo(textOutput);
+                else continueAsync(0);
+            }
+        } finally {
+            skipNewlineLookahead = skipNewlineLookaheadBefore;
         }
 
         // Restore the output stream in case this was called
@@ -2849,6 +3067,8 @@ public class Story implements VariablesState.VariableChanged {
     void stateSnapshot() {
         stateSnapshotAtLastNewline = state;
         state = state.copyAndStartPatching(false);
+
+        if (metrics != null) metrics.snapshotTaken();
     }
 
     void restoreStateSnapshot() {
@@ -2862,11 +3082,13 @@ public class Story implements VariablesState.VariableChanged {
         state = stateSnapshotAtLastNewline;
         stateSnapshotAtLastNewline = null;
 
+        if (metrics != null) metrics.snapshotRestored();
+
         // If save completed while the above snapshot was
         // active, we need to apply any changes made since
         // the save was started but before the snapshot was made.
         if (!asyncSaving) {
-            state.applyAnyPatch();
+            applyAnyPatch();
         }
     }
 
@@ -2876,7 +3098,7 @@ public class Story implements VariablesState.VariableChanged {
         // However, if we're in the middle of async
         // saving, we simply stay in a "patching" state,
         // albeit with the newer cloned patch.
-        if (!asyncSaving) state.applyAnyPatch();
+        if (!asyncSaving) applyAnyPatch();
 
         // No longer need the snapshot.
         stateSnapshotAtLastNewline = null;
@@ -2920,9 +3142,13 @@ public class Story implements VariablesState.VariableChanged {
         // apply the looked-ahead changes OR it may simply apply the changes
         // made during the save process to the old _stateSnapshotAtLastNewline state.
         if (stateSnapshotAtLastNewline == null) {
-            state.applyAnyPatch();
+            applyAnyPatch();
         }
 
         asyncSaving = false;
     }
+
+    private void applyAnyPatch() {
+        if (state.applyAnyPatch() && metrics != null) metrics.patchApplied();
+    }
 }
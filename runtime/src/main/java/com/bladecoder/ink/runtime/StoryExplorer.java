@@ -0,0 +1,330 @@
+package com.bladecoder.ink.runtime;
+
+import com.bladecoder.ink.runtime.Error.ErrorType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Takes every choice of a story, breadth-first, to find the containers that
+ * can't be reached and the states where the story stops. To use:
+ *
+ * StoryExplorer.Options options = new StoryExplorer.Options();
+ * options.maxStates = 100000;
+ *
+ * ExplorationResult result = new StoryExplorer(story, options).explore();
+ *
+ * The exploration starts from the current state of the given story, which
+ * isn't modified. States are deduplicated by StoryState.canonicalHash(), so
+ * choices that lead to the same state (e.g. a hub visited through different
+ * paths) are only expanded once. Visit counts are part of the state, so every
+ * lap of a loop is a new state: use maxDepth or maxStates to bound them.
+ *
+ * The states of every level are expanded in parallel, each thread with its own
+ * Story session over the shared CompiledStory.
+ *
+ * Only the containers whose visits are counted are tracked, so the story
+ * should be compiled counting all visits (inklecate -c) to get the full
+ * coverage.
+ */
+public class StoryExplorer {
+
+    /**
+     * Largest supported maxStates. The visited set keeps twice as many slots.
+     */
+    public static final int MAX_STATES = 1 << 29;
+
+    public static class Options {
+        /**
+         * Worker threads. Defaults to the available processors.
+         */
+        public int threads = Runtime.getRuntime().availableProcessors();
+        /**
+         * Size of the visited set. The exploration stops taking new states
+         * once it's full, which bounds the memory used to about 16 bytes per
+         * state plus the saved states of the frontier. At most MAX_STATES.
+         */
+        public int maxStates = 1000000;
+        /**
+         * Maximum number of choices from the start state.
+         */
+        public int maxDepth = Integer.MAX_VALUE;
+        /**
+         * Maximum number of dead ends recorded in the result. They're all
+         * counted anyway.
+         */
+        public int maxDeadEnds = 1000;
+
+        public boolean allowExternalFunctionFallbacks = true;
+    }
+
+    private final CompiledStory compiledStory;
+    private final Options options;
+    private final byte[] startState;
+
+    private VisitedSet visited;
+    private ExplorationResult result;
+
+    public StoryExplorer(Story story, Options options) throws Exception {
+        this.compiledStory = story.getCompiledStory();
+        this.options = options != null ? options : new Options();
+
+        checkMaxStates(this.options.maxStates);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        story.getState().toBinary(out);
+        startState = out.toByteArray();
+    }
+
+    public ExplorationResult explore() throws Exception {
+        long startTime = System.nanoTime();
+
+        visited = new VisitedSet(options.maxStates);
+        result = new ExplorationResult();
+
+        int threads = Math.max(1, options.threads);
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) workers.add(new Worker());
+
+        List<Node> frontier = new ArrayList<>();
+        Node start = workers.get(0).startNode();
+        if (start != null) frontier.add(start);
+
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+
+        try {
+            int depth = 0;
+
+            while (!frontier.isEmpty()) {
+                if (depth == options.maxDepth) {
+                    result.truncated = true;
+                    break;
+                }
+
+                frontier = expand(frontier, workers, executor);
+                depth++;
+                result.depth = depth;
+            }
+        } finally {
+            if (executor != null) executor.shutdownNow();
+        }
+
+        BitSet covered = new BitSet();
+        for (Worker w : workers) covered.or(w.covered);
+
+        result.states = visited.size();
+        if (visited.isFull()) result.truncated = true;
+
+        result.finish(compiledStory, covered, System.nanoTime() - startTime);
+
+        return result;
+    }
+
+    // Expands one level of the search, returning the next one.
+    private List<Node> expand(final List<Node> frontier, List<Worker> workers, ExecutorService executor)
+            throws Exception {
+        final AtomicInteger next = new AtomicInteger();
+
+        if (executor == null) {
+            workers.get(0).expand(frontier, next);
+        } else {
+            List<Future<Void>> futures = new ArrayList<>();
+
+            for (final Worker w : workers) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        w.expand(frontier, next);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+
+        List<Node> nextFrontier = new ArrayList<>();
+
+        for (Worker w : workers) {
+            nextFrontier.addAll(w.children);
+            w.children.clear();
+        }
+
+        return nextFrontier;
+    }
+
+    private static class Node {
+        final byte[] state;
+        final int[] choices;
+
+        Node(byte[] state, int[] choices) {
+            this.state = state;
+            this.choices = choices;
+        }
+    }
+
+    // Every worker plays its own Story session. It's only used by one thread
+    // at a time since the levels of the search are joined.
+    private class Worker {
+        final Story story;
+        final BitSet covered = new BitSet();
+        final List<Node> children = new ArrayList<>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        String error;
+
+        Worker() throws Exception {
+            story = compiledStory.createStory();
+            story.setAllowExternalFunctionFallbacks(options.allowExternalFunctionFallbacks);
+            story.onError = new Error.ErrorHandler() {
+                @Override
+                public void error(String message, ErrorType type) {
+                    if (type == ErrorType.Error && error == null) error = message;
+                }
+            };
+        }
+
+        Node startNode() throws Exception {
+            load(startState);
+            return afterChoice(new int[0]);
+        }
+
+        void expand(List<Node> frontier, AtomicInteger next) throws Exception {
+            int i;
+            while ((i = next.getAndIncrement()) < frontier.size()) {
+                Node node = frontier.get(i);
+
+                load(node.state);
+                int choiceCount = story.getCurrentChoices().size();
+
+                for (int c = 0; c < choiceCount; c++) {
+                    if (c > 0) load(node.state);
+
+                    story.chooseChoiceIndex(c);
+
+                    int[] choices = new int[node.choices.length + 1];
+                    System.arraycopy(node.choices, 0, choices, 0, node.choices.length);
+                    choices[node.choices.length] = c;
+
+                    Node child = afterChoice(choices);
+                    if (child != null) children.add(child);
+                }
+            }
+        }
+
+        // Continues to the next choices. Returns the node for the new state, or
+        // null if it was already visited or the story stopped there.
+        private Node afterChoice(int[] choices) throws Exception {
+            error = null;
+
+            try {
+                while (story.canContinue() && error == null) story.Continue();
+            } catch (StoryException e) {
+                if (error == null) error = e.getMessage();
+            }
+
+            StoryState state = story.getState();
+
+            int counted = compiledStory.getCountedContainersSize();
+            for (int i = 0; i < counted; i++) {
+                if (state.visitCountAtIndex(i) > 0) covered.set(i);
+            }
+
+            if (!visited.add(state.canonicalHash())) return null;
+
+            if (error != null || story.getCurrentChoices().isEmpty()) {
+                result.addDeadEnd(choices, PlaythroughRunner.endingName(state), error, options.maxDeadEnds);
+                return null;
+            }
+
+            out.reset();
+            state.toBinary(out);
+
+            return new Node(out.toByteArray(), choices);
+        }
+
+        private void load(byte[] bytes) throws Exception {
+            story.getState().loadBinary(new ByteArrayInputStream(bytes));
+        }
+    }
+
+    private static void checkMaxStates(int maxStates) {
+        if (maxStates < 1 || maxStates > MAX_STATES)
+            throw new IllegalArgumentException(
+                    "maxStates must be between 1 and " + MAX_STATES + ", but it is " + maxStates);
+    }
+
+    // Lock-free open addressing set of state hashes. It never grows: once it
+    // holds maxStates hashes every new state is reported as already visited.
+    private static class VisitedSet {
+        private final AtomicLongArray table;
+        private final int mask;
+        private final int maxSize;
+        private final AtomicInteger size = new AtomicInteger();
+        private volatile boolean full;
+
+        VisitedSet(int maxSize) {
+            checkMaxStates(maxSize);
+
+            int capacity = Math.min(1 << 30, Integer.highestOneBit(Math.max(2, maxSize) * 2 - 1) << 1);
+
+            this.maxSize = maxSize;
+            table = new AtomicLongArray(capacity);
+            mask = capacity - 1;
+        }
+
+        // Returns true if the hash wasn't in the set.
+        boolean add(long hash) {
+            // 0 marks the empty slots
+            if (hash == 0) hash = 1;
+
+            int i = (int) (hash ^ (hash >>> 32)) & mask;
+
+            while (true) {
+                long current = table.get(i);
+
+                if (current == hash) return false;
+
+                if (current == 0) {
+                    if (size.get() >= maxSize) {
+                        full = true;
+                        return false;
+                    }
+
+                    if (table.compareAndSet(i, 0, hash)) {
+                        size.incrementAndGet();
+                        return true;
+                    }
+
+                    // Another thread took the slot, check it again
+                    continue;
+                }
+
+                i = (i + 1) & mask;
+            }
+        }
+
+        int size() {
+            return size.get();
+        }
+
+        boolean isFull() {
+            return full;
+        }
+    }
+}
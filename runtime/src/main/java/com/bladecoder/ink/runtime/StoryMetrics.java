@@ -0,0 +1,221 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Lightweight counters of the work done by a Story, cheap enough to be left on
+ * in production. To use:
+ *
+ * StoryMetrics metrics = story.startMetrics(listener);
+ *
+ * (play your story, the listener is called after every Continue)
+ *
+ * story.endMetrics();
+ *
+ * The counters are plain longs updated by the Story, so a StoryMetrics must
+ * only be read from the thread running its Story (e.g. from the listener). When
+ * metrics aren't started the Story doesn't record anything.
+ */
+public class StoryMetrics {
+
+    public enum Counter {
+        /**
+         * Calls to Continue, including every slice of continueAsync and the
+         * evaluation of functions from the game.
+         */
+        CONTINUES,
+        /**
+         * Content objects evaluated.
+         */
+        STEPS,
+        SNAPSHOTS_TAKEN,
+        SNAPSHOTS_RESTORED,
+        SNAPSHOTS_DISCARDED,
+        /**
+         * State patches applied to the main globals and counts.
+         */
+        PATCHES_APPLIED,
+        CHOICES_GENERATED,
+        /**
+         * Calls to bound external functions.
+         */
+        EXTERNAL_CALLS,
+        /**
+         * Wall time in Continue.
+         */
+        CONTINUE_NANOS,
+        /**
+         * Wall time evaluating content, including external functions.
+         */
+        STEP_NANOS,
+        /**
+         * Wall time taking, restoring and discarding snapshots for the glue
+         * lookahead.
+         */
+        SNAPSHOT_NANOS,
+        /**
+         * Wall time in external functions.
+         */
+        EXTERNAL_NANOS
+    }
+
+    /**
+     * Receives the metrics after every Continue, e.g. to feed latency and work
+     * histograms.
+     */
+    public interface Listener {
+        void continueComplete(StoryMetrics metrics) throws Exception;
+    }
+
+    private static final int CONTINUES = Counter.CONTINUES.ordinal();
+    private static final int STEPS = Counter.STEPS.ordinal();
+    private static final int SNAPSHOTS_TAKEN = Counter.SNAPSHOTS_TAKEN.ordinal();
+    private static final int SNAPSHOTS_RESTORED = Counter.SNAPSHOTS_RESTORED.ordinal();
+    private static final int SNAPSHOTS_DISCARDED = Counter.SNAPSHOTS_DISCARDED.ordinal();
+    private static final int PATCHES_APPLIED = Counter.PATCHES_APPLIED.ordinal();
+    private static final int CHOICES_GENERATED = Counter.CHOICES_GENERATED.ordinal();
+    private static final int EXTERNAL_CALLS = Counter.EXTERNAL_CALLS.ordinal();
+    private static final int CONTINUE_NANOS = Counter.CONTINUE_NANOS.ordinal();
+    private static final int STEP_NANOS = Counter.STEP_NANOS.ordinal();
+    private static final int SNAPSHOT_NANOS = Counter.SNAPSHOT_NANOS.ordinal();
+    private static final int EXTERNAL_NANOS = Counter.EXTERNAL_NANOS.ordinal();
+
+    private final Listener listener;
+
+    private final long[] totals = new long[Counter.values().length];
+    private final long[] continueStart = new long[totals.length];
+    private final long[] lastContinue = new long[totals.length];
+
+    private int maxEvalStackDepth;
+    private int continueMaxEvalStackDepth;
+    private int lastContinueMaxEvalStackDepth;
+
+    private long continueStartTime;
+    private long stepStartTime;
+    private long snapshotStartTime;
+
+    StoryMetrics(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The value of a counter since the metrics were started or reset.
+     */
+    public long getTotal(Counter counter) {
+        return totals[counter.ordinal()];
+    }
+
+    /**
+     * The value of a counter during the last Continue.
+     */
+    public long getLastContinue(Counter counter) {
+        return lastContinue[counter.ordinal()];
+    }
+
+    /**
+     * The deepest evaluation stack seen since the metrics were started or reset.
+     */
+    public int getMaxEvalStackDepth() {
+        return maxEvalStackDepth;
+    }
+
+    /**
+     * The deepest evaluation stack seen during the last Continue.
+     */
+    public int getLastContinueMaxEvalStackDepth() {
+        return lastContinueMaxEvalStackDepth;
+    }
+
+    /**
+     * Sets all the counters to zero.
+     */
+    public void reset() {
+        Arrays.fill(totals, 0);
+        Arrays.fill(continueStart, 0);
+        Arrays.fill(lastContinue, 0);
+        maxEvalStackDepth = 0;
+        continueMaxEvalStackDepth = 0;
+        lastContinueMaxEvalStackDepth = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (Counter c : Counter.values()) {
+            sb.append(c).append(": ").append(totals[c.ordinal()]).append('\n');
+        }
+
+        sb.append("MAX_EVAL_STACK_DEPTH: ").append(maxEvalStackDepth).append('\n');
+
+        return sb.toString();
+    }
+
+    // Nested Continues (e.g. ink calling the game calling ink) are recorded as
+    // part of the outermost one, so the Story only calls these for it.
+
+    void preContinue() {
+        System.arraycopy(totals, 0, continueStart, 0, totals.length);
+        continueMaxEvalStackDepth = 0;
+        continueStartTime = System.nanoTime();
+    }
+
+    void postContinue() throws Exception {
+        totals[CONTINUE_NANOS] += System.nanoTime() - continueStartTime;
+        totals[CONTINUES]++;
+
+        for (int i = 0; i < totals.length; i++) lastContinue[i] = totals[i] - continueStart[i];
+
+        lastContinueMaxEvalStackDepth = continueMaxEvalStackDepth;
+
+        if (listener != null) listener.continueComplete(this);
+    }
+
+    void preStep() {
+        stepStartTime = System.nanoTime();
+    }
+
+    void postStep(int evalStackDepth) {
+        totals[STEP_NANOS] += System.nanoTime() - stepStartTime;
+        totals[STEPS]++;
+
+        if (evalStackDepth > continueMaxEvalStackDepth) {
+            continueMaxEvalStackDepth = evalStackDepth;
+
+            if (evalStackDepth > maxEvalStackDepth) maxEvalStackDepth = evalStackDepth;
+        }
+    }
+
+    void preSnapshot() {
+        snapshotStartTime = System.nanoTime();
+    }
+
+    void postSnapshot() {
+        totals[SNAPSHOT_NANOS] += System.nanoTime() - snapshotStartTime;
+    }
+
+    void snapshotTaken() {
+        totals[SNAPSHOTS_TAKEN]++;
+    }
+
+    void snapshotRestored() {
+        totals[SNAPSHOTS_RESTORED]++;
+    }
+
+    void snapshotDiscarded() {
+        totals[SNAPSHOTS_DISCARDED]++;
+    }
+
+    void patchApplied() {
+        totals[PATCHES_APPLIED]++;
+    }
+
+    void choiceGenerated() {
+        totals[CHOICES_GENERATED]++;
+    }
+
+    void externalCall(long nanos) {
+        totals[EXTERNAL_CALLS]++;
+        totals[EXTERNAL_NANOS] += nanos;
+    }
+}
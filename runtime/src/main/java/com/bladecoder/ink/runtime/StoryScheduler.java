@@ -0,0 +1,327 @@
+package com.bladecoder.ink.runtime;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many Story sessions on a pool of worker threads, a slice at a time,
+ * so a long turn of one session doesn't delay the others. To use:
+ *
+ * StoryScheduler scheduler = new StoryScheduler(new StoryScheduler.Options());
+ *
+ * StoryScheduler.Session session = scheduler.addSession(compiledStory.createStory());
+ *
+ * session.continueTurn(listener);
+ *
+ * A turn continues the story until it has choices or ends. Every slice of a
+ * turn evaluates the story until the time or step budget of the options runs
+ * out, and then the session goes back to the end of the queue, so the
+ * sessions are served round robin. When the turn is complete the listener is
+ * called, from a worker thread, with the text of the turn.
+ *
+ * A session runs in one thread at a time: from continueTurn() until its
+ * listener returns, the story belongs to the scheduler and must not be used
+ * by other threads.
+ *
+ * On Java 21 or later every slice runs in a virtual thread, otherwise in a
+ * fixed pool of platform threads.
+ */
+public class StoryScheduler {
+
+    public static class Options {
+        /**
+         * Platform worker threads, when virtual threads aren't used. Defaults
+         * to the available processors.
+         */
+        public int threads = Runtime.getRuntime().availableProcessors();
+        /**
+         * Runs the slices in virtual threads when the JVM supports them.
+         */
+        public boolean virtualThreads = true;
+        /**
+         * Time budget of a slice. 0 for no time limit.
+         */
+        public float sliceMillis = 1;
+        /**
+         * Step budget of a slice, which doesn't depend on the load of the
+         * machine. 0 for no step limit.
+         */
+        public int sliceSteps;
+    }
+
+    public interface TurnListener {
+        /**
+         * Called from a worker thread when the story of the session can't
+         * continue any more: it has choices, has ended, or has thrown the
+         * given error. The story can be used until this returns.
+         *
+         * @return the index of the choice to take, which starts a new turn
+         *         with the same listener, or -1 to wait for
+         *         Session.chooseChoiceIndex().
+         */
+        int turnComplete(Session session, String text, Exception error);
+    }
+
+    public interface ListenerErrorHandler {
+        /**
+         * Called from a worker thread when a TurnListener throws. The turn is
+         * over and the session can start a new one.
+         */
+        void listenerFailed(Session session, RuntimeException e);
+    }
+
+    public class Session {
+        private final Story story;
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final StringBuilder text = new StringBuilder();
+
+        private TurnListener listener;
+        private int pendingChoiceIdx = -1;
+        private long turnStartNanos;
+        private long enqueuedNanos;
+
+        // Only written by the thread running the session
+        private volatile long queueNanos;
+        private volatile long slices;
+
+        private Session(Story story) {
+            this.story = story;
+        }
+
+        public Story getStory() {
+            return story;
+        }
+
+        /**
+         * True from the start of a turn until its listener returns.
+         */
+        public boolean isRunning() {
+            return running.get();
+        }
+
+        /**
+         * Continues the story until it has choices or ends.
+         *
+         * @throws IllegalStateException
+         *             if the session is already running a turn.
+         */
+        public void continueTurn(TurnListener listener) {
+            start(-1, listener);
+        }
+
+        /**
+         * Takes the choice and continues the story until it has choices or
+         * ends. The choice is taken in a worker thread.
+         *
+         * @throws IllegalStateException
+         *             if the session is already running a turn.
+         */
+        public void chooseChoiceIndex(int choiceIdx, TurnListener listener) {
+            start(choiceIdx, listener);
+        }
+
+        private void start(int choiceIdx, TurnListener listener) {
+            if (!running.compareAndSet(false, true))
+                throw new IllegalStateException("The session is already running a turn");
+
+            this.listener = listener;
+            pendingChoiceIdx = choiceIdx;
+            turnStartNanos = System.nanoTime();
+
+            submit(this);
+        }
+    }
+
+    private final Options options;
+    private final ExecutorService executor;
+    private final Set<Session> sessions = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final LatencyHistogram turnLatency = new LatencyHistogram();
+    private final AtomicLong slices = new AtomicLong();
+    private final AtomicLong failedTurns = new AtomicLong();
+
+    private volatile ListenerErrorHandler listenerErrorHandler;
+
+    public StoryScheduler(Options options) {
+        this.options = options != null ? options : new Options();
+        executor = createExecutor(this.options);
+    }
+
+    /**
+     * Adds a session. The story must not be shared with other sessions, but
+     * all of them can be created from the same CompiledStory.
+     */
+    public Session addSession(Story story) {
+        Session session = new Session(story);
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Removes the session from the stats. A turn already running finishes.
+     */
+    public void removeSession(Session session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * Handles the exceptions thrown by the turn listeners, which the worker
+     * threads can't report to anybody. Without a handler their stack trace is
+     * printed to System.err. They're counted in the stats anyway.
+     */
+    public void setListenerErrorHandler(ListenerErrorHandler handler) {
+        listenerErrorHandler = handler;
+    }
+
+    public SchedulerStats getStats() {
+        // Jain's index: (sum x)^2 / (n * sum x^2)
+        double sum = 0;
+        double sumOfSquares = 0;
+        int n = 0;
+
+        for (Session session : sessions) {
+            long sessionSlices = session.slices;
+            if (sessionSlices == 0) continue;
+
+            double meanQueueNanos = (double) session.queueNanos / sessionSlices;
+            sum += meanQueueNanos;
+            sumOfSquares += meanQueueNanos * meanQueueNanos;
+            n++;
+        }
+
+        double fairness = sumOfSquares > 0 ? sum * sum / (n * sumOfSquares) : 1;
+
+        return new SchedulerStats(
+                sessions.size(), queueLatency, turnLatency, slices.get(), failedTurns.get(), fairness);
+    }
+
+    /**
+     * Stops the workers, waiting for the slices already queued.
+     */
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private void submit(final Session session) {
+        session.enqueuedNanos = System.nanoTime();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runSlice(session);
+            }
+        });
+    }
+
+    private void runSlice(Session session) {
+        long startTime = System.nanoTime();
+        long waited = startTime - session.enqueuedNanos;
+
+        queueLatency.add(waited);
+        session.queueNanos += waited;
+        session.slices++;
+        slices.incrementAndGet();
+
+        Story story = session.story;
+        Exception error = null;
+
+        try {
+            if (session.pendingChoiceIdx >= 0) {
+                int choiceIdx = session.pendingChoiceIdx;
+                session.pendingChoiceIdx = -1;
+                story.chooseChoiceIndex(choiceIdx);
+            }
+
+            while (story.canContinue()) {
+                float millisLeft = 0;
+
+                if (options.sliceMillis > 0) {
+                    millisLeft = options.sliceMillis - (System.nanoTime() - startTime) / 1e6f;
+                    if (millisLeft <= 0) break;
+                }
+
+                story.continueAsync(millisLeft, options.sliceSteps);
+
+                if (!story.asyncContinueComplete()) break;
+
+                session.text.append(story.getCurrentText());
+            }
+        } catch (Exception e) {
+            error = e;
+        }
+
+        if (error == null && story.canContinue()) {
+            // Out of budget, back to the end of the queue
+            submit(session);
+            return;
+        }
+
+        completeTurn(session, error);
+    }
+
+    private void completeTurn(Session session, Exception error) {
+        turnLatency.add(System.nanoTime() - session.turnStartNanos);
+
+        String text = session.text.toString();
+        session.text.setLength(0);
+
+        int choiceIdx;
+        try {
+            choiceIdx = session.listener.turnComplete(session, text, error);
+        } catch (RuntimeException e) {
+            // Rethrowing would only end in the executor, where nobody sees it
+            failedTurns.incrementAndGet();
+            session.running.set(false);
+            listenerFailed(session, e);
+            return;
+        }
+
+        if (choiceIdx < 0) {
+            session.running.set(false);
+            return;
+        }
+
+        // The session keeps running, so nobody can start a turn in between
+        session.pendingChoiceIdx = choiceIdx;
+        session.turnStartNanos = System.nanoTime();
+
+        submit(session);
+    }
+
+    private void listenerFailed(Session session, RuntimeException e) {
+        ListenerErrorHandler handler = listenerErrorHandler;
+
+        if (handler == null) {
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            handler.listenerFailed(session, e);
+        } catch (RuntimeException handlerError) {
+            handlerError.printStackTrace();
+        }
+    }
+
+    private static ExecutorService createExecutor(Options options) {
+        if (options.virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Before Java 21
+            }
+        }
+
+        return Executors.newFixedThreadPool(Math.max(1, options.threads));
+    }
+}
@@ -3,8 +3,11 @@ package com.bladecoder.ink.runtime;
 import com.bladecoder.ink.runtime.CallStack.Element;
 import com.bladecoder.ink.runtime.SimpleJson.InnerWriter;
 import com.bladecoder.ink.runtime.SimpleJson.Writer;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,13 +49,30 @@ public class StoryState {
     private int currentTurnIndex;
     private boolean didSafeExit;
     private final Pointer divertedPointer = new Pointer();
+    // Where the last forceEnd happened, since it clears the previous pointer.
+    // Only meaningful for the session that ended, so it's not saved: a loaded
+    // state has a null end pointer.
+    private final Pointer endPointer = new Pointer();
     private List<RTObject> evaluationStack;
     private final Story story;
     private int storySeed;
     private int previousRandom;
-    private HashMap<String, Integer> turnIndices;
     private VariablesState variablesState;
-    private HashMap<String, Integer> visitCounts;
+
+    // Visit counts and turn indices, indexed by Container.countIndex. Arrays
+    // are grown on demand so copies for patching don't need to allocate them.
+    private int[] visitCounts;
+    private int[] turnIndices;
+
+    private static final int[] EMPTY_COUNTS = new int[0];
+
+    // Value in turnIndices for containers that have never been visited.
+    private static final int NO_TURN_INDEX = Integer.MIN_VALUE;
+
+    // Counts at the last checkpoint, the base for delta saves. Null means that
+    // the base is the initial state of the story.
+    private int[] checkpointVisitCounts;
+    private int[] checkpointTurnIndices;
     private String currentText;
 
     private boolean outputStreamTextDirty = true;
@@ -75,12 +95,12 @@ public class StoryState {
         outputStreamDirty();
         aliveFlowNamesDirty = true;
 
-        evaluationStack = new ArrayList<>();
+        evaluationStack = new CopyOnWriteList<>();
 
         variablesState = new VariablesState(getCallStack(), story.getListDefinitions());
 
-        visitCounts = new HashMap<>();
-        turnIndices = new HashMap<>();
+        visitCounts = EMPTY_COUNTS;
+        turnIndices = EMPTY_COUNTS;
         currentTurnIndex = -1;
 
         // Seed the shuffle random numbers
@@ -123,7 +143,7 @@ public class StoryState {
         // _namedFlows
         copy.currentFlow.name = currentFlow.name;
         copy.currentFlow.callStack = new CallStack(currentFlow.callStack);
-        copy.currentFlow.outputStream.addAll(currentFlow.outputStream);
+        copy.currentFlow.outputStream = CopyOnWriteList.copyOf(currentFlow.outputStream);
         copy.outputStreamDirty();
 
         // When background saving we need to make copies of choices since they each have
@@ -134,7 +154,7 @@ public class StoryState {
         if (forBackgroundSave) {
             for (Choice choice : currentFlow.currentChoices) copy.currentFlow.currentChoices.add(choice.clone());
         } else {
-            copy.currentFlow.currentChoices.addAll(currentFlow.currentChoices);
+            copy.currentFlow.currentChoices = CopyOnWriteList.copyOf(currentFlow.currentChoices);
         }
 
         // The copy of the state has its own copy of the named flows dictionary,
@@ -166,9 +186,10 @@ public class StoryState {
         copy.variablesState.setCallStack(copy.getCallStack());
         copy.variablesState.setPatch(copy.patch);
 
-        copy.evaluationStack.addAll(evaluationStack);
+        copy.evaluationStack = CopyOnWriteList.copyOf(evaluationStack);
 
         if (!divertedPointer.isNull()) copy.divertedPointer.assign(divertedPointer);
+        if (!endPointer.isNull()) copy.endPointer.assign(endPointer);
 
         copy.setPreviousPointer(getPreviousPointer());
 
@@ -177,6 +198,9 @@ public class StoryState {
         copy.visitCounts = visitCounts;
         copy.turnIndices = turnIndices;
 
+        copy.checkpointVisitCounts = checkpointVisitCounts;
+        copy.checkpointTurnIndices = checkpointTurnIndices;
+
         copy.currentTurnIndex = currentTurnIndex;
         copy.storySeed = storySeed;
         copy.previousRandom = previousRandom;
@@ -197,28 +221,14 @@ public class StoryState {
     String getCurrentText() {
         if (outputStreamTextDirty) {
             StringBuilder sb = new StringBuilder();
-            boolean inTag = false;
 
-            for (RTObject outputObj : getOutputStream()) {
-                StringValue textContent = null;
-                if (outputObj instanceof StringValue) textContent = (StringValue) outputObj;
-
-                if (!inTag && textContent != null) {
-                    sb.append(textContent.value);
-                } else {
-                    if (outputObj instanceof ControlCommand) {
-                        ControlCommand controlCommand = (ControlCommand) outputObj;
-
-                        if (controlCommand.getCommandType() == ControlCommand.CommandType.BeginTag) {
-                            inTag = true;
-                        } else if (controlCommand.getCommandType() == ControlCommand.CommandType.EndTag) {
-                            inTag = false;
-                        }
-                    }
-                }
+            try {
+                writeCurrentText(sb);
+            } catch (IOException e) {
+                // A StringBuilder doesn't throw
             }
 
-            currentText = cleanOutputWhitespace(sb.toString());
+            currentText = sb.toString();
 
             outputStreamTextDirty = false;
         }
@@ -226,6 +236,63 @@ public class StoryState {
         return currentText;
     }
 
+    /**
+     * Appends the text of the output stream, cleaned like getCurrentText(),
+     * without building it as a String first. The whitespace is cleaned as the
+     * text is appended.
+     */
+    void appendCurrentText(Appendable out) throws IOException {
+        if (!outputStreamTextDirty) out.append(currentText);
+        else writeCurrentText(out);
+    }
+
+    // The text of the output stream, out of tags, with the whitespace cleaned
+    // as in cleanOutputWhitespace() in the same pass.
+    private void writeCurrentText(Appendable out) throws IOException {
+        boolean inTag = false;
+
+        boolean atStartOfLine = true;
+        boolean inWhitespace = false;
+        boolean whitespaceAtStartOfLine = false;
+
+        for (RTObject outputObj : getOutputStream()) {
+            if (outputObj instanceof StringValue) {
+                if (inTag) continue;
+
+                String str = ((StringValue) outputObj).value;
+
+                for (int i = 0; i < str.length(); i++) {
+                    char c = str.charAt(i);
+
+                    if (c == ' ' || c == '\t') {
+                        if (!inWhitespace) {
+                            inWhitespace = true;
+                            whitespaceAtStartOfLine = atStartOfLine;
+                        }
+
+                        continue;
+                    }
+
+                    // Runs of whitespace become a single space, unless at the
+                    // start or the end of a line
+                    if (inWhitespace && c != '\n' && !whitespaceAtStartOfLine) out.append(' ');
+
+                    inWhitespace = false;
+                    atStartOfLine = c == '\n';
+                    out.append(c);
+                }
+            } else if (outputObj instanceof ControlCommand) {
+                ControlCommand controlCommand = (ControlCommand) outputObj;
+
+                if (controlCommand.getCommandType() == ControlCommand.CommandType.BeginTag) {
+                    inTag = true;
+                } else if (controlCommand.getCommandType() == ControlCommand.CommandType.EndTag) {
+                    inTag = false;
+                }
+            }
+        }
+    }
+
     /**
      * Cleans inline whitespace in the following way: - Removes all whitespace from
      * the start and end of line (including just before a \n) - Turns all
@@ -267,6 +334,8 @@ public class StoryState {
      * where it left off. Calling this is equivalent to calling -&gt; END in ink.
      */
     public void forceEnd() throws Exception {
+        Pointer pointer = getCurrentPointer();
+        endPointer.assign(pointer == null || pointer.isNull() ? getPreviousPointer() : pointer);
 
         getCallStack().reset();
 
@@ -427,12 +496,16 @@ public class StoryState {
         return getCallStack().getCurrentElement().inExpressionEvaluation;
     }
 
+    Pointer getEndPointer() {
+        return endPointer;
+    }
+
     Pointer getPreviousPointer() {
         return getCallStack().getcurrentThread().previousPointer;
     }
 
     void goToStart() {
-        getCallStack().getCurrentElement().currentPointer.assign(Pointer.startOf(story.getMainContentContainer()));
+        getCallStack().setCurrentPointer(Pointer.startOf(story.getMainContentContainer()));
     }
 
     void switchFlowInternal(String flowName) throws Exception {
@@ -508,6 +581,48 @@ public class StoryState {
         loadJsonObj(jObject);
     }
 
+    /**
+     * Loads a previously saved state in JSON format from an UTF-8 stream, such as
+     * the one written by toJson(OutputStream).
+     *
+     * @param stream The stream to read the JSON from.
+     */
+    public void loadJson(InputStream stream) throws Exception {
+        HashMap<String, Object> jObject = SimpleJson.streamToDictionary(stream);
+        loadJsonObj(jObject);
+    }
+
+    /**
+     * Loads a previously saved state in the binary format written by toBinary().
+     * The stream may be read beyond the end of the saved state.
+     *
+     * @param stream The stream to read from.
+     */
+    public void loadBinary(InputStream stream) throws Exception {
+        HashMap<String, Object> jObject = BinaryJson.readDictionary(stream);
+        loadJsonObj(jObject);
+    }
+
+    /**
+     * Applies a delta written by toJsonDelta() onto the current state, which
+     * must be the state the delta was written from.
+     *
+     * @param json The delta in json format.
+     */
+    public void applyJsonDelta(String json) throws Exception {
+        HashMap<String, Object> jObject = SimpleJson.textToDictionary(json);
+        loadJsonObj(jObject, true);
+    }
+
+    /**
+     * Applies a delta written by toBinaryDelta() onto the current state, which
+     * must be the state the delta was written from.
+     */
+    public void applyBinaryDelta(InputStream stream) throws Exception {
+        HashMap<String, Object> jObject = BinaryJson.readDictionary(stream);
+        loadJsonObj(jObject, true);
+    }
+
     List<Choice> getCurrentChoices() {
         // If we can continue generating text content rather than choices,
         // then we reflect the choice list as being empty, since choices
@@ -754,7 +869,8 @@ public class StoryState {
                         for (int i = callstackElements.size() - 1; i >= 0; i--) {
                             Element el = callstackElements.get(i);
                             if (el.type == PushPopType.Function) {
-                                el.functionStartInOuputStream = -1;
+                                if (el.functionStartInOuputStream != -1)
+                                    getCallStack().getElementForWrite(i).functionStartInOuputStream = -1;
                             } else {
                                 break;
                             }
@@ -825,7 +941,7 @@ public class StoryState {
 
     void startFunctionEvaluationFromGame(Container funcContainer, Object[] arguments) throws Exception {
         getCallStack().push(PushPopType.FunctionEvaluationFromGame, evaluationStack.size());
-        getCallStack().getCurrentElement().currentPointer.assign(Pointer.startOf(funcContainer));
+        getCallStack().setCurrentPointer(Pointer.startOf(funcContainer));
 
         passArgumentsToEvaluationStack(arguments);
     }
@@ -908,15 +1024,15 @@ public class StoryState {
     }
 
     void setCurrentPointer(Pointer value) {
-        getCallStack().getCurrentElement().currentPointer.assign(value);
+        getCallStack().setCurrentPointer(value);
     }
 
     void setInExpressionEvaluation(boolean value) {
-        getCallStack().getCurrentElement().inExpressionEvaluation = value;
+        getCallStack().setInExpressionEvaluation(value);
     }
 
     void setPreviousPointer(Pointer value) {
-        getCallStack().getcurrentThread().previousPointer.assign(value);
+        getCallStack().setPreviousPointer(value);
     }
 
     /**
@@ -942,6 +1058,173 @@ public class StoryState {
         writeJson(writer);
     }
 
+    /**
+     * Exports the current state to a compact binary format, in order to save the
+     * game. It holds the same data as toJson() and it can be loaded back with
+     * loadBinary().
+     *
+     * @param stream The stream to write to, such as a FileOutputStream.
+     */
+    public void toBinary(OutputStream stream) throws Exception {
+        BinaryJson.Writer writer = new BinaryJson.Writer(stream);
+        writeJson(writer);
+    }
+
+    /**
+     * A 64-bit hash of everything that affects how the story goes on from the
+     * current state: the callstack and choices of the current flow, the global
+     * variables, the visit counts, the turns since the counted containers were
+     * visited and the random seed.
+     *
+     * States that play the same from here have the same hash, whatever the
+     * choices that led to them, so it can be used to find states already seen
+     * (e.g. by StoryExplorer). The output text, the absolute turn index and the
+     * flows other than the current one are left out.
+     */
+    public long canonicalHash() throws Exception {
+        long h = 0xCBF29CE484222325L;
+
+        for (Element e : getCallStack().getElements()) h = mixHash(h, elementHash(e));
+
+        // A choice plays according to where it was generated from too, which
+        // is its thread and not only its target
+        for (Choice c : currentFlow.currentChoices) {
+            h = mixHash(h, c.getText() != null ? c.getText().hashCode() : 0);
+            h = mixHash(h, pathHash(c.targetPath));
+
+            CallStack.Thread thread = c.getThreadAtGeneration();
+
+            if (thread != null) {
+                h = mixHash(h, pointerHash(thread.previousPointer));
+
+                for (Element e : thread.callstack) h = mixHash(h, elementHash(e));
+            }
+        }
+
+        // Globals are hashed regardless of their order
+        long globals = 0;
+        for (String name : variablesState) {
+            globals += finishHash(mixHash(name.hashCode(), valueHash(variablesState.getVariableWithName(name))));
+        }
+        h = mixHash(h, globals);
+
+        for (int i = 0; i < visitCounts.length; i++) {
+            if (visitCounts[i] != 0) h = mixHash(mixHash(h, i), visitCounts[i]);
+        }
+
+        for (int i = 0; i < turnIndices.length; i++) {
+            if (turnIndices[i] != NO_TURN_INDEX) h = mixHash(mixHash(h, ~i), currentTurnIndex - turnIndices[i]);
+        }
+
+        h = mixHash(h, storySeed);
+        h = mixHash(h, previousRandom);
+
+        return finishHash(h);
+    }
+
+    private static long mixHash(long h, long v) {
+        return (h ^ v) * 0x100000001B3L + (h >>> 29);
+    }
+
+    // murmur3 finalizer, spreads every input bit over the whole hash.
+    private static long finishHash(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long elementHash(Element e) {
+        long h = mixHash(e.type.ordinal(), pointerHash(e.currentPointer));
+        h = mixHash(h, e.inExpressionEvaluation ? 1 : 0);
+
+        long temps = 0;
+        for (Entry<String, RTObject> t : e.temporaryVariables.entrySet())
+            temps += finishHash(mixHash(t.getKey().hashCode(), valueHash(t.getValue())));
+
+        return mixHash(h, temps);
+    }
+
+    private static long pointerHash(Pointer pointer) {
+        if (pointer.isNull()) return 0;
+
+        return mixHash(pathHash(pointer.container.getPath()), pointer.index);
+    }
+
+    // Mixes the components one by one, so paths don't collide as often as
+    // their 32-bit hashCode().
+    private static long pathHash(Path path) {
+        if (path == null) return 0;
+
+        long h = path.isRelative() ? 1 : 2;
+
+        for (int i = 0; i < path.getLength(); i++) {
+            Path.Component c = path.getComponent(i);
+            h = mixHash(
+                    h,
+                    c.isIndex()
+                            ? c.getIndex()
+                            : ((long) c.hashCode() << 32) | c.getName().length());
+        }
+
+        return finishHash(h);
+    }
+
+    private static long valueHash(RTObject obj) {
+        if (!(obj instanceof Value)) return obj == null ? 0 : obj.getClass().hashCode();
+
+        Object v = ((Value<?>) obj).getValueObject();
+
+        if (v == null) return 0;
+
+        return v instanceof Path ? pathHash((Path) v) : v.hashCode();
+    }
+
+    /**
+     * Sets the current state as the base for the next delta save.
+     *
+     * Call it after saving the full state with toJson() or toBinary(), so the
+     * deltas written afterwards can be applied onto that save. Loading a state
+     * and writing or applying a delta also set a checkpoint. Without any
+     * checkpoint, deltas are relative to the initial state of the story.
+     */
+    public void checkpoint() {
+        checkpointVisitCounts = visitCounts.clone();
+        checkpointTurnIndices = turnIndices.clone();
+        variablesState.checkpoint();
+    }
+
+    /**
+     * Exports the changes since the last checkpoint to json format and sets a new
+     * checkpoint.
+     *
+     * Only the globals and the visit counts and turn indices that changed are
+     * written, the rest of the state (flows, evaluation stack, turn index...) is
+     * small and written as a whole. A chain of deltas must be applied with
+     * applyJsonDelta(), in order, onto the state saved at the first checkpoint.
+     *
+     * @return The delta in json format.
+     */
+    public String toJsonDelta() throws Exception {
+        SimpleJson.Writer writer = new SimpleJson.Writer();
+        writeJson(writer, true);
+        checkpoint();
+
+        return writer.toString();
+    }
+
+    /**
+     * Exports the changes since the last checkpoint to the binary format and sets
+     * a new checkpoint. See toJsonDelta().
+     */
+    public void toBinaryDelta(OutputStream stream) throws Exception {
+        BinaryJson.Writer writer = new BinaryJson.Writer(stream);
+        writeJson(writer, true);
+        checkpoint();
+    }
+
     void trimNewlinesFromOutputStream() {
         int removeWhitespaceFrom = -1;
 
@@ -1073,20 +1356,19 @@ public class StoryState {
      * @throws Exception
      */
     public int visitCountAtPathString(String pathString) throws Exception {
-        Integer visitCountOut;
+        Path path = new Path(pathString);
+        Container container = story.containerAtPath(path);
 
-        if (patch != null) {
-            Container container = story.contentAtPath(new Path(pathString)).getContainer();
-            if (container == null) throw new Exception("Content at path not found: " + pathString);
+        if (container == null) {
+            if (patch != null && story.contentAtPath(path).getContainer() == null)
+                throw new Exception("Content at path not found: " + pathString);
 
-            visitCountOut = patch.getVisitCount(container);
-            if (visitCountOut != null) return visitCountOut;
+            return 0;
         }
 
-        visitCountOut = visitCounts.get(pathString);
-        if (visitCountOut != null) return visitCountOut;
+        if (!container.getVisitsShouldBeCounted()) return 0;
 
-        return 0;
+        return visitCount(container);
     }
 
     int visitCountForContainer(Container container) throws Exception {
@@ -1096,13 +1378,23 @@ public class StoryState {
             return 0;
         }
 
-        if (patch != null && patch.getVisitCount(container) != null) return patch.getVisitCount(container);
+        return visitCount(container);
+    }
+
+    private int visitCount(Container container) {
+        if (patch != null) {
+            Integer count = patch.getVisitCount(container);
+            if (count != null) return count;
+        }
 
-        String containerPathStr = container.getPath().toString();
+        int index = story.countIndexForContainer(container);
 
-        if (visitCounts.containsKey(containerPathStr)) return visitCounts.get(containerPathStr);
+        return index < visitCounts.length ? visitCounts[index] : 0;
+    }
 
-        return 0;
+    // Visit count by CompiledStory count index, once any patch is applied.
+    int visitCountAtIndex(int index) {
+        return index < visitCounts.length ? visitCounts[index] : 0;
     }
 
     void incrementVisitCountForContainer(Container container) throws Exception {
@@ -1114,13 +1406,10 @@ public class StoryState {
             return;
         }
 
-        Integer count = 0;
-        String containerPathStr = container.getPath().toString();
+        int index = story.countIndexForContainer(container);
+        ensureCountsCapacity(index);
 
-        if (visitCounts.containsKey(containerPathStr)) count = visitCounts.get(containerPathStr);
-
-        count++;
-        visitCounts.put(containerPathStr, count);
+        visitCounts[index]++;
     }
 
     void recordTurnIndexVisitToContainer(Container container) {
@@ -1129,8 +1418,10 @@ public class StoryState {
             return;
         }
 
-        String containerPathStr = container.getPath().toString();
-        turnIndices.put(containerPathStr, currentTurnIndex);
+        int index = story.countIndexForContainer(container);
+        ensureCountsCapacity(index);
+
+        turnIndices[index] = currentTurnIndex;
     }
 
     int turnsSinceForContainer(Container container) throws Exception {
@@ -1139,23 +1430,38 @@ public class StoryState {
                     + ") unknown.");
         }
 
-        int index = 0;
-
-        if (patch != null && patch.getTurnIndex(container) != null) {
-            index = patch.getTurnIndex(container);
-            return currentTurnIndex - index;
+        if (patch != null) {
+            Integer index = patch.getTurnIndex(container);
+            if (index != null) return currentTurnIndex - index;
         }
 
-        String containerPathStr = container.getPath().toString();
+        int countIndex = story.countIndexForContainer(container);
 
-        if (turnIndices.containsKey(containerPathStr)) {
-            index = turnIndices.get(containerPathStr);
-            return currentTurnIndex - index;
+        if (countIndex < turnIndices.length && turnIndices[countIndex] != NO_TURN_INDEX) {
+            return currentTurnIndex - turnIndices[countIndex];
         } else {
             return -1;
         }
     }
 
+    // Makes sure that the count arrays can hold the given container index.
+    // They are sized for all the containers registered in the story so they
+    // usually only grow once.
+    private void ensureCountsCapacity(int index) {
+        if (index < visitCounts.length) return;
+
+        int newLength = Math.max(index + 1, story.getCountedContainersSize());
+
+        int[] newVisitCounts = new int[newLength];
+        System.arraycopy(visitCounts, 0, newVisitCounts, 0, visitCounts.length);
+        visitCounts = newVisitCounts;
+
+        int[] newTurnIndices = new int[newLength];
+        System.arraycopy(turnIndices, 0, newTurnIndices, 0, turnIndices.length);
+        Arrays.fill(newTurnIndices, turnIndices.length, newLength, NO_TURN_INDEX);
+        turnIndices = newTurnIndices;
+    }
+
     public Pointer getDivertedPointer() {
         return divertedPointer;
     }
@@ -1181,8 +1487,9 @@ public class StoryState {
         variablesState.setPatch(patch); // usually null
     }
 
-    void applyAnyPatch() {
-        if (patch == null) return;
+    // Returns true if there was a patch to apply.
+    boolean applyAnyPatch() {
+        if (patch == null) return false;
 
         variablesState.applyPatch();
 
@@ -1193,15 +1500,56 @@ public class StoryState {
             applyCountChanges(pathToIndex.getKey(), pathToIndex.getValue(), false);
 
         patch = null;
+
+        return true;
     }
 
     void applyCountChanges(Container container, int newCount, boolean isVisit) {
-        HashMap<String, Integer> counts = isVisit ? visitCounts : turnIndices;
+        int index = story.countIndexForContainer(container);
+        ensureCountsCapacity(index);
+
+        if (isVisit) visitCounts[index] = newCount;
+        else turnIndices[index] = newCount;
+    }
+
+    // The path string keyed maps are only built for the JSON save format.
+    // When base is not null, only the counts that differ from it are written.
+    private void writeCounts(SimpleJson.Writer writer, int[] counts, int[] base, boolean isVisit) throws Exception {
+        int noCount = isVisit ? 0 : NO_TURN_INDEX;
 
-        counts.put(container.getPath().toString(), newCount);
+        writer.writeObjectStart();
+
+        for (int i = 0; i < counts.length; i++) {
+            if (base != null) {
+                int baseCount = i < base.length ? base[i] : noCount;
+                if (counts[i] == baseCount) continue;
+            } else if (counts[i] == noCount) continue;
+
+            writer.writeProperty(story.getCountedContainer(i).getPath().toString(), counts[i]);
+        }
+
+        writer.writeObjectEnd();
+    }
+
+    private void loadCounts(HashMap<String, Object> jCounts, boolean isVisit) throws Exception {
+        for (Entry<String, Object> keyVal : jCounts.entrySet()) {
+            SearchResult result = story.contentAtPath(new Path(keyVal.getKey()));
+            Container container = result.getContainer();
+
+            // Content that no longer exists in the story
+            if (container == null || result.approximate) continue;
+
+            applyCountChanges(container, (Integer) keyVal.getValue(), isVisit);
+        }
     }
 
     void writeJson(SimpleJson.Writer writer) throws Exception {
+        writeJson(writer, false);
+    }
+
+    // A delta holds the same properties as a full save, but the globals and the
+    // counts only have the values that changed since the last checkpoint.
+    void writeJson(SimpleJson.Writer writer, final boolean delta) throws Exception {
         writer.writeObjectStart();
 
         // Flows
@@ -1241,7 +1589,8 @@ public class StoryState {
         writer.writeProperty("variablesState", new InnerWriter() {
             @Override
             public void write(Writer w) throws Exception {
-                variablesState.writeJson(w);
+                if (delta) variablesState.writeDeltaJson(w);
+                else variablesState.writeJson(w);
             }
         });
 
@@ -1259,14 +1608,14 @@ public class StoryState {
         writer.writeProperty("visitCounts", new InnerWriter() {
             @Override
             public void write(Writer w) throws Exception {
-                Json.writeIntDictionary(w, visitCounts);
+                writeCounts(w, visitCounts, delta ? baseCounts(checkpointVisitCounts) : null, true);
             }
         });
 
         writer.writeProperty("turnIndices", new InnerWriter() {
             @Override
             public void write(Writer w) throws Exception {
-                Json.writeIntDictionary(w, turnIndices);
+                writeCounts(w, turnIndices, delta ? baseCounts(checkpointTurnIndices) : null, false);
             }
         });
 
@@ -1274,6 +1623,8 @@ public class StoryState {
         writer.writeProperty("storySeed", storySeed);
         writer.writeProperty("previousRandom", previousRandom);
 
+        if (delta) writer.writeProperty("delta", true);
+
         writer.writeProperty("inkSaveVersion", kInkSaveStateVersion);
 
         // Not using this right now, but could do in future.
@@ -1282,10 +1633,25 @@ public class StoryState {
         writer.writeObjectEnd();
     }
 
-    @SuppressWarnings("unchecked")
+    private static int[] baseCounts(int[] checkpointCounts) {
+        return checkpointCounts != null ? checkpointCounts : EMPTY_COUNTS;
+    }
+
     void loadJsonObj(HashMap<String, Object> jObject) throws Exception {
+        loadJsonObj(jObject, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    void loadJsonObj(HashMap<String, Object> jObject, boolean delta) throws Exception {
         Object jSaveVersion = jObject.get("inkSaveVersion");
 
+        if (delta != (jObject.get("delta") != null)) {
+            throw new Exception(
+                    delta
+                            ? "Not an ink save delta, use loadJson() instead."
+                            : "Can't load an ink save delta, use applyJsonDelta() instead.");
+        }
+
         if (jSaveVersion == null) {
             throw new Exception("ink save format incorrect, can't load.");
         } else if ((int) jSaveVersion < kMinCompatibleLoadVersion) {
@@ -1335,8 +1701,10 @@ public class StoryState {
             namedFlows = null;
             currentFlow.name = kDefaultFlowName;
             currentFlow.callStack.setJsonToken((HashMap<String, Object>) jObject.get("callstackThreads"), story);
-            currentFlow.outputStream = Json.jArrayToRuntimeObjList((List<Object>) jObject.get("outputStream"));
-            currentFlow.currentChoices = Json.jArrayToRuntimeObjList((List<Object>) jObject.get("currentChoices"));
+            currentFlow.outputStream = new CopyOnWriteList<>(
+                    Json.<RTObject>jArrayToRuntimeObjList((List<Object>) jObject.get("outputStream")));
+            currentFlow.currentChoices = new CopyOnWriteList<>(
+                    Json.<Choice>jArrayToRuntimeObjList((List<Object>) jObject.get("currentChoices")));
 
             Object jChoiceThreadsObj = jObject.get("choiceThreads");
 
@@ -1346,10 +1714,12 @@ public class StoryState {
         outputStreamDirty();
         aliveFlowNamesDirty = true;
 
-        variablesState.setJsonToken((HashMap<String, Object>) jObject.get("variablesState"));
+        if (delta) variablesState.applyJsonDeltaToken((HashMap<String, Object>) jObject.get("variablesState"));
+        else variablesState.setJsonToken((HashMap<String, Object>) jObject.get("variablesState"));
         variablesState.setCallStack(currentFlow.callStack);
 
-        evaluationStack = Json.jArrayToRuntimeObjList((List<Object>) jObject.get("evalStack"));
+        evaluationStack =
+                new CopyOnWriteList<>(Json.<RTObject>jArrayToRuntimeObjList((List<Object>) jObject.get("evalStack")));
 
         Object currentDivertTargetPath = jObject.get("currentDivertTarget");
         if (currentDivertTargetPath != null) {
@@ -1357,8 +1727,19 @@ public class StoryState {
             divertedPointer.assign(story.pointerAtPath(divertPath));
         }
 
-        visitCounts = Json.jObjectToIntHashMap((HashMap<String, Object>) jObject.get("visitCounts"));
-        turnIndices = Json.jObjectToIntHashMap((HashMap<String, Object>) jObject.get("turnIndices"));
+        endPointer.assign(Pointer.Null);
+
+        if (delta) {
+            // The arrays can be shared with a state snapshot
+            visitCounts = visitCounts.clone();
+            turnIndices = turnIndices.clone();
+        } else {
+            visitCounts = EMPTY_COUNTS;
+            turnIndices = EMPTY_COUNTS;
+        }
+
+        loadCounts((HashMap<String, Object>) jObject.get("visitCounts"), true);
+        loadCounts((HashMap<String, Object>) jObject.get("turnIndices"), false);
 
         currentTurnIndex = (int) jObject.get("turnIdx");
         storySeed = (int) jObject.get("storySeed");
@@ -1370,5 +1751,7 @@ public class StoryState {
         } else {
             previousRandom = 0;
         }
+
+        checkpoint();
     }
 }
@@ -7,6 +7,9 @@ public class VariableReference extends RTObject {
     // Variable reference is actually a path for a visit (read) count
     private Path pathForCount;
 
+    // Content doesn't change at runtime, so the container is only resolved once.
+    private Container containerForCount;
+
     // Require default constructor for serialisation
     public VariableReference() {}
 
@@ -15,7 +18,10 @@ public class VariableReference extends RTObject {
     }
 
     public Container getContainerForCount() throws Exception {
-        return this.resolvePath(getPathForCount()).getContainer();
+        if (containerForCount == null)
+            containerForCount = this.resolvePath(getPathForCount()).getContainer();
+
+        return containerForCount;
     }
 
     public String getName() {
@@ -38,6 +44,12 @@ public class VariableReference extends RTObject {
 
     public void setPathForCount(Path value) {
         pathForCount = value;
+        containerForCount = null;
+    }
+
+    // Pre-resolves the read count container when linking the story content.
+    void link() throws Exception {
+        if (pathForCount != null) getContainerForCount();
     }
 
     public void setPathStringForCount(String value) throws Exception {
@@ -32,6 +32,9 @@ public class VariablesState implements Iterable<String> {
 
     private StatePatch patch;
 
+    // Globals at the last checkpoint, the base for delta saves.
+    private HashMap<String, RTObject> checkpointGlobals;
+
     VariablesState(CallStack callStack, ListDefinitionsOrigin listDefsOrigin) {
         globalVariables = new HashMap<>();
         this.callStack = callStack;
@@ -114,6 +117,44 @@ public class VariablesState implements Iterable<String> {
         }
     }
 
+    void applyJsonDeltaToken(HashMap<String, Object> jToken) throws Exception {
+        for (Entry<String, Object> varVal : jToken.entrySet()) {
+            globalVariables.put(varVal.getKey(), Json.jTokenToRuntimeObject(varVal.getValue()));
+        }
+    }
+
+    void checkpoint() {
+        checkpointGlobals = new HashMap<>(globalVariables);
+
+        // Lists can be modified in place through the InkList API
+        for (Entry<String, RTObject> keyVal : checkpointGlobals.entrySet()) {
+            if (keyVal.getValue() instanceof ListValue) {
+                InkList list = ((ListValue) keyVal.getValue()).getValue();
+                keyVal.setValue(new ListValue(new InkList(list)));
+            }
+        }
+    }
+
+    // Writes the globals that changed since the last checkpoint, or since the
+    // start of the story if there isn't any.
+    void writeDeltaJson(SimpleJson.Writer writer) throws Exception {
+        HashMap<String, RTObject> base = checkpointGlobals != null ? checkpointGlobals : defaultGlobalVariables;
+
+        writer.writeObjectStart();
+        for (Entry<String, RTObject> keyVal : globalVariables.entrySet()) {
+            String name = keyVal.getKey();
+            RTObject val = keyVal.getValue();
+            RTObject baseVal = base != null ? base.get(name) : null;
+
+            if (baseVal == val || baseVal != null && runtimeObjectsEqual(val, baseVal)) continue;
+
+            writer.writePropertyStart(name);
+            Json.writeRuntimeObject(writer, val);
+            writer.writePropertyEnd();
+        }
+        writer.writeObjectEnd();
+    }
+
     /// <summary>
     /// When saving out JSON state, we can skip saving global values that
     /// remain equal to the initial values that were declared in ink.
@@ -153,17 +194,17 @@ public class VariablesState implements Iterable<String> {
         // Perform equality on int/float/bool manually to avoid boxing
         if (obj1 instanceof BoolValue) {
             BoolValue boolVal = (BoolValue) obj1;
-            return boolVal.value == ((BoolValue) obj2).value;
+            return boolVal.value.booleanValue() == ((BoolValue) obj2).value.booleanValue();
         }
 
         if (obj1 instanceof IntValue) {
             IntValue intVal = (IntValue) obj1;
-            return intVal.value == ((IntValue) obj2).value;
+            return intVal.value.intValue() == ((IntValue) obj2).value.intValue();
         }
 
         if (obj1 instanceof FloatValue) {
             FloatValue floatVal = (FloatValue) obj1;
-            return floatVal.value == ((FloatValue) obj2).value;
+            return floatVal.value.floatValue() == ((FloatValue) obj2).value.floatValue();
         }
 
         // Other Value type (using proper Equals: list, string, divert path)